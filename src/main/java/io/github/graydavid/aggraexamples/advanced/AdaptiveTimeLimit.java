@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.advanced;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggraexamples.execution.HashedWheelTimer;
+import io.github.graydavid.aggraexamples.resilience.AdaptiveTimeLimitNodes;
+import io.github.graydavid.aggraexamples.resilience.AdaptiveTimeoutPolicy;
+
+/**
+ * Time-limits a dependency whose latency is usually about 2ms, but sometimes 30ms, with a timeout that the policy
+ * learns from those latencies, rather than one hard-coded up front like in TimeLimit and DamageLimit. Every 100th call
+ * overrides the policy's timeout with a generous one, e.g. because its caller has said it's willing to wait.
+ */
+public class AdaptiveTimeLimit {
+    private AdaptiveTimeLimit() {}
+
+    // The input is the number of the call
+    private static class ExampleMemory extends Memory<Integer> {
+        private ExampleMemory(MemoryScope scope, CompletionStage<Integer> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        AdaptiveTimeoutPolicy policy = AdaptiveTimeoutPolicy.builder()
+                .percentile(90)
+                .multiplier(1.5)
+                .initialTimeout(Duration.ofMillis(50))
+                .maximumTimeout(Duration.ofMillis(50))
+                .minimumSamples(20)
+                .refreshInterval(Duration.ofMillis(100))
+                .build();
+        try (HashedWheelTimer timer = HashedWheelTimer.create()) {
+            Node<ExampleMemory, Integer> getCallNumber = Node.inputBuilder(ExampleMemory.class)
+                    .role(Role.of("GetCallNumber"))
+                    .build();
+            Node<ExampleMemory, Integer> callService = FunctionNodes
+                    .asynchronous(Role.of("CallService"), ExampleMemory.class, executor)
+                    .apply(callNumber -> {
+                        sleep(callNumber % 20 == 0 ? 30 : 2);
+                        return callNumber;
+                    }, getCallNumber);
+            Node<ExampleMemory, Optional<Duration>> getTimeoutOverride = FunctionNodes
+                    .synchronous(Role.of("GetTimeoutOverride"), ExampleMemory.class)
+                    .apply(callNumber -> (callNumber % 100 == 0) ? Optional.of(Duration.ofMillis(100))
+                            : Optional.<Duration>empty(), getCallNumber);
+            Node<ExampleMemory, Integer> callServiceWithTimeout = AdaptiveTimeLimitNodes
+                    .startNode(Role.of("CallServiceWithTimeout"), ExampleMemory.class)
+                    .timeoutScheduler(timer)
+                    .executor(executor)
+                    .policy(policy)
+                    .timeoutOverride(getTimeoutOverride)
+                    .timeLimitedCall(callService);
+            Graph<ExampleMemory> graph = Graph.fromRoots(Role.of("AdaptiveTimeLimitGraph"),
+                    Set.of(callServiceWithTimeout));
+            GraphCall.Factory<Integer, ExampleMemory> graphCallFactory = GraphCall.Factory.from(graph,
+                    ExampleMemory::new);
+
+            int failures = 0;
+            for (int callNumber = 1; callNumber <= 500; ++callNumber) {
+                GraphCall<ExampleMemory> graphCall = graphCallFactory.openCancellableCall(callNumber,
+                        Observer.doNothing());
+                Reply<Integer> reply = graphCall.finalCallAndWeaklyCloseOrAbandonOnTimeout(callServiceWithTimeout, 5,
+                        TimeUnit.SECONDS, (state, throwable, finalReply) -> {
+                        }).join();
+                failures += reply.isCompletedExceptionally() ? 1 : 0;
+                if (callNumber % 100 == 0) {
+                    System.out.println("After " + callNumber + " calls (" + failures + " failed): " + policy);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
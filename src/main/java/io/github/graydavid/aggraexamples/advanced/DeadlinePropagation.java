@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.advanced;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.MemoryTripNodes;
+import io.github.graydavid.aggraexamples.execution.Deadline;
+import io.github.graydavid.aggraexamples.execution.Deadline.DeadlineMemory;
+import io.github.graydavid.aggraexamples.execution.DeadlineNodes;
+import io.github.graydavid.aggraexamples.execution.TimeoutScheduler;
+
+public class DeadlinePropagation {
+    private DeadlinePropagation() {}
+
+    private static class MainMemory extends Memory<Void> implements DeadlineMemory {
+        private final Deadline deadline;
+
+        private MainMemory(MemoryScope scope, Deadline deadline) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), () -> new ConcurrentHashMapStorage());
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Deadline getDeadline() {
+            return deadline;
+        }
+    }
+
+    // The child inherits the main Memory's deadline, and can only narrow it
+    private static class DependencyMemory extends Memory<Void> implements DeadlineMemory {
+        private final Deadline deadline;
+
+        private DependencyMemory(MemoryScope scope, MainMemory parent) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(parent), () -> new ConcurrentHashMapStorage());
+            this.deadline = Deadline.inheritedFrom(parent).narrowedTo(Duration.ofSeconds(1));
+        }
+
+        @Override
+        public Deadline getDeadline() {
+            return deadline;
+        }
+    }
+
+    public static void main(String args[]) {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        TimeoutScheduler timeoutScheduler = TimeoutScheduler.from(scheduler);
+
+        Node<DependencyMemory, String> callSlowDependency = DeadlineNodes
+                .startNode(Role.of("CallSlowDependency"), DependencyMemory.class)
+                .timeoutScheduler(timeoutScheduler)
+                .executor(executor)
+                .getAsynchronously(() -> {
+                    sleep(100);
+                    return "Too late";
+                });
+        Node<MainMemory, String> callDependencyInIsolation = MemoryTripNodes
+                .startNode(Role.of("CallDependencyInIsolation"), MainMemory.class)
+                .createMemoryNoInputAndCall(DependencyMemory::new, callSlowDependency);
+        Graph<MainMemory> graph = Graph.fromRoots(Role.of("DeadlinePropagationGraph"),
+                Set.of(callDependencyInIsolation));
+
+        // The whole request has 20ms, and the dependency's own 1s budget can't extend that
+        GraphCall.NoInputFactory<MainMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph,
+                scope -> new MainMemory(scope, Deadline.after(Duration.ofMillis(20))));
+        try {
+            GraphCall<MainMemory> graphCall = graphCallFactory.openCancellableCall(Observer.doNothing());
+            Reply<String> reply = graphCall
+                    .finalCallAndWeaklyCloseOrAbandonOnTimeout(callDependencyInIsolation, 5, TimeUnit.SECONDS,
+                            (state, throwable, finalReply) -> {
+                            })
+                    .join();
+            System.out.println("Reply: " + reply);
+        } finally {
+            executor.shutdown();
+            scheduler.shutdown();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryFactory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggraexamples.iteration.StreamingIterationNodes;
+
+public class StreamingIteration {
+    private StreamingIteration() {}
+
+    private static class MainMemory extends Memory<Void> {
+        private MainMemory(MemoryScope scope) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    private static class SecondaryMemory extends Memory<Integer> {
+        private SecondaryMemory(MemoryScope scope, CompletionStage<Integer> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        Node<SecondaryMemory, Integer> getInput = Node.inputBuilder(SecondaryMemory.class)
+                .role(Role.of("GetInput"))
+                .build();
+        Node<SecondaryMemory, Integer> multiplyInputByTwo = FunctionNodes
+                .synchronous(Role.of("MultipleInputByTwo"), SecondaryMemory.class)
+                .apply(num -> 2 * num, getInput);
+        List<Integer> numbers = IntStream.rangeClosed(1, 10_000).boxed().collect(Collectors.toUnmodifiableList());
+        Node<MainMemory, List<Integer>> getList = FunctionNodes.synchronous(Role.of("GetList"), MainMemory.class)
+                .getValue(numbers);
+        // javac (but not Eclipse) has a problem inferring type arguments when the memory factory is declared inline,
+        // so break it out into a separate variable definition.
+        MemoryFactory<MainMemory, Integer, SecondaryMemory> secondaryMemoryFactory = (scope, input,
+                main) -> new SecondaryMemory(scope, input);
+
+        // Sums the doubled numbers without ever holding more than 32 of them at once
+        Node<MainMemory, Integer> sumDoubled = StreamingIterationNodes
+                .startNode(Role.of("SumDoubled"), MainMemory.class)
+                .maxInFlight(32)
+                .iterate(getList, secondaryMemoryFactory, multiplyInputByTwo)
+                .reduce(0, Integer::sum);
+        // Takes the first 5 doubled numbers to arrive, and cancels the rest, so that most elements are never started
+        Node<MainMemory, List<Integer>> firstFiveDoubled = StreamingIterationNodes
+                .startNode(Role.of("FirstFiveDoubled"), MainMemory.class)
+                .iterate(getList, secondaryMemoryFactory, multiplyInputByTwo)
+                .publishTo(publisher -> {
+                    FirstResultsSubscriber<Integer> subscriber = new FirstResultsSubscriber<>(5);
+                    publisher.subscribe(subscriber);
+                    return subscriber.results;
+                });
+
+        Graph<MainMemory> graph = Graph.fromRoots(Role.of("StreamingIteration"), Set.of(sumDoubled, firstFiveDoubled));
+        GraphCall.NoInputFactory<MainMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph, MainMemory::new);
+        GraphCall<MainMemory> graphCall = graphCallFactory.openCancellableCall(Observer.doNothing());
+        Reply<Integer> sum = graphCall.call(sumDoubled);
+        Reply<List<Integer>> firstFive = graphCall.call(firstFiveDoubled);
+        graphCall.weaklyClose().join();
+        System.out.println("Sum of doubled: " + sum.join());
+        System.out.println("First five doubled: " + firstFive.join());
+    }
+
+    // Requests exactly as many results as it wants, and then cancels
+    private static class FirstResultsSubscriber<T> implements Flow.Subscriber<T> {
+        private final int limit;
+        private final List<T> collected = new ArrayList<>();
+        private final CompletableFuture<List<T>> results = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        private FirstResultsSubscriber(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(limit);
+        }
+
+        @Override
+        public void onNext(T item) {
+            collected.add(item);
+            if (collected.size() == limit) {
+                subscription.cancel();
+                results.complete(collected);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            results.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            results.complete(collected);
+        }
+    }
+}
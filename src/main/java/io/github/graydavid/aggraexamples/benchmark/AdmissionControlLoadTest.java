@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggraexamples.benchmark.MotivationGraph.ServiceOperationMemory;
+import io.github.graydavid.aggraexamples.execution.TimeoutScheduler;
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelResponse;
+import io.github.graydavid.aggraexamples.resilience.AdmissionControlledGraphCallFactory;
+
+/**
+ * Pushes the motivation graph past saturation, with and without admission control on its GraphCall.Factory. The graph
+ * runs on a fixed-size executor, and its services block for a fixed latency, so the executor's size sets the graph's
+ * capacity. Each client waits at most a fixed SLO for its response, then gives up and sends its next request, like
+ * a real client with a timeout would, while the abandoned GraphCall carries on using the executor.
+ *
+ * Without admission control, past saturation, the executor's backlog grows until every GraphCall misses the SLO, and
+ * goodput (responses within the SLO per second) collapses. With admission control, excess calls are rejected quickly,
+ * so the calls that are admitted still meet the SLO, and goodput holds steady near capacity.
+ *
+ * Usage: AdmissionControlLoadTest [executorThreads] [sloMillis]
+ */
+public class AdmissionControlLoadTest {
+    private AdmissionControlLoadTest() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(3);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(5);
+    private static final Duration SERVICE_LATENCY = Duration.ofMillis(1);
+    private static final List<Integer> CONCURRENCIES = List.of(4, 16, 64, 256, 1024);
+
+    public static void main(String args[]) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long sloMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+        Types.setServiceLatencySimulator(LatencyDistribution.fixed(SERVICE_LATENCY)::await);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        TimeoutScheduler timeoutScheduler = TimeoutScheduler.from(scheduler);
+
+        System.out.println("Executor threads: " + threads + ", SLO: " + sloMillis + "ms");
+        System.out.println(String.format("%-12s %-10s %s", "goodput/s", "good(%)", LoadResult.header()));
+        for (int concurrency : CONCURRENCIES) {
+            run("Unlimited", concurrency, threads, sloMillis, null);
+            run("AdmissionControlled", concurrency, threads, sloMillis, timeoutScheduler);
+        }
+        scheduler.shutdownNow();
+    }
+
+    private static void run(String name, int concurrency, int threads, long sloMillis,
+            TimeoutScheduler timeoutScheduler) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        MotivationGraph graph = MotivationGraph.from(executor);
+        AdmissionControlledGraphCallFactory<TopLevelRequest, ServiceOperationMemory> factory =
+                (timeoutScheduler == null) ? null : admissionControlled(graph, threads, sloMillis, timeoutScheduler);
+
+        AtomicLong operations = new AtomicLong();
+        AtomicLong goodOperations = new AtomicLong();
+        LoadResult result = ClosedLoopLoad.run(name, concurrency, WARMUP, MEASUREMENT, () -> {
+            operations.incrementAndGet();
+            CompletableFuture<TopLevelResponse> response = (factory == null)
+                    ? graph.call(new TopLevelRequest(), Observer.doNothing())
+                    : factory.finalCall(new TopLevelRequest(), Observer.doNothing(), graph.getTopLevelResponseNode());
+            response.get(sloMillis, TimeUnit.MILLISECONDS);
+            goodOperations.incrementAndGet();
+        });
+        executor.shutdownNow();
+
+        // Counted over warmup and measurement together, which is fine for a ratio
+        double goodFraction = (double) goodOperations.get() / operations.get();
+        System.out.println(String.format("%-12.0f %-10.1f %s", result.getThroughputPerSecond() * goodFraction,
+                goodFraction * 100, result));
+        if (factory != null) {
+            System.out.println("    " + factory);
+        }
+    }
+
+    // Each GraphCall needs one or two executor threads at a time, so this keeps the executor busy but its queue short
+    private static AdmissionControlledGraphCallFactory<TopLevelRequest, ServiceOperationMemory> admissionControlled(
+            MotivationGraph graph, int threads, long sloMillis, TimeoutScheduler timeoutScheduler) {
+        return AdmissionControlledGraphCallFactory.builder(graph.getGraphCallFactory())
+                .timeoutScheduler(timeoutScheduler)
+                .maxOpenCalls(threads)
+                .maxQueueTime(Duration.ofMillis(sloMillis / 2))
+                .build();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+import io.github.graydavid.aggraexamples.benchmark.MotivationGraph.CallService1Factory;
+import io.github.graydavid.aggraexamples.benchmark.MotivationGraph.ServiceOperationMemory;
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.BulkService1;
+import io.github.graydavid.aggraexamples.motivation.Types.Service1;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponse1;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.sharing.Batcher;
+import io.github.graydavid.aggraexamples.sharing.BatchingNodes;
+
+/**
+ * Compares the motivation graph with an individual Service1 call per GraphCall against one where Service1 calls are
+ * batched across concurrent GraphCalls through {@link BatchingNodes}. Reports Service1 backend calls per GraphCall
+ * alongside the usual throughput and latency, for a few different batch windows.
+ *
+ * Usage: BatchingBenchmark [concurrency]
+ */
+public class BatchingBenchmark {
+    private BatchingBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(3);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(10);
+    private static final int MAX_BATCH_SIZE = 100;
+
+    public static void main(String args[]) {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        Types.setServiceLatencySimulator(LatencyDistribution.fixed(Duration.ofMillis(2))::await);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CreationTimeExecutorAsynchronousStarter asynchronousStarter = CreationTimeExecutorAsynchronousStarter
+                .from(executor);
+
+        System.out.println(String.format("%-30s %s", "service1 calls/GraphCall", LoadResult.header()));
+        AtomicLong individualCalls = new AtomicLong();
+        run("Individual", concurrency, individualCalls, getRequest -> asynchronousStarter
+                .startNode(Role.of("CallService1"), ServiceOperationMemory.class)
+                .apply(request -> {
+                    individualCalls.incrementAndGet();
+                    return Service1.callService(request);
+                }, getRequest));
+
+        for (Duration window : List.of(Duration.ofNanos(200_000), Duration.ofMillis(1), Duration.ofMillis(5))) {
+            AtomicLong bulkCalls = new AtomicLong();
+            Batcher<TopLevelRequest, ServiceResponse1> batcher = new Batcher<>(requests -> {
+                bulkCalls.incrementAndGet();
+                return BulkService1.callService(requests);
+            }, MAX_BATCH_SIZE, window, scheduler, executor);
+            run("Batched(window=" + window.toNanos() / 1000 + "us)", concurrency, bulkCalls,
+                    getRequest -> BatchingNodes.startNode(Role.of("CallService1"), ServiceOperationMemory.class)
+                            .batchedCall(batcher, getRequest));
+        }
+
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private static void run(String name, int concurrency, AtomicLong service1Calls,
+            CallService1Factory callService1Factory) {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        MotivationGraph graph = MotivationGraph.from(executor, callService1Factory);
+
+        AtomicLong graphCalls = new AtomicLong();
+        LoadResult result = ClosedLoopLoad.run(name, concurrency, WARMUP, MEASUREMENT, () -> {
+            graphCalls.incrementAndGet();
+            graph.callAndWait(new TopLevelRequest());
+        });
+        executor.shutdownNow();
+
+        // Counted over warmup and measurement together, which is fine for a ratio
+        double callsPerGraphCall = (double) service1Calls.get() / graphCalls.get();
+        System.out.println(String.format("%-30.3f %s", callsPerGraphCall, result));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.CaptureResponseNodes;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+import io.github.graydavid.aggraexamples.benchmark.MotivationGraph.ServiceOperationMemory;
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponse1;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.resilience.AdaptiveConcurrencyLimit;
+import io.github.graydavid.aggraexamples.resilience.BulkheadNodes;
+import io.github.graydavid.onemoretry.Try;
+
+/**
+ * Compares the motivation graph with and without a bulkhead around its CallService1 node, where Service1 is a local
+ * stand-in with limited capacity: once more calls are in flight than it can serve at once, every call slows down in
+ * proportion. Without a bulkhead, every GraphCall piles onto Service1, so its latency (and the number of threads
+ * blocked on it) grows with the load. With a bulkhead, the adaptive limit settles near Service1's capacity, and calls
+ * over it fall back to a default ServiceResponse1. Reports the peak number of Service1 calls in flight at once
+ * alongside the usual latency percentiles and peak threads.
+ *
+ * Usage: BulkheadBenchmark [concurrency] [service1Capacity]
+ */
+public class BulkheadBenchmark {
+    private BulkheadBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(10);
+    private static final Duration SERVICE1_LATENCY = Duration.ofMillis(5);
+
+    public static void main(String args[]) {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        Types.setServiceLatencySimulator(LatencyDistribution.none()::await);
+
+        System.out.println("Service1 capacity: " + capacity + ", latency at capacity: " + SERVICE1_LATENCY);
+        System.out.println(String.format("%-30s %s", "peak service1 calls in flight", LoadResult.header()));
+        run("Unlimited", concurrency, new CapacityLimitedService(capacity), null);
+        run("Bulkhead(reject)", concurrency, new CapacityLimitedService(capacity),
+                AdaptiveConcurrencyLimit.builder().build());
+        run("Bulkhead(queue=" + concurrency + ")", concurrency, new CapacityLimitedService(capacity),
+                AdaptiveConcurrencyLimit.builder().maxQueued(concurrency).build());
+    }
+
+    private static void run(String name, int concurrency, CapacityLimitedService service,
+            AdaptiveConcurrencyLimit limit) {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        CreationTimeExecutorAsynchronousStarter asynchronousStarter = CreationTimeExecutorAsynchronousStarter
+                .from(executor);
+        MotivationGraph graph = MotivationGraph.from(executor, getTopLevelRequest -> {
+            Node<ServiceOperationMemory, ServiceResponse1> callService1 = asynchronousStarter
+                    .startNode(Role.of("CallLimitedService1"), ServiceOperationMemory.class)
+                    .apply(service::call, getTopLevelRequest);
+            if (limit == null) {
+                return callService1;
+            }
+            Node<ServiceOperationMemory, ServiceResponse1> bulkheadService1 = BulkheadNodes
+                    .startNode(Role.of("BulkheadService1"), ServiceOperationMemory.class)
+                    .limit(limit)
+                    .limitedCall(callService1);
+            Node<ServiceOperationMemory, Try<ServiceResponse1>> captureService1 = CaptureResponseNodes
+                    .startNode(Role.of("CaptureService1"), ServiceOperationMemory.class)
+                    .captureResponse(bulkheadService1);
+            return FunctionNodes.synchronous(Role.of("CallService1"), ServiceOperationMemory.class)
+                    .apply(response -> response.isSuccess() ? response.getOrThrowUnchecked() : new ServiceResponse1(),
+                            captureService1);
+        });
+
+        LoadResult result = ClosedLoopLoad.run(name, concurrency, WARMUP, MEASUREMENT,
+                () -> graph.callAndWait(new TopLevelRequest()));
+        executor.shutdownNow();
+
+        System.out.println(String.format("%-30d %s", service.getPeakInFlight(), result));
+        if (limit != null) {
+            System.out.println("    " + limit);
+        }
+    }
+
+    // A local stand-in for Service1 that serves capacity calls at once, and slows down in proportion beyond that
+    private static class CapacityLimitedService {
+        private final int capacity;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger peakInFlight = new AtomicInteger();
+
+        private CapacityLimitedService(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private ServiceResponse1 call(TopLevelRequest request) {
+            int current = inFlight.incrementAndGet();
+            peakInFlight.accumulateAndGet(current, Math::max);
+            try {
+                long latencyNanos = SERVICE1_LATENCY.toNanos() * Math.max(capacity, current) / capacity;
+                LatencyDistribution.fixed(Duration.ofNanos(latencyNanos)).await();
+                return new ServiceResponse1();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private int getPeakInFlight() {
+            return peakInFlight.get();
+        }
+    }
+}
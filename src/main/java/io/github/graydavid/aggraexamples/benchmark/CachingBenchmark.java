@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+import io.github.graydavid.aggraexamples.benchmark.MotivationGraph.ServiceOperationMemory;
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.Service1;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponse1;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.sharing.CachingNodes;
+import io.github.graydavid.aggraexamples.sharing.SharedCache;
+
+/**
+ * Demonstrates {@link CachingNodes} on the motivation graph: CallService1 is cached across GraphCalls, while the rest
+ * of the graph runs as usual. Requests are drawn from a Zipf distribution over a fixed set of distinct requests, so a
+ * few are very popular and most are rare. Compares an uncached run with cached runs of a few sizes, reporting Service1
+ * backend calls per GraphCall and the cache's own metrics.
+ *
+ * Usage: CachingBenchmark [concurrency] [distinctRequests]
+ */
+public class CachingBenchmark {
+    private CachingBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(3);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(10);
+    private static final Duration TTL = Duration.ofSeconds(1);
+    private static final double ZIPF_EXPONENT = 1.0;
+
+    public static void main(String args[]) {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int distinctRequests = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        Types.setServiceLatencySimulator(LatencyDistribution.fixed(Duration.ofMillis(2))::await);
+        TopLevelRequest[] requests = IntStream.range(0, distinctRequests)
+                .mapToObj(i -> new TopLevelRequest())
+                .toArray(TopLevelRequest[]::new);
+        double[] cumulativeProbabilities = zipfCumulativeProbabilities(distinctRequests, ZIPF_EXPONENT);
+
+        System.out.println(String.format("%-30s %s", "service1 calls/GraphCall", LoadResult.header()));
+        AtomicLong uncachedCalls = new AtomicLong();
+        ExecutorService uncachedExecutor = Executors.newCachedThreadPool();
+        MotivationGraph uncached = MotivationGraph.from(uncachedExecutor,
+                getRequest -> CreationTimeExecutorAsynchronousStarter.from(uncachedExecutor)
+                        .startNode(Role.of("CallService1"), ServiceOperationMemory.class)
+                        .apply(request -> {
+                            uncachedCalls.incrementAndGet();
+                            return Service1.callService(request);
+                        }, getRequest));
+        run("Uncached", concurrency, uncached, uncachedCalls, requests, cumulativeProbabilities);
+        uncachedExecutor.shutdownNow();
+
+        for (long maximumSize : new long[] {100, 1_000, 10_000}) {
+            AtomicLong cachedCalls = new AtomicLong();
+            SharedCache<TopLevelRequest, ServiceResponse1> cache = new SharedCache<>(maximumSize, TTL);
+            ExecutorService executor = Executors.newCachedThreadPool();
+            MotivationGraph cached = MotivationGraph.from(executor,
+                    getRequest -> CachingNodes.from(executor)
+                            .startNode(Role.of("CallService1"), ServiceOperationMemory.class)
+                            .apply(cache, request -> {
+                                cachedCalls.incrementAndGet();
+                                return Service1.callService(request);
+                            }, getRequest));
+            run("Cached(size=" + maximumSize + ")", concurrency, cached, cachedCalls, requests,
+                    cumulativeProbabilities);
+            System.out.println("    " + cache);
+            executor.shutdownNow();
+        }
+    }
+
+    private static double[] zipfCumulativeProbabilities(int count, double exponent) {
+        double[] cumulative = new double[count];
+        double sum = 0;
+        for (int i = 0; i < count; ++i) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < count; ++i) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int nextZipfIndex(double[] cumulativeProbabilities) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, ThreadLocalRandom.current().nextDouble());
+        return Math.min((index >= 0) ? index : -index - 1, cumulativeProbabilities.length - 1);
+    }
+
+    private static void run(String name, int concurrency, MotivationGraph graph, AtomicLong service1Calls,
+            TopLevelRequest[] requests, double[] cumulativeProbabilities) {
+        AtomicLong graphCalls = new AtomicLong();
+        LoadResult result = ClosedLoopLoad.run(name, concurrency, WARMUP, MEASUREMENT, () -> {
+            graphCalls.incrementAndGet();
+            graph.callAndWait(requests[nextZipfIndex(cumulativeProbabilities)]);
+        });
+
+        // Counted over warmup and measurement together, which is fine for a ratio
+        double callsPerGraphCall = (double) service1Calls.get() / graphCalls.get();
+        System.out.println(String.format("%-30.3f %s", callsPerGraphCall, result));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+import io.github.graydavid.aggraexamples.cancellation.AmortizedCancelSignal;
+
+/**
+ * Measures the trade-off between how often a CPU-bound loop reads its cancel signal and how quickly it stops once the
+ * signal is triggered, for the loopFor1000000 case from ReplyCompositeSignal. For each polling strategy, it reports:
+ * <ul>
+ * <li>Throughput: loop iterations per second when running 1,000,000 iterations to completion, uncancelled.
+ * <li>Time to stop: how long after GraphCall#triggerCancelSignal the loop exits, when the signal is triggered at a
+ * random point during a loop that would otherwise run for a very long time.
+ * </ul>
+ * Every strategy goes through AmortizedCancelSignal (reading every iteration is just everyIterations(1)), so that they
+ * all share the same loop code.
+ *
+ * Usage: CancelPollingBenchmark [stopTrials]
+ */
+public class CancelPollingBenchmark {
+    private CancelPollingBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(2);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(5);
+    private static final int LOOPS = 1_000_000;
+    private static final long MAX_TRIGGER_DELAY_NANOS = 200_000;
+    private static volatile long sink;
+    // Set by the loop when it starts, so that the stop trials know when to trigger the signal
+    private static volatile CompletableFuture<Void> loopStarted = new CompletableFuture<>();
+
+    private static class LoopMemory extends Memory<Integer> {
+        private LoopMemory(MemoryScope scope, CompletionStage<Integer> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        int stopTrials = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Map<String, Function<CompositeCancelSignal, AmortizedCancelSignal>> strategies = new LinkedHashMap<>();
+        strategies.put("every iteration", signal -> AmortizedCancelSignal.everyIterations(signal, 1));
+        strategies.put("every 16 iterations", signal -> AmortizedCancelSignal.everyIterations(signal, 16));
+        strategies.put("every 256 iterations", signal -> AmortizedCancelSignal.everyIterations(signal, 256));
+        strategies.put("every 4096 iterations", signal -> AmortizedCancelSignal.everyIterations(signal, 4096));
+        strategies.put("adaptive(10us)", signal -> AmortizedCancelSignal.adaptive(signal, Duration.ofNanos(10_000)));
+        strategies.put("adaptive(100us)", signal -> AmortizedCancelSignal.adaptive(signal, Duration.ofNanos(100_000)));
+        strategies.put("adaptive(1ms)", signal -> AmortizedCancelSignal.adaptive(signal, Duration.ofMillis(1)));
+
+        System.out.println(String.format("%-25s %16s %14s %14s %14s", "strategy", "iterations/s", "stop p50(us)",
+                "stop p99(us)", "stop max(us)"));
+        strategies.forEach((name, strategy) -> run(name, executor, strategy, stopTrials));
+        executor.shutdown();
+    }
+
+    private static void run(String name, ExecutorService executor,
+            Function<CompositeCancelSignal, AmortizedCancelSignal> strategy, int stopTrials) {
+        Node<LoopMemory, Long> loop = createLoopNode(executor, strategy);
+        Graph<LoopMemory> graph = Graph.fromRoots(Role.of("CancelPollingGraph"), Set.of(loop));
+        GraphCall.Factory<Integer, LoopMemory> graphCallFactory = GraphCall.Factory.from(graph, LoopMemory::new);
+
+        LoadResult result = ClosedLoopLoad.run(name, 1, WARMUP, MEASUREMENT, () -> {
+            GraphCall<LoopMemory> graphCall = graphCallFactory.openCancellableCall(LOOPS, Observer.doNothing());
+            graphCall.call(loop).join();
+            graphCall.weaklyClose().join();
+        });
+
+        long[] stopNanos = new long[stopTrials];
+        for (int i = 0; i < stopTrials; ++i) {
+            stopNanos[i] = timeToStop(graphCallFactory, loop);
+        }
+        Arrays.sort(stopNanos);
+        System.out.println(String.format("%-25s %,16.0f %,14.1f %,14.1f %,14.1f", name,
+                result.getThroughputPerSecond() * LOOPS, Statistics.micros(Statistics.percentile(stopNanos, 50)),
+                Statistics.micros(Statistics.percentile(stopNanos, 99)),
+                Statistics.micros(stopNanos[stopNanos.length - 1])));
+    }
+
+    private static long timeToStop(GraphCall.Factory<Integer, LoopMemory> graphCallFactory,
+            Node<LoopMemory, Long> loop) {
+        loopStarted = new CompletableFuture<>();
+        GraphCall<LoopMemory> graphCall = graphCallFactory.openCancellableCall(Integer.MAX_VALUE,
+                Observer.doNothing());
+        Reply<Long> exitNanos = graphCall.call(loop);
+        loopStarted.join();
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(MAX_TRIGGER_DELAY_NANOS));
+        long triggerNanos = System.nanoTime();
+        graphCall.triggerCancelSignal();
+        long stopNanos = exitNanos.join() - triggerNanos;
+        graphCall.weaklyClose().join();
+        return stopNanos;
+    }
+
+    // Responds with the time the loop exited
+    private static Node<LoopMemory, Long> createLoopNode(ExecutorService executor,
+            Function<CompositeCancelSignal, AmortizedCancelSignal> strategy) {
+        Node<LoopMemory, Integer> getLoops = Node.inputBuilder(LoopMemory.class).role(Role.of("GetLoops")).build();
+        Node.CommunalBuilder<LoopMemory> builder = Node.communalBuilder(LoopMemory.class);
+        SameMemoryDependency<LoopMemory, Integer> consumeLoops = builder.sameMemoryUnprimedDependency(getLoops);
+        return builder.type(Type.generic("NumLooping"))
+                .role(Role.of("Loop"))
+                .buildWithCompositeCancelSignal((device, signal) -> device.call(consumeLoops)
+                        .thenApplyAsync(loops -> loop(loops, strategy.apply(signal)), executor));
+    }
+
+    private static long loop(int loops, AmortizedCancelSignal signal) {
+        loopStarted.complete(null);
+        long accumulator = 0;
+        for (int i = 0; i < loops && !signal.read(); ++i) {
+            accumulator = accumulator * 31 + i;
+        }
+        long exitNanos = System.nanoTime();
+        sink = accumulator;
+        return exitNanos;
+    }
+}
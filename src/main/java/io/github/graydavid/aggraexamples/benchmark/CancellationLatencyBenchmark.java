@@ -0,0 +1,493 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import io.github.graydavid.aggra.core.Behaviors.BehaviorWithCustomCancelAction;
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+import io.github.graydavid.aggra.core.Behaviors.CustomCancelAction;
+import io.github.graydavid.aggra.core.Behaviors.CustomCancelActionBehaviorResponse;
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Dependencies.NewMemoryDependency;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.GraphValidators;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+
+/**
+ * Measures how quickly each cancellation mechanism from the cancellation package actually stops work, at different
+ * numbers of concurrent GraphCalls:
+ * <ul>
+ * <li>GRAPH_CALL: GraphCall#triggerCancelSignal, as in GraphCallStandard. The work is a loop of cheap node calls, each
+ * in a new Memory, which stops once a call fails.
+ * <li>MEMORY_SCOPE: the same loop, running in a child Memory whose reply is ignored, which cancels the child's
+ * MemoryScope, as in MemoryScopeStandard.
+ * <li>REPLY_SIGNAL: a busy loop reading its composite cancel signal once per unit of work, whose reply is ignored, as
+ * in ReplyCompositeSignal.
+ * <li>INTERRUPT_ACTION: a blocking wait, stopped by a custom cancel action that interrupts it, as in
+ * InterruptCustomAction.
+ * <li>NON_INTERRUPT_ACTION: a blocking wait, stopped by a custom cancel action that "closes" what it waits on, as in
+ * NonInterruptCustomAction.
+ * </ul>
+ * For each mechanism, once every GraphCall's work is running, every GraphCall is cancelled at once, and the report
+ * shows the time from the trigger until each piece of work exits (including the time to fan the trigger out to every
+ * GraphCall), how many pieces of work are still busy 1ms after the trigger, and how many never stopped within 10s. It
+ * then runs uncancelled work of a fixed size in a closed loop, and compares the p50 latency against a baseline that
+ * does the same work without any cancellation hooks: UNIT_CALLING_BASELINE (the same node calls, without checking
+ * whether they failed) for GRAPH_CALL and MEMORY_SCOPE, CPU_BASELINE for REPLY_SIGNAL, and BLOCKING_BASELINE for the
+ * blocking mechanisms.
+ *
+ * Every piece of work runs on its own thread from a cached thread pool, so at high concurrency, the CPU-bound
+ * mechanisms also measure how quickly an oversubscribed scheduler gets around to running the check. This uses the same
+ * simple harness as the other benchmarks here, rather than JMH, since the interesting numbers are latencies across
+ * threads rather than per-operation throughput.
+ *
+ * Usage: CancellationLatencyBenchmark [comma-separated concurrencies, e.g. 1,100,10000]
+ */
+public class CancellationLatencyBenchmark {
+    private CancellationLatencyBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(1);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(3);
+    private static final int ITERATIONS_PER_UNIT = 1000;
+    private static final long UNCANCELLED_UNITS = 1000;
+    private static final long UNCANCELLED_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BUSY_SAMPLE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long WAIT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int CANCELLED_CALLS_PER_CONCURRENCY = 1000;
+    private static final Type ENTRY_TYPE = Type.generic("CallingAndCancelling");
+    private static final Role ENTRY_ROLE = Role.of("CallWorkAndCancel");
+    private static volatile long sink;
+    // Benchmarks run one at a time, so work finds the Round it belongs to here
+    private static volatile Round currentRound;
+
+    // Baselines come before the mechanisms compared against them
+    private enum Mechanism {
+        CPU_BASELINE(null, false),
+        UNIT_CALLING_BASELINE(null, false),
+        GRAPH_CALL(UNIT_CALLING_BASELINE, false),
+        MEMORY_SCOPE(UNIT_CALLING_BASELINE, false),
+        REPLY_SIGNAL(CPU_BASELINE, false),
+        BLOCKING_BASELINE(null, true),
+        INTERRUPT_ACTION(BLOCKING_BASELINE, true),
+        NON_INTERRUPT_ACTION(BLOCKING_BASELINE, true);
+
+        private final Mechanism baseline;
+        private final boolean cancellable;
+        private final boolean blocking;
+
+        Mechanism(Mechanism baseline, boolean blocking) {
+            this.baseline = baseline;
+            this.cancellable = (baseline != null);
+            this.blocking = blocking;
+        }
+
+        // GraphCall cancellation is triggered through the GraphCalls themselves, rather than by ignoring replies
+        private boolean ignoresOnTrigger() {
+            return cancellable && this != GRAPH_CALL;
+        }
+    }
+
+    // The input is the amount of work to do: units of CPU work, or nanoseconds of blocking
+    private static class RoundMemory extends Memory<Long> {
+        private RoundMemory(MemoryScope scope, CompletionStage<Long> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    private static class WorkMemory extends Memory<Long> {
+        private WorkMemory(MemoryScope scope, CompletionStage<Long> input, RoundMemory parent) {
+            super(scope, input, Set.of(parent), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    private static class UnitMemory extends Memory<Void> {
+        private UnitMemory(MemoryScope scope) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    // Tracks the work started for one batch of GraphCalls. The trigger is only for mechanisms that ignore replies.
+    private static class Round {
+        private final CompletableFuture<Void> trigger;
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger busy = new AtomicInteger();
+        private final AtomicInteger stops = new AtomicInteger();
+        private final long[] stopNanos;
+
+        private Round(int calls, boolean cancelling, boolean ignoringOnTrigger) {
+            this.trigger = ignoringOnTrigger ? new CompletableFuture<>() : null;
+            this.stopNanos = new long[cancelling ? calls : 0];
+        }
+
+        private void start() {
+            started.incrementAndGet();
+            busy.incrementAndGet();
+        }
+
+        // Records the stop before decrementing busy, so that whoever sees busy reach 0 also sees every stop
+        private void stop() {
+            if (stopNanos.length > 0) {
+                stopNanos[stops.getAndIncrement()] = System.nanoTime();
+            }
+            busy.decrementAndGet();
+        }
+    }
+
+    public static void main(String args[]) {
+        List<Integer> concurrencies = args.length > 0
+                ? Arrays.stream(args[0].split(",")).map(Integer::valueOf).collect(Collectors.toList())
+                : List.of(1, 100, 10_000);
+        for (int concurrency : concurrencies) {
+            System.out.println("Concurrent GraphCalls: " + concurrency);
+            System.out.println(String.format("%-22s %14s %14s %14s %10s %10s %16s %12s", "mechanism", "stop p50(us)",
+                    "stop p99(us)", "stop max(us)", "busy@1ms", "unstopped", "uncancelled p50", "overhead(%)"));
+            Map<Mechanism, Long> uncancelledNanos = new EnumMap<>(Mechanism.class);
+            for (Mechanism mechanism : Mechanism.values()) {
+                long baselineNanos = (mechanism.baseline == null) ? 0 : uncancelledNanos.get(mechanism.baseline);
+                uncancelledNanos.put(mechanism, run(mechanism, concurrency, baselineNanos));
+            }
+        }
+    }
+
+    // Answers the p50 latency of uncancelled GraphCalls
+    private static long run(Mechanism mechanism, int concurrency, long baselineNanos) {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        Node<RoundMemory, Void> entry = createEntryNode(mechanism, executor);
+        Graph<RoundMemory> graph = Graph.fromRoots(Role.of("CancellationLatencyGraph"), Set.of(entry));
+        GraphCall.Factory<Long, RoundMemory> graphCallFactory = GraphCall.Factory.from(graph, RoundMemory::new);
+
+        String stopColumns = String.format("%14s %14s %14s %10s %10s", "-", "-", "-", "-", "-");
+        if (mechanism.cancellable) {
+            stopColumns = measureStops(mechanism, concurrency, graphCallFactory, entry);
+        }
+
+        long amount = mechanism.blocking ? UNCANCELLED_WAIT_NANOS : UNCANCELLED_UNITS;
+        currentRound = new Round(concurrency, false, false);
+        LoadResult result = ClosedLoopLoad.run(mechanism.name(), concurrency, WARMUP, MEASUREMENT, () -> {
+            GraphCall<RoundMemory> graphCall = graphCallFactory.openCancellableCall(amount, Observer.doNothing());
+            graphCall.call(entry).join();
+            graphCall.weaklyClose().join();
+        });
+        executor.shutdownNow();
+
+        long uncancelledNanos = result.getLatencyPercentileNanos(50);
+        String overhead = (baselineNanos == 0) ? "-"
+                : String.format("%.1f", (uncancelledNanos - baselineNanos) * 100.0 / baselineNanos);
+        System.out.println(String.format("%-22s %s %,16.1f %12s", mechanism, stopColumns,
+                Statistics.micros(uncancelledNanos), overhead));
+        return uncancelledNanos;
+    }
+
+    private static String measureStops(Mechanism mechanism, int concurrency,
+            GraphCall.Factory<Long, RoundMemory> graphCallFactory, Node<RoundMemory, Void> entry) {
+        int rounds = Math.max(1, CANCELLED_CALLS_PER_CONCURRENCY / concurrency);
+        List<Long> stopLatencies = new ArrayList<>();
+        long busyAfterDelay = 0;
+        long unstopped = 0;
+        for (int i = 0; i < rounds; ++i) {
+            Round round = new Round(concurrency, true, mechanism.ignoresOnTrigger());
+            currentRound = round;
+            List<GraphCall<RoundMemory>> graphCalls = new ArrayList<>(concurrency);
+            for (int j = 0; j < concurrency; ++j) {
+                GraphCall<RoundMemory> graphCall = graphCallFactory.openCancellableCall(Long.MAX_VALUE,
+                        Observer.doNothing());
+                graphCall.call(entry);
+                graphCalls.add(graphCall);
+            }
+            awaitUntil(() -> round.started.get() >= concurrency);
+
+            long triggerNanos = System.nanoTime();
+            if (mechanism == Mechanism.GRAPH_CALL) {
+                graphCalls.forEach(GraphCall::triggerCancelSignal);
+            } else {
+                round.trigger.complete(null);
+            }
+            LockSupport.parkNanos(triggerNanos + BUSY_SAMPLE_DELAY_NANOS - System.nanoTime());
+            busyAfterDelay += round.busy.get();
+            awaitUntil(() -> round.busy.get() == 0);
+
+            int stops = Math.min(round.stops.get(), concurrency);
+            unstopped += concurrency - stops;
+            for (int j = 0; j < stops; ++j) {
+                stopLatencies.add(round.stopNanos[j] - triggerNanos);
+            }
+            graphCalls.forEach(graphCall -> graphCall.weaklyCloseOrAbandonOnTimeout(1, TimeUnit.SECONDS).join());
+        }
+
+        long[] sorted = stopLatencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        return String.format("%,14.1f %,14.1f %,14.1f %10d %10d",
+                Statistics.micros(Statistics.percentile(sorted, 50)),
+                Statistics.micros(Statistics.percentile(sorted, 99)),
+                Statistics.micros(Statistics.percentile(sorted, 100)), busyAfterDelay / rounds, unstopped / rounds);
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private static void awaitUntil(Condition condition) {
+        long deadline = System.nanoTime() + WAIT_TIMEOUT_NANOS;
+        while (!condition.isMet() && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    // Calls the mechanism's work, and ignores its reply once the current Round is triggered
+    private static Node<RoundMemory, Void> createEntryNode(Mechanism mechanism, ExecutorService executor) {
+        Node.CommunalBuilder<RoundMemory> builder = Node.communalBuilder(RoundMemory.class);
+        if (mechanism == Mechanism.MEMORY_SCOPE) {
+            SameMemoryDependency<RoundMemory, Long> consumeAmount = builder
+                    .sameMemoryUnprimedDependency(getAmount(RoundMemory.class));
+            NewMemoryDependency<WorkMemory, Void> consumeWork = builder
+                    .newMemoryDependency(unitCallingWork(WorkMemory.class, true, executor));
+            return builder.type(ENTRY_TYPE)
+                    .role(ENTRY_ROLE)
+                    .build(device -> ignoreOnTrigger(device,
+                            device.createMemoryAndCall(WorkMemory::new, device.call(consumeAmount), consumeWork)));
+        }
+
+        SameMemoryDependency<RoundMemory, Void> consumeWork = builder
+                .sameMemoryUnprimedDependency(createWorkNode(mechanism, executor));
+        return builder.type(ENTRY_TYPE)
+                .role(ENTRY_ROLE)
+                .build(device -> ignoreOnTrigger(device, device.call(consumeWork)));
+    }
+
+    private static CompletionStage<Void> ignoreOnTrigger(DependencyCallingDevice<RoundMemory> device,
+            Reply<Void> reply) {
+        Round round = currentRound;
+        if (round.trigger == null) {
+            return reply.handle((value, throwable) -> null);
+        }
+        // Whoever decides first completes the response, so the trigger never touches the device afterwards
+        AtomicBoolean decided = new AtomicBoolean();
+        CompletableFuture<Void> response = new CompletableFuture<>();
+        round.trigger.thenRun(() -> {
+            if (decided.compareAndSet(false, true)) {
+                device.ignore(reply);
+                reply.whenComplete((value, throwable) -> response.complete(null));
+            }
+        });
+        reply.whenComplete((value, throwable) -> {
+            if (decided.compareAndSet(false, true)) {
+                response.complete(null);
+            }
+        });
+        return response;
+    }
+
+    private static Node<RoundMemory, Void> createWorkNode(Mechanism mechanism, ExecutorService executor) {
+        switch (mechanism) {
+            case CPU_BASELINE:
+                return cpuWork(false, executor);
+            case UNIT_CALLING_BASELINE:
+                return unitCallingWork(RoundMemory.class, false, executor);
+            case GRAPH_CALL:
+                return unitCallingWork(RoundMemory.class, true, executor);
+            case REPLY_SIGNAL:
+                return cpuWork(true, executor);
+            case BLOCKING_BASELINE:
+                return blockingWork(executor);
+            case INTERRUPT_ACTION:
+                return interruptibleWork(executor);
+            case NON_INTERRUPT_ACTION:
+                return closeableWork(executor);
+            default:
+                throw new IllegalArgumentException("Unexpected mechanism: " + mechanism);
+        }
+    }
+
+    private static <M extends Memory<Long>> Node<M, Long> getAmount(Class<M> memoryClass) {
+        return Node.inputBuilder(memoryClass).role(Role.of("GetAmount")).build();
+    }
+
+    private static void doUnit() {
+        long accumulator = sink;
+        for (int i = 0; i < ITERATIONS_PER_UNIT; ++i) {
+            accumulator = accumulator * 31 + i;
+        }
+        sink = accumulator;
+    }
+
+    // Calls a unit of work in a new Memory each time, until a call fails if stopOnFailure, like MemoryScopeStandard
+    private static <M extends Memory<Long>> Node<M, Void> unitCallingWork(Class<M> memoryClass, boolean stopOnFailure,
+            ExecutorService executor) {
+        Node<UnitMemory, Void> unit = FunctionNodes.synchronous(Role.of("DoUnit"), UnitMemory.class)
+                .run(CancellationLatencyBenchmark::doUnit);
+        Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+        SameMemoryDependency<M, Long> consumeAmount = builder.sameMemoryUnprimedDependency(getAmount(memoryClass));
+        NewMemoryDependency<UnitMemory, Void> consumeUnit = builder.newMemoryDependency(unit);
+        return builder.type(Type.generic("UnitCalling"))
+                .role(Role.of("CallUnits"))
+                .build(device -> device.call(consumeAmount).thenAcceptAsync(units -> {
+                    Round round = currentRound;
+                    round.start();
+                    try {
+                        for (long i = 0; i < units; ++i) {
+                            Reply<Void> reply = device.createMemoryNoInputAndCall(
+                                    (scope, parent) -> new UnitMemory(scope), consumeUnit);
+                            if (stopOnFailure && reply.isCompletedExceptionally()) {
+                                break;
+                            }
+                        }
+                    } finally {
+                        round.stop();
+                    }
+                }, executor));
+    }
+
+    // Does units of work, reading the cancel signal after each one if readSignal
+    private static Node<RoundMemory, Void> cpuWork(boolean readSignal, ExecutorService executor) {
+        Node.CommunalBuilder<RoundMemory> builder = Node.communalBuilder(RoundMemory.class);
+        SameMemoryDependency<RoundMemory, Long> consumeAmount = builder
+                .sameMemoryUnprimedDependency(getAmount(RoundMemory.class));
+        return builder.type(Type.generic("CpuWorking"))
+                .role(Role.of("DoCpuWork"))
+                .graphValidatorFactory(GraphValidators.ignoringWillTriggerReplyCancelSignal())
+                .buildWithCompositeCancelSignal(
+                        (device, signal) -> device.call(consumeAmount).thenAcceptAsync(units -> {
+                            Round round = currentRound;
+                            round.start();
+                            try {
+                                for (long i = 0; i < units; ++i) {
+                                    doUnit();
+                                    if (readSignal && signal.read()) {
+                                        break;
+                                    }
+                                }
+                            } finally {
+                                round.stop();
+                            }
+                        }, executor));
+    }
+
+    private static Node<RoundMemory, Void> blockingWork(ExecutorService executor) {
+        Node.CommunalBuilder<RoundMemory> builder = Node.communalBuilder(RoundMemory.class);
+        SameMemoryDependency<RoundMemory, Long> consumeAmount = builder
+                .sameMemoryUnprimedDependency(getAmount(RoundMemory.class));
+        return builder.type(Type.generic("Blocking"))
+                .role(Role.of("Block"))
+                .build(device -> device.call(consumeAmount).thenAcceptAsync(nanos -> {
+                    Round round = currentRound;
+                    round.start();
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(nanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        round.stop();
+                    }
+                }, executor));
+    }
+
+    // Blocks until done or interrupted, like InterruptCustomAction
+    private static Node<RoundMemory, Void> interruptibleWork(ExecutorService executor) {
+        Node.CommunalBuilder<RoundMemory> builder = Node.communalBuilder(RoundMemory.class);
+        SameMemoryDependency<RoundMemory, Long> consumeAmount = builder
+                .sameMemoryUnprimedDependency(getAmount(RoundMemory.class));
+        return builder.type(Type.generic("InterruptiblyBlocking"))
+                .role(Role.of("BlockInterruptibly"))
+                .graphValidatorFactory(GraphValidators.ignoringWillTriggerReplyCancelSignal())
+                .buildWithCustomCancelAction(new BehaviorWithCustomCancelAction<>() {
+                    @Override
+                    public CustomCancelActionBehaviorResponse<Void> run(DependencyCallingDevice<RoundMemory> device,
+                            CompositeCancelSignal signal) {
+                        // The amount is the Memory's input, so it's already available
+                        long nanos = device.call(consumeAmount).join();
+                        Round round = currentRound;
+                        CompletableFuture<Void> response = new CompletableFuture<>();
+                        Future<?> task = executor.submit(() -> {
+                            round.start();
+                            try {
+                                TimeUnit.NANOSECONDS.sleep(nanos);
+                                response.complete(null);
+                            } catch (InterruptedException e) {
+                                response.completeExceptionally(e);
+                            } finally {
+                                round.stop();
+                            }
+                        });
+                        CustomCancelAction action = mayInterrupt -> {
+                            if (task.cancel(mayInterrupt)) {
+                                response.completeExceptionally(new CancellationException());
+                            }
+                        };
+                        return new CustomCancelActionBehaviorResponse<>(response, action);
+                    }
+
+                    @Override
+                    public boolean cancelActionMayInterruptIfRunning() {
+                        return true;
+                    }
+                });
+    }
+
+    // Blocks until done or "closed", like NonInterruptCustomAction's Socket
+    private static Node<RoundMemory, Void> closeableWork(ExecutorService executor) {
+        Node.CommunalBuilder<RoundMemory> builder = Node.communalBuilder(RoundMemory.class);
+        SameMemoryDependency<RoundMemory, Long> consumeAmount = builder
+                .sameMemoryUnprimedDependency(getAmount(RoundMemory.class));
+        return builder.type(Type.generic("CloseablyBlocking"))
+                .role(Role.of("BlockCloseably"))
+                .graphValidatorFactory(GraphValidators.ignoringWillTriggerReplyCancelSignal())
+                .buildWithCustomCancelAction(new BehaviorWithCustomCancelAction<>() {
+                    @Override
+                    public CustomCancelActionBehaviorResponse<Void> run(DependencyCallingDevice<RoundMemory> device,
+                            CompositeCancelSignal signal) {
+                        long nanos = device.call(consumeAmount).join();
+                        Round round = currentRound;
+                        CountDownLatch closed = new CountDownLatch(1);
+                        CompletableFuture<Void> response = CompletableFuture.runAsync(() -> {
+                            round.start();
+                            try {
+                                closed.await(nanos, TimeUnit.NANOSECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                round.stop();
+                            }
+                        }, executor);
+                        CustomCancelAction action = mayInterrupt -> closed.countDown();
+                        return new CustomCancelActionBehaviorResponse<>(response, action);
+                    }
+
+                    @Override
+                    public boolean cancelActionMayInterruptIfRunning() {
+                        return false;
+                    }
+                });
+    }
+}
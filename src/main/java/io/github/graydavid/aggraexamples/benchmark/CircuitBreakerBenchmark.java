@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.CaptureResponseNodes;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+import io.github.graydavid.aggraexamples.benchmark.MotivationGraph.ServiceOperationMemory;
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.Service1;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponse1;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.resilience.CircuitBreaker;
+import io.github.graydavid.aggraexamples.resilience.CircuitBreakerNodes;
+import io.github.graydavid.onemoretry.Try;
+
+/**
+ * Compares the motivation graph with and without a circuit breaker around its CallService1 node, while Service1 flaps:
+ * healthy for a while, then down for a while, where every call hangs for a long time before failing. Both variants
+ * fall back to a default ServiceResponse1 when the call fails, so every GraphCall succeeds; the difference is how long
+ * GraphCalls wait for that fallback and how many threads sit blocked on a service that's known to be down. Reports the
+ * peak number of Service1 calls in flight at once alongside the usual latency percentiles and peak threads.
+ *
+ * Usage: CircuitBreakerBenchmark [concurrency] [healthyMillis] [downMillis]
+ */
+public class CircuitBreakerBenchmark {
+    private CircuitBreakerBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(20);
+    private static final Duration HEALTHY_LATENCY = Duration.ofMillis(2);
+    private static final Duration DOWN_LATENCY = Duration.ofMillis(200);
+
+    public static void main(String args[]) {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long healthyMillis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+        long downMillis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+        Types.setServiceLatencySimulator(LatencyDistribution.fixed(HEALTHY_LATENCY)::await);
+        FlappingService service = new FlappingService(healthyMillis, downMillis);
+
+        System.out.println("Service1 healthy for " + healthyMillis + "ms, then down for " + downMillis + "ms");
+        System.out.println(String.format("%-30s %s", "peak service1 calls in flight", LoadResult.header()));
+        run("Unprotected", concurrency, service, null);
+        run("CircuitBreaker", concurrency, service,
+                CircuitBreaker.builder()
+                        .slowCallDuration(DOWN_LATENCY.dividedBy(2))
+                        .window(Duration.ofSeconds(2), 10)
+                        .minimumCalls(20)
+                        .openDuration(Duration.ofMillis(500))
+                        .build());
+    }
+
+    private static void run(String name, int concurrency, FlappingService service, CircuitBreaker circuitBreaker) {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        CreationTimeExecutorAsynchronousStarter asynchronousStarter = CreationTimeExecutorAsynchronousStarter
+                .from(executor);
+        MotivationGraph graph = MotivationGraph.from(executor, getTopLevelRequest -> {
+            Node<ServiceOperationMemory, ServiceResponse1> callFlappingService1 = asynchronousStarter
+                    .startNode(Role.of("CallFlappingService1"), ServiceOperationMemory.class)
+                    .apply(service::call, getTopLevelRequest);
+            Node<ServiceOperationMemory, Try<ServiceResponse1>> captureService1 = (circuitBreaker == null)
+                    ? CaptureResponseNodes.startNode(Role.of("CaptureService1"), ServiceOperationMemory.class)
+                            .captureResponse(callFlappingService1)
+                    : CircuitBreakerNodes.startNode(Role.of("CaptureService1"), ServiceOperationMemory.class)
+                            .circuitBreaker(circuitBreaker)
+                            .captureProtectedCall(callFlappingService1);
+            return FunctionNodes.synchronous(Role.of("CallService1"), ServiceOperationMemory.class)
+                    .apply(response -> response.isSuccess() ? response.getOrThrowUnchecked() : new ServiceResponse1(),
+                            captureService1);
+        });
+
+        service.resetPeakInFlight();
+        LoadResult result = ClosedLoopLoad.run(name, concurrency, WARMUP, MEASUREMENT,
+                () -> graph.callAndWait(new TopLevelRequest()));
+        executor.shutdownNow();
+
+        System.out.println(String.format("%-30d %s", service.getPeakInFlight(), result));
+        if (circuitBreaker != null) {
+            System.out.println("    " + circuitBreaker);
+        }
+    }
+
+    // A local stand-in for Service1 that alternates between healthy and down on a fixed schedule
+    private static class FlappingService {
+        private final long healthyNanos;
+        private final long periodNanos;
+        private final long startNanos = System.nanoTime();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger peakInFlight = new AtomicInteger();
+
+        private FlappingService(long healthyMillis, long downMillis) {
+            this.healthyNanos = TimeUnit.MILLISECONDS.toNanos(healthyMillis);
+            this.periodNanos = healthyNanos + TimeUnit.MILLISECONDS.toNanos(downMillis);
+        }
+
+        private ServiceResponse1 call(TopLevelRequest request) {
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                if ((System.nanoTime() - startNanos) % periodNanos >= healthyNanos) {
+                    LatencyDistribution.fixed(DOWN_LATENCY).await();
+                    throw new IllegalStateException("Service1 is down");
+                }
+                return Service1.callService(request);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private void resetPeakInFlight() {
+            peakInFlight.set(inFlight.get());
+        }
+
+        private int getPeakInFlight() {
+            return peakInFlight.get();
+        }
+    }
+}
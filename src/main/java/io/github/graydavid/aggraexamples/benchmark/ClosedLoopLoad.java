@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal closed-loop load generator: a fixed number of client threads each run an operation back-to-back for a
+ * warmup period and then a measurement period. Only operations that start during the measurement period are recorded.
+ *
+ * This is deliberately simpler than a full benchmarking harness like JMH: it's meant to compare strategies against each
+ * other in the same JVM, not to produce absolute numbers.
+ */
+public class ClosedLoopLoad {
+    private ClosedLoopLoad() {}
+
+    /** The unit of work to measure. */
+    @FunctionalInterface
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    public static LoadResult run(String name, int concurrency, Duration warmup, Duration measurement,
+            Operation operation) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long start = System.nanoTime();
+        long measurementStart = start + warmup.toNanos();
+        long measurementEnd = measurementStart + measurement.toNanos();
+        AtomicLong errors = new AtomicLong();
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        List<Client> clients = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; ++i) {
+            Client client = new Client(operation, measurementStart, measurementEnd, errors, stopped);
+            Thread thread = new Thread(client, "load-client-" + i);
+            thread.setDaemon(true);
+            client.thread = thread;
+            clients.add(client);
+            thread.start();
+        }
+
+        sleepUntil(measurementStart);
+        threadBean.resetPeakThreadCount();
+        long startBytes = totalAllocatedBytes(threadBean);
+        sleepUntil(measurementEnd);
+        long allocatedBytes = totalAllocatedBytes(threadBean) - startBytes;
+        int peakThreads = threadBean.getPeakThreadCount();
+        // Clients keep running until now, so that none exits (taking its allocated bytes with it) before sampling
+        stopped.set(true);
+
+        LatencyRecording merged = new LatencyRecording();
+        for (Client client : clients) {
+            joinUninterruptibly(client.thread);
+            merged.addAll(client.recording);
+        }
+        return new LoadResult(name, concurrency, merged.toSortedArray(), measurement.toNanos(), allocatedBytes,
+                peakThreads, errors.get());
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Threads that die during the measurement are missed, so this is a lower bound when executors churn threads
+    private static long totalAllocatedBytes(com.sun.management.ThreadMXBean threadBean) {
+        long[] allocatedBytes = threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds());
+        return Arrays.stream(allocatedBytes).filter(bytes -> bytes > 0).sum();
+    }
+
+    private static class Client implements Runnable {
+        private final Operation operation;
+        private final long measurementStart;
+        private final long measurementEnd;
+        private final AtomicLong errors;
+        private final AtomicBoolean stopped;
+        private final LatencyRecording recording = new LatencyRecording();
+        private Thread thread;
+
+        private Client(Operation operation, long measurementStart, long measurementEnd, AtomicLong errors,
+                AtomicBoolean stopped) {
+            this.operation = operation;
+            this.measurementStart = measurementStart;
+            this.measurementEnd = measurementEnd;
+            this.errors = errors;
+            this.stopped = stopped;
+        }
+
+        @Override
+        public void run() {
+            while (!stopped.get()) {
+                long operationStart = System.nanoTime();
+                try {
+                    operation.run();
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                }
+                if (operationStart >= measurementStart && operationStart < measurementEnd) {
+                    recording.add(System.nanoTime() - operationStart);
+                }
+            }
+        }
+    }
+
+    /** A growable array of latencies, owned by a single thread until it's merged. */
+    private static class LatencyRecording {
+        private long[] latencies = new long[1024];
+        private int size;
+
+        private void add(long latency) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latency;
+        }
+
+        private void addAll(LatencyRecording other) {
+            for (int i = 0; i < other.size; ++i) {
+                add(other.latencies[i]);
+            }
+        }
+
+        private long[] toSortedArray() {
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
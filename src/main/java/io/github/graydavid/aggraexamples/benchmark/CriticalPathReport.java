@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.observation.CriticalPath;
+import io.github.graydavid.aggraexamples.observation.CriticalPathStatistics;
+import io.github.graydavid.aggraexamples.observation.NodeCallTimings;
+
+/**
+ * Runs the motivation graph under simulated service latency, working out each GraphCall's {@link CriticalPath}, and
+ * reports how often each node set the calls' latency. CallServiceA and CallService1 race to gate CallServiceB, and
+ * CallService1 also gates CallService2. So, with every service drawing independently from the same (continuous)
+ * distribution, CallServiceA is on the critical path only when it loses that race and the CallServiceB chain is the
+ * longer one, in about 3 of every 8 calls, while CallService1 is on it in the rest. Skewing the distribution (or the
+ * graph) shows up directly in the table.
+ *
+ * Usage: CriticalPathReport [none|fixed|lognormal|heavytailed] [calls]
+ */
+public class CriticalPathReport {
+    private CriticalPathReport() {}
+
+    public static void main(String args[]) {
+        String distributionName = args.length > 0 ? args[0] : "lognormal";
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        Types.setServiceLatencySimulator(MotivationBenchmark.distribution(distributionName)::await);
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            MotivationGraph graph = MotivationGraph.from(executor);
+            CriticalPathStatistics statistics = new CriticalPathStatistics();
+            CriticalPath last = null;
+            for (int i = 0; i < calls; ++i) {
+                NodeCallTimings timings = new NodeCallTimings();
+                graph.call(new TopLevelRequest(), timings).join();
+                last = CriticalPath.analyze(timings, graph.getTopLevelResponseNode());
+                statistics.record(last);
+            }
+
+            System.out.println("Service latency: " + distributionName + ", GraphCalls: " + statistics.getCalls());
+            System.out.println("Last call's critical path: " + last.getSteps()
+                    .stream()
+                    .map(step -> String.format(Locale.ROOT, "%s (%.3fms)", step.getNode().getRole(),
+                            step.getOwnNanos() / 1e6))
+                    .collect(Collectors.joining(" -> ")));
+            System.out.println(statistics);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.GraphValidators;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryFactory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.IterationNodes;
+import io.github.graydavid.aggraexamples.iteration.EarlyTerminatingIterationNodes;
+
+/**
+ * Measures how much work {@link EarlyTerminatingIterationNodes} saves compared to running every element with
+ * IterationNodes and then searching the output list. Each element is a fixed amount of busy work on a shared executor
+ * that stops early once its cancel signal is triggered. The match is placed at different positions in the list, and
+ * the work done is reported as a percentage of running every element to completion.
+ *
+ * Usage: EarlyTerminationBenchmark [threads]
+ */
+public class EarlyTerminationBenchmark {
+    private EarlyTerminationBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(2);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(5);
+    private static final int LIST_SIZE = 1000;
+    private static final int WORK_UNITS_PER_ELEMENT = 20_000;
+    private static final int WORK_UNITS_PER_SIGNAL_READ = 256;
+    private static final List<Integer> LIST = IntStream.range(0, LIST_SIZE)
+            .boxed()
+            .collect(Collectors.toUnmodifiableList());
+    // -1 means that nothing matches
+    private static final List<Integer> MATCH_POSITIONS = List.of(0, LIST_SIZE / 10, LIST_SIZE / 2, LIST_SIZE * 9 / 10,
+            -1);
+
+    private static final LongAdder WORK_UNITS = new LongAdder();
+    private static final LongAdder ELEMENTS_RUN = new LongAdder();
+    private static final LongAdder SEARCHES = new LongAdder();
+    private static volatile long sink;
+
+    private static class ListMemory extends Memory<List<Integer>> {
+        private ListMemory(MemoryScope scope, CompletionStage<List<Integer>> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    private static class ElementMemory extends Memory<Integer> {
+        private ElementMemory(MemoryScope scope, CompletionStage<Integer> input, ListMemory parent) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Node<ListMemory, List<Integer>> getList = Node.inputBuilder(ListMemory.class).role(Role.of("GetList")).build();
+        Node<ElementMemory, Integer> searchElement = createSearchElementNode(executor);
+        MemoryFactory<ListMemory, Integer, ElementMemory> elementMemoryFactory = ElementMemory::new;
+
+        System.out.println("Elements: " + LIST_SIZE + ", executor threads: " + threads);
+        System.out.println(String.format("%-40s %10s %12s %12s %14s", "search", "match at", "p50(ms)", "work(%)",
+                "elements run"));
+        for (int matchPosition : MATCH_POSITIONS) {
+            Node<ListMemory, List<Integer>> searchAll = IterationNodes
+                    .startNode(Role.of("SearchAll"), ListMemory.class)
+                    .iterate(getList, elementMemoryFactory, searchElement)
+                    .collectToOutputList();
+            Node<ListMemory, Optional<Integer>> findFirstInAll = FunctionNodes
+                    .synchronous(Role.of("FindFirstInAll"), ListMemory.class)
+                    .apply(list -> list.stream().filter(value -> value == matchPosition).findFirst(), searchAll);
+            run("IterationNodes", matchPosition, findFirstInAll);
+
+            Node<ListMemory, Optional<Integer>> findFirst = EarlyTerminatingIterationNodes
+                    .startNode(Role.of("FindFirst"), ListMemory.class)
+                    .iterate(getList, elementMemoryFactory, searchElement)
+                    .findFirst(value -> value == matchPosition);
+            run("findFirst", matchPosition, findFirst);
+
+            Node<ListMemory, Optional<Integer>> findFirstLimited = EarlyTerminatingIterationNodes
+                    .startNode(Role.of("FindFirst"), ListMemory.class)
+                    .maxInFlight(threads)
+                    .iterate(getList, elementMemoryFactory, searchElement)
+                    .findFirst(value -> value == matchPosition);
+            run("findFirst(maxInFlight=" + threads + ")", matchPosition, findFirstLimited);
+
+            Node<ListMemory, Boolean> anyMatch = EarlyTerminatingIterationNodes
+                    .startNode(Role.of("AnyMatch"), ListMemory.class)
+                    .iterate(getList, elementMemoryFactory, searchElement)
+                    .anyMatch(value -> value == matchPosition);
+            run("anyMatch", matchPosition, anyMatch);
+        }
+        executor.shutdown();
+    }
+
+    // Busy work that reads its cancel signal every so often, and stops early if it's been triggered
+    private static Node<ElementMemory, Integer> createSearchElementNode(ExecutorService executor) {
+        Node<ElementMemory, Integer> getElement = Node.inputBuilder(ElementMemory.class)
+                .role(Role.of("GetElement"))
+                .build();
+        Node.CommunalBuilder<ElementMemory> builder = Node.communalBuilder(ElementMemory.class);
+        SameMemoryDependency<ElementMemory, Integer> consumeElement = builder.sameMemoryUnprimedDependency(getElement);
+        return builder.type(Type.generic("CancellableBusyWork"))
+                .role(Role.of("SearchElement"))
+                .graphValidatorFactory(GraphValidators.ignoringWillTriggerReplyCancelSignal())
+                .buildWithCompositeCancelSignal((device, signal) -> device.call(consumeElement)
+                        .thenApplyAsync(element -> doWork(element, signal), executor));
+    }
+
+    private static Integer doWork(Integer element, CompositeCancelSignal signal) {
+        if (signal.read()) {
+            return element;
+        }
+        ELEMENTS_RUN.increment();
+        long accumulator = element;
+        int units = 0;
+        while (units < WORK_UNITS_PER_ELEMENT) {
+            for (int i = 0; i < WORK_UNITS_PER_SIGNAL_READ; ++i) {
+                accumulator = accumulator * 31 + i;
+            }
+            units += WORK_UNITS_PER_SIGNAL_READ;
+            if (signal.read()) {
+                break;
+            }
+        }
+        WORK_UNITS.add(units);
+        sink = accumulator;
+        return element;
+    }
+
+    private static void run(String name, int matchPosition, Node<ListMemory, ?> search) {
+        Graph<ListMemory> graph = Graph.fromRoots(Role.of("EarlyTerminationGraph"), Set.of(search));
+        GraphCall.Factory<List<Integer>, ListMemory> graphCallFactory = GraphCall.Factory.from(graph,
+                ListMemory::new);
+        CompletableFuture<List<Integer>> input = CompletableFuture.completedFuture(LIST);
+        WORK_UNITS.reset();
+        ELEMENTS_RUN.reset();
+        SEARCHES.reset();
+        LoadResult result = ClosedLoopLoad.run(name, 1, WARMUP, MEASUREMENT, () -> {
+            GraphCall<ListMemory> graphCall = graphCallFactory.openCancellableCall(input, Observer.doNothing());
+            graphCall.call(search).join();
+            graphCall.weaklyClose().join();
+            SEARCHES.increment();
+        });
+        // Warmup searches count too, on both sides of each ratio
+        double searchCount = Math.max(1, SEARCHES.sum());
+        double workPercent = 100.0 * WORK_UNITS.sum() / searchCount / ((double) LIST_SIZE * WORK_UNITS_PER_ELEMENT);
+        System.out.println(String.format("%-40s %10s %,12.2f %12.1f %,14.0f", name,
+                matchPosition < 0 ? "none" : String.valueOf(matchPosition),
+                result.getLatencyPercentileNanos(50) / 1_000_000.0, workPercent, ELEMENTS_RUN.sum() / searchCount));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+import io.github.graydavid.aggraexamples.benchmark.MotivationGraph.ServiceOperationMemory;
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.Service1;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponse1;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.resilience.HedgePolicy;
+import io.github.graydavid.aggraexamples.resilience.HedgingNodes;
+
+/**
+ * Compares the motivation graph with and without hedging its CallService1 node, under heavy-tailed service latency.
+ * Reports Service1 attempts per GraphCall (i.e. the extra load hedging costs) alongside the usual latency percentiles,
+ * and each HedgePolicy's own counts.
+ *
+ * Usage: HedgingBenchmark [concurrency] [heavytailed|lognormal|fixed]
+ */
+public class HedgingBenchmark {
+    private HedgingBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(10);
+
+    // Each Service1 attempt gets its own Memory, so that a second attempt isn't just memoized
+    private static class Service1Memory extends Memory<TopLevelRequest> {
+        private Service1Memory(MemoryScope scope, CompletionStage<TopLevelRequest> input,
+                ServiceOperationMemory parent) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        String distributionName = args.length > 1 ? args[1] : "heavytailed";
+        Types.setServiceLatencySimulator(MotivationBenchmark.distribution(distributionName)::await);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        System.out.println("Service latency: " + distributionName);
+        System.out.println(String.format("%-30s %s", "service1 attempts/GraphCall", LoadResult.header()));
+        run("Unhedged", concurrency, scheduler, null);
+        run("Hedged(p95, budget=0.1)", concurrency, scheduler, HedgePolicy.builder().build());
+        run("Hedged(p90, budget=0.1)", concurrency, scheduler, HedgePolicy.builder().percentile(90).build());
+        run("Hedged(p90, budget=0.02)", concurrency, scheduler,
+                HedgePolicy.builder().percentile(90).budgetRatio(0.02).build());
+        scheduler.shutdownNow();
+    }
+
+    private static void run(String name, int concurrency, ScheduledExecutorService scheduler, HedgePolicy policy) {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        CreationTimeExecutorAsynchronousStarter asynchronousStarter = CreationTimeExecutorAsynchronousStarter
+                .from(executor);
+        AtomicLong service1Attempts = new AtomicLong();
+        MotivationGraph graph = MotivationGraph.from(executor, getTopLevelRequest -> {
+            if (policy == null) {
+                return asynchronousStarter.startNode(Role.of("CallService1"), ServiceOperationMemory.class)
+                        .apply(request -> {
+                            service1Attempts.incrementAndGet();
+                            return Service1.callService(request);
+                        }, getTopLevelRequest);
+            }
+            Node<Service1Memory, TopLevelRequest> getService1Request = Node.inputBuilder(Service1Memory.class)
+                    .role(Role.of("GetService1Request"))
+                    .build();
+            Node<Service1Memory, ServiceResponse1> callService1Attempt = asynchronousStarter
+                    .startNode(Role.of("CallService1Attempt"), Service1Memory.class)
+                    .apply(request -> {
+                        service1Attempts.incrementAndGet();
+                        return Service1.callService(request);
+                    }, getService1Request);
+            return HedgingNodes.startNode(Role.of("CallService1"), ServiceOperationMemory.class)
+                    .scheduler(scheduler)
+                    .policy(policy)
+                    .createMemoryAndCall(Service1Memory::new, getTopLevelRequest, callService1Attempt);
+        });
+
+        AtomicLong graphCalls = new AtomicLong();
+        LoadResult result = ClosedLoopLoad.run(name, concurrency, WARMUP, MEASUREMENT, () -> {
+            graphCalls.incrementAndGet();
+            graph.callAndWait(new TopLevelRequest());
+        });
+        executor.shutdownNow();
+
+        // Counted over warmup and measurement together, which is fine for a ratio
+        double attemptsPerGraphCall = (double) service1Attempts.get() / graphCalls.get();
+        System.out.println(String.format("%-30.3f %s", attemptsPerGraphCall, result));
+        if (policy != null) {
+            System.out.println("    " + policy);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryFactory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.IterationNodes;
+import io.github.graydavid.aggraexamples.iteration.ChunkedIterationNodes;
+
+/**
+ * Compares IterationNodes, which creates one Memory per element, with {@link ChunkedIterationNodes}, which creates one
+ * Memory per chunk, on lists of different sizes. The per-element work is just multiplying by two (as in the common
+ * Iteration example), so the results are dominated by each approach's overhead. "Single chunk" isolates the savings
+ * from fewer Memories; "parallel" adds splitting the list across the pool.
+ *
+ * Usage: IterationBenchmark [parallelism]
+ */
+public class IterationBenchmark {
+    private IterationBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(2);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(5);
+    private static final List<Integer> SIZES = List.of(10, 10_000, 1_000_000);
+    private static final int MINIMUM_PARALLEL_CHUNK_SIZE = 1024;
+
+    private static class ListMemory extends Memory<List<Integer>> {
+        private ListMemory(MemoryScope scope, CompletionStage<List<Integer>> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    private static class ItemMemory extends Memory<Integer> {
+        private ItemMemory(MemoryScope scope, CompletionStage<Integer> input, ListMemory parent) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    private static class ChunkMemory extends Memory<List<Integer>> {
+        private ChunkMemory(MemoryScope scope, CompletionStage<List<Integer>> input, ListMemory parent) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        int parallelism = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Node<ListMemory, List<Integer>> getList = Node.inputBuilder(ListMemory.class).role(Role.of("GetList")).build();
+
+        Node<ItemMemory, Integer> getItem = Node.inputBuilder(ItemMemory.class).role(Role.of("GetItem")).build();
+        Node<ItemMemory, Integer> doubleItem = FunctionNodes.synchronous(Role.of("DoubleItem"), ItemMemory.class)
+                .apply(num -> 2 * num, getItem);
+        MemoryFactory<ListMemory, Integer, ItemMemory> itemMemoryFactory = ItemMemory::new;
+        Node<ListMemory, List<Integer>> perItem = IterationNodes.startNode(Role.of("DoubleList"), ListMemory.class)
+                .iterate(getList, itemMemoryFactory, doubleItem)
+                .collectToOutputList();
+
+        Node<ChunkMemory, List<Integer>> getChunk = Node.inputBuilder(ChunkMemory.class)
+                .role(Role.of("GetChunk"))
+                .build();
+        Node<ChunkMemory, List<Integer>> doubleChunk = FunctionNodes
+                .synchronous(Role.of("DoubleChunk"), ChunkMemory.class)
+                .apply(chunk -> chunk.stream().map(num -> 2 * num).collect(Collectors.toList()), getChunk);
+        MemoryFactory<ListMemory, List<Integer>, ChunkMemory> chunkMemoryFactory = ChunkMemory::new;
+        Node<ListMemory, List<Integer>> singleChunk = ChunkedIterationNodes
+                .startNode(Role.of("DoubleList"), ListMemory.class)
+                .pool(pool)
+                .chunkSize(Integer.MAX_VALUE)
+                .iterate(getList, chunkMemoryFactory, doubleChunk)
+                .collectToOutputList();
+        Node<ListMemory, List<Integer>> parallelChunks = ChunkedIterationNodes
+                .startNode(Role.of("DoubleList"), ListMemory.class)
+                .pool(pool)
+                .minimumChunkSize(MINIMUM_PARALLEL_CHUNK_SIZE)
+                .iterate(getList, chunkMemoryFactory, doubleChunk)
+                .collectToOutputList();
+
+        System.out.println("Pool parallelism: " + parallelism);
+        System.out.println(String.format("%-40s %10s %14s %14s %14s", "iteration", "elements", "elements/s",
+                "p50/call(us)", "bytes/element"));
+        for (int size : SIZES) {
+            List<Integer> list = IntStream.range(0, size).boxed().collect(Collectors.toUnmodifiableList());
+            run("IterationNodes", list, perItem);
+            run("ChunkedIterationNodes(single chunk)", list, singleChunk);
+            run("ChunkedIterationNodes(parallel)", list, parallelChunks);
+        }
+        pool.shutdown();
+    }
+
+    private static void run(String name, List<Integer> list, Node<ListMemory, List<Integer>> doubleList) {
+        Graph<ListMemory> graph = Graph.fromRoots(Role.of("IterationGraph"), Set.of(doubleList));
+        GraphCall.Factory<List<Integer>, ListMemory> graphCallFactory = GraphCall.Factory.from(graph,
+                ListMemory::new);
+        CompletableFuture<List<Integer>> input = CompletableFuture.completedFuture(list);
+        LoadResult result = ClosedLoopLoad.run(name, 1, WARMUP, MEASUREMENT, () -> {
+            GraphCall<ListMemory> graphCall = graphCallFactory.openCancellableCall(input, Observer.doNothing());
+            List<Integer> output = graphCall.call(doubleList).join();
+            graphCall.weaklyClose().join();
+            if (output.size() != list.size()) {
+                throw new IllegalStateException("Expected " + list.size() + " outputs but got " + output.size());
+            }
+        });
+        System.out.println(String.format("%-40s %,10d %,14.0f %,14.1f %,14.1f", name, list.size(),
+                result.getThroughputPerSecond() * list.size(), result.getLatencyPercentileNanos(50) / 1000.0,
+                result.getAllocatedBytesPerOperation() / list.size()));
+    }
+}
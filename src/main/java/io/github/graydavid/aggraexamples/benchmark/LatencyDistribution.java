@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/** A source of simulated latencies, used to make instantaneous stand-in services behave more like real ones. */
+public interface LatencyDistribution {
+    /** Returns the next latency to simulate, in nanoseconds. Must be thread-safe. */
+    long nextLatencyNanos();
+
+    /** Blocks the current thread for the next latency. Returns early if the thread is interrupted. */
+    default void await() {
+        long deadline = System.nanoTime() + nextLatencyNanos();
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /** No latency at all. */
+    static LatencyDistribution none() {
+        return () -> 0;
+    }
+
+    /** The same latency every time. */
+    static LatencyDistribution fixed(Duration latency) {
+        long latencyNanos = latency.toNanos();
+        return () -> latencyNanos;
+    }
+
+    /**
+     * A lognormal distribution, which is a good fit for the bulk of most services' latency. Median is the 50th
+     * percentile, and sigma controls the spread: around 0.5 is typical.
+     */
+    static LatencyDistribution logNormal(Duration median, double sigma) {
+        double mu = Math.log(median.toNanos());
+        return () -> (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+    }
+
+    /**
+     * A pareto distribution, which models heavy tails: most calls take close to the minimum, but a few take orders of
+     * magnitude longer. Smaller shapes mean heavier tails. Results are capped at max, so that a single sample can't
+     * stall a benchmark.
+     */
+    static LatencyDistribution pareto(Duration minimum, double shape, Duration max) {
+        long minimumNanos = minimum.toNanos();
+        long maxNanos = max.toNanos();
+        return () -> {
+            double uniform = 1.0 - ThreadLocalRandom.current().nextDouble(); // (0, 1]
+            double sample = minimumNanos / Math.pow(uniform, 1.0 / shape);
+            return (long) Math.min(sample, maxNanos);
+        };
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+/** The results of a single {@link ClosedLoopLoad} run. */
+public class LoadResult {
+    private final String name;
+    private final int concurrency;
+    private final long[] sortedLatencies;
+    private final long measurementNanos;
+    private final long allocatedBytes;
+    private final int peakThreads;
+    private final long errors;
+
+    LoadResult(String name, int concurrency, long[] sortedLatencies, long measurementNanos, long allocatedBytes,
+            int peakThreads, long errors) {
+        this.name = name;
+        this.concurrency = concurrency;
+        this.sortedLatencies = sortedLatencies;
+        this.measurementNanos = measurementNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.peakThreads = peakThreads;
+        this.errors = errors;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getOperations() {
+        return sortedLatencies.length;
+    }
+
+    public double getThroughputPerSecond() {
+        return getOperations() * 1_000_000_000.0 / measurementNanos;
+    }
+
+    /** Returns the latency at the given percentile (0 to 100) in nanoseconds, or 0 if nothing was recorded. */
+    public long getLatencyPercentileNanos(double percentile) {
+        return Statistics.percentile(sortedLatencies, percentile);
+    }
+
+    public double getAllocatedBytesPerOperation() {
+        return getOperations() == 0 ? 0 : (double) allocatedBytes / getOperations();
+    }
+
+    /** The peak number of live threads in the JVM during measurement, including the load's client threads. */
+    public int getPeakThreads() {
+        return peakThreads;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public static String header() {
+        return String.format("%-45s %12s %10s %10s %10s %12s %8s %7s", "name", "ops/s", "p50(us)", "p99(us)",
+                "p99.9(us)", "bytes/op", "threads", "errors");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-45s %,12.0f %,10.1f %,10.1f %,10.1f %,12.0f %8d %7d", name + " (c=" + concurrency + ")",
+                getThroughputPerSecond(), Statistics.micros(getLatencyPercentileNanos(50)),
+                Statistics.micros(getLatencyPercentileNanos(99)), Statistics.micros(getLatencyPercentileNanos(99.9)),
+                getAllocatedBytesPerOperation(), peakThreads, errors);
+    }
+}
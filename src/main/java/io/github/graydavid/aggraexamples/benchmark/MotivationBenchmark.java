@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import io.github.graydavid.aggraexamples.motivation.Aggra;
+import io.github.graydavid.aggraexamples.motivation.ConditionalMemoizationNoArgumentPushFutures;
+import io.github.graydavid.aggraexamples.motivation.ConditionalMemoizationWithArgumentsPushFutures;
+import io.github.graydavid.aggraexamples.motivation.ConditionalPushFutures;
+import io.github.graydavid.aggraexamples.motivation.NoFutures;
+import io.github.graydavid.aggraexamples.motivation.PullFuturesExtreme;
+import io.github.graydavid.aggraexamples.motivation.PullFuturesPhased;
+import io.github.graydavid.aggraexamples.motivation.PushFutures;
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+
+/**
+ * Compares every strategy in the motivation package under simulated service latency. Each strategy gets a fresh cached
+ * thread pool, so that the peak thread count reflects that strategy alone (except for Aggra, which owns its executor).
+ *
+ * Usage: MotivationBenchmark [none|fixed|lognormal|heavytailed] [concurrency]
+ */
+public class MotivationBenchmark {
+    private MotivationBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(10);
+
+    public static void main(String args[]) {
+        String distributionName = args.length > 0 ? args[0] : "lognormal";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        LatencyDistribution distribution = distribution(distributionName);
+        Types.setServiceLatencySimulator(distribution::await);
+
+        System.out.println("Service latency: " + distributionName);
+        System.out.println(LoadResult.header());
+        for (Map.Entry<String, Function<ExecutorService, ClosedLoopLoad.Operation>> strategy : strategies()
+                .entrySet()) {
+            ExecutorService executor = Executors.newCachedThreadPool();
+            try {
+                LoadResult result = ClosedLoopLoad.run(strategy.getKey(), concurrency, WARMUP, MEASUREMENT,
+                        strategy.getValue().apply(executor));
+                System.out.println(result);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    static LatencyDistribution distribution(String name) {
+        switch (name) {
+            case "none":
+                return LatencyDistribution.none();
+            case "fixed":
+                return LatencyDistribution.fixed(Duration.ofMillis(2));
+            case "lognormal":
+                return LatencyDistribution.logNormal(Duration.ofMillis(2), 0.5);
+            case "heavytailed":
+                return LatencyDistribution.pareto(Duration.ofMillis(1), 1.5, Duration.ofMillis(500));
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + name);
+        }
+    }
+
+    private static Map<String, Function<ExecutorService, ClosedLoopLoad.Operation>> strategies() {
+        Map<String, Function<ExecutorService, ClosedLoopLoad.Operation>> strategies = new LinkedHashMap<>();
+        strategies.put("NoFutures", executor -> () -> NoFutures.run(new TopLevelRequest()));
+        strategies.put("PullFuturesPhased", executor -> () -> PullFuturesPhased.run(executor, new TopLevelRequest()));
+        strategies.put("PullFuturesExtreme",
+                executor -> () -> PullFuturesExtreme.run(executor, new TopLevelRequest()).get());
+        strategies.put("PushFutures", executor -> () -> PushFutures.run(executor, new TopLevelRequest()).join());
+        strategies.put("ConditionalPushFutures",
+                executor -> () -> ConditionalPushFutures.run(executor, new TopLevelRequest(), true, true).join());
+        strategies.put("ConditionalMemoizationNoArgumentPushFutures",
+                executor -> () -> ConditionalMemoizationNoArgumentPushFutures
+                        .run(executor, new TopLevelRequest(), true, true)
+                        .join());
+        strategies.put("ConditionalMemoizationWithArgumentsPushFutures",
+                executor -> () -> ConditionalMemoizationWithArgumentsPushFutures
+                        .run(executor, new TopLevelRequest(), true, true)
+                        .join());
+        strategies.put("Aggra", executor -> () -> Aggra.getResponse(new TopLevelRequest()));
+        return strategies;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+import io.github.graydavid.aggraexamples.motivation.Types.GetTopLevelResponse;
+import io.github.graydavid.aggraexamples.motivation.Types.Service1;
+import io.github.graydavid.aggraexamples.motivation.Types.Service2;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceA;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceB;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponse1;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponse2;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponseA;
+import io.github.graydavid.aggraexamples.motivation.Types.ServiceResponseB;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelResponse;
+
+/**
+ * The same graph as the motivation Aggra example, but with the executor and the CallService1 node as parameters, so
+ * that benchmarks can compare variations of it.
+ */
+public class MotivationGraph {
+    public static class ServiceOperationMemory extends Memory<TopLevelRequest> {
+        private ServiceOperationMemory(MemoryScope scope, CompletionStage<TopLevelRequest> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    /** Creates the CallService1 node, given the node that gets the top-level request. */
+    public interface CallService1Factory extends
+            Function<Node<ServiceOperationMemory, TopLevelRequest>, Node<ServiceOperationMemory, ServiceResponse1>> {
+    }
+
+    private final Node<ServiceOperationMemory, TopLevelResponse> getTopLevelResponse;
+    private final GraphCall.Factory<TopLevelRequest, ServiceOperationMemory> graphCallFactory;
+
+    private MotivationGraph(Executor executor, CallService1Factory callService1Factory) {
+        CreationTimeExecutorAsynchronousStarter asychronousStarter = CreationTimeExecutorAsynchronousStarter
+                .from(executor);
+        Node<ServiceOperationMemory, TopLevelRequest> getTopLevelRequest = Node
+                .inputBuilder(ServiceOperationMemory.class)
+                .role(Role.of("GetTopLevelRequest"))
+                .build();
+        Node<ServiceOperationMemory, ServiceResponse1> callService1 = callService1Factory.apply(getTopLevelRequest);
+        Node<ServiceOperationMemory, ServiceResponse2> callService2 = asychronousStarter
+                .startNode(Role.of("CallService2"), ServiceOperationMemory.class)
+                .apply(Service2::callService, callService1);
+        Node<ServiceOperationMemory, ServiceResponseA> callServiceA = asychronousStarter
+                .startNode(Role.of("CallServiceA"), ServiceOperationMemory.class)
+                .apply(ServiceA::callService, getTopLevelRequest);
+        Node<ServiceOperationMemory, ServiceResponseB> callServiceB = asychronousStarter
+                .startNode(Role.of("CallServiceB"), ServiceOperationMemory.class)
+                .apply(ServiceB::callService, callServiceA, callService1);
+        this.getTopLevelResponse = FunctionNodes
+                .synchronous(Role.of("GetTopLevelResponse"), ServiceOperationMemory.class)
+                .apply(GetTopLevelResponse::getResponse, callService2, callServiceB);
+
+        Graph<ServiceOperationMemory> graph = Graph.fromRoots(Role.of("ServiceOperationGraph"),
+                Set.of(getTopLevelResponse));
+        this.graphCallFactory = GraphCall.Factory.from(graph, ServiceOperationMemory::new);
+    }
+
+    /** Creates the graph exactly as in the motivation Aggra example, but running on executor. */
+    public static MotivationGraph from(Executor executor) {
+        return new MotivationGraph(executor, getTopLevelRequest -> CreationTimeExecutorAsynchronousStarter
+                .from(executor)
+                .startNode(Role.of("CallService1"), ServiceOperationMemory.class)
+                .apply(Service1::callService, getTopLevelRequest));
+    }
+
+    /** Creates the graph running on executor, except with a custom CallService1 node. */
+    public static MotivationGraph from(Executor executor, CallService1Factory callService1Factory) {
+        return new MotivationGraph(executor, callService1Factory);
+    }
+
+    public Node<ServiceOperationMemory, TopLevelResponse> getTopLevelResponseNode() {
+        return getTopLevelResponse;
+    }
+
+    public GraphCall.Factory<TopLevelRequest, ServiceOperationMemory> getGraphCallFactory() {
+        return graphCallFactory;
+    }
+
+    /** Runs a GraphCall for request, completing once the GraphCall is weakly closed. */
+    public CompletableFuture<TopLevelResponse> call(TopLevelRequest request, Observer observer) {
+        GraphCall<ServiceOperationMemory> graphCall = graphCallFactory
+                .openCancellableCall(CompletableFuture.completedFuture(request), observer);
+        CompletableFuture<TopLevelResponse> response = graphCall.call(getTopLevelResponse).toCompletableFuture();
+        return graphCall.weaklyClose().thenCompose(finalState -> response);
+    }
+
+    /** Runs a GraphCall for request, blocking until the GraphCall is weakly closed. */
+    public TopLevelResponse callAndWait(TopLevelRequest request) {
+        return call(request, Observer.doNothing()).join();
+    }
+}
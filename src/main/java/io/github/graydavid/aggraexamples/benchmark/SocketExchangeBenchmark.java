@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+import io.github.graydavid.aggraexamples.network.EchoServer;
+import io.github.graydavid.aggraexamples.network.NioEventLoop;
+import io.github.graydavid.aggraexamples.network.SocketChannelNodes;
+
+/**
+ * Compares two ways for a node to exchange a request with a remote service (a local {@link EchoServer} with a fixed
+ * delay): a blocking java.net.Socket on a cached thread pool, which ties up a thread for every exchange in flight, and
+ * {@link SocketChannelNodes}, where every exchange in flight shares a single event loop thread. Reports throughput,
+ * latency percentiles, and peak threads. Both include the load's own client threads (one per unit of concurrency) and
+ * the server's two threads, so the difference in peak threads is what the exchanges themselves cost.
+ *
+ * Both ways reuse connections between sequential exchanges, keeping up to one idle connection per unit of concurrency,
+ * so that the comparison is about waiting threads, not about setting up and tearing down connections.
+ *
+ * Usage: SocketExchangeBenchmark [concurrency] [serverDelayMillis]
+ */
+public class SocketExchangeBenchmark {
+    private SocketExchangeBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(3);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(5);
+    private static final int REQUEST_BYTES = 64;
+
+    private static class ExchangeMemory extends Memory<ByteBuffer> {
+        private ExchangeMemory(MemoryScope scope, CompletionStage<ByteBuffer> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        long serverDelayMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        ByteBuffer request = ByteBuffer.allocate(REQUEST_BYTES).asReadOnlyBuffer();
+        Node<ExchangeMemory, ByteBuffer> getRequest = Node.inputBuilder(ExchangeMemory.class)
+                .role(Role.of("GetRequest"))
+                .build();
+
+        try (EchoServer server = EchoServer.start(Duration.ofMillis(serverDelayMillis))) {
+            InetSocketAddress address = server.getAddress();
+            System.out.println("Server delay: " + serverDelayMillis + "ms");
+            System.out.println(LoadResult.header());
+
+            ExecutorService executor = Executors.newCachedThreadPool();
+            ConcurrentLinkedDeque<BlockingConnection> idle = new ConcurrentLinkedDeque<>();
+            Node<ExchangeMemory, ByteBuffer> blockingExchange = CreationTimeExecutorAsynchronousStarter.from(executor)
+                    .startNode(Role.of("ExchangeBlocking"), ExchangeMemory.class)
+                    .apply(currentRequest -> exchangeBlocking(address, idle, currentRequest), getRequest);
+            run("Blocking Socket", concurrency, request, blockingExchange);
+            executor.shutdownNow();
+            idle.forEach(BlockingConnection::close);
+
+            try (NioEventLoop eventLoop = NioEventLoop.start("socket-channel-nodes")) {
+                Node<ExchangeMemory, ByteBuffer> channelExchange = SocketChannelNodes
+                        .startNode(Role.of("ExchangeNonBlocking"), ExchangeMemory.class)
+                        .eventLoop(eventLoop)
+                        .address(address)
+                        .maxIdleConnections(concurrency)
+                        .exchange(getRequest);
+                run("SocketChannelNodes", concurrency, request, channelExchange);
+            }
+        }
+    }
+
+    private static void run(String name, int concurrency, ByteBuffer request,
+            Node<ExchangeMemory, ByteBuffer> exchange) {
+        Graph<ExchangeMemory> graph = Graph.fromRoots(Role.of("SocketExchangeGraph"), Set.of(exchange));
+        GraphCall.Factory<ByteBuffer, ExchangeMemory> graphCallFactory = GraphCall.Factory.from(graph,
+                ExchangeMemory::new);
+        LoadResult result = ClosedLoopLoad.run(name, concurrency, WARMUP, MEASUREMENT, () -> {
+            GraphCall<ExchangeMemory> graphCall = graphCallFactory.openCancellableCall(request, Observer.doNothing());
+            ByteBuffer response = graphCall.call(exchange).join();
+            graphCall.weaklyClose().join();
+            if (response.remaining() != request.remaining()) {
+                throw new IllegalStateException("Unexpected response length: " + response.remaining());
+            }
+        });
+        System.out.println(result);
+    }
+
+    // The blocking equivalent of SocketChannelNodes: the calling thread waits for the whole exchange. At most one
+    // exchange per unit of concurrency is in flight, so idle never holds more connections than that.
+    private static ByteBuffer exchangeBlocking(InetSocketAddress address,
+            ConcurrentLinkedDeque<BlockingConnection> idle, ByteBuffer request) {
+        BlockingConnection connection = idle.pollLast();
+        try {
+            if (connection == null) {
+                connection = new BlockingConnection(new Socket(address.getAddress(), address.getPort()));
+            }
+            ByteBuffer payload = request.duplicate();
+            byte[] requestBytes = new byte[payload.remaining()];
+            payload.get(requestBytes);
+            connection.out.writeInt(requestBytes.length);
+            connection.out.write(requestBytes);
+            connection.out.flush();
+
+            byte[] responseBytes = new byte[connection.in.readInt()];
+            connection.in.readFully(responseBytes);
+            idle.addLast(connection);
+            return ByteBuffer.wrap(responseBytes);
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class BlockingConnection {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        private BlockingConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(socket.getOutputStream());
+            this.in = new DataInputStream(socket.getInputStream());
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // The connection is unusable either way
+            }
+        }
+    }
+}
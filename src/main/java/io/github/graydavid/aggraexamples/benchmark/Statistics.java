@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+/** Summarizes the measurements that benchmarks record. */
+final class Statistics {
+    private Statistics() {}
+
+    /** Returns the value at the given percentile (0 to 100) of sorted values, or 0 if there are none. */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.TimeLimitNodes;
+import io.github.graydavid.aggraexamples.execution.HashedWheelTimer;
+import io.github.graydavid.aggraexamples.execution.PluggableTimeLimitNodes;
+import io.github.graydavid.aggraexamples.execution.TimeoutScheduler;
+
+/**
+ * Compares timer backends under high timeout churn, where almost every timeout is cancelled before it fires.
+ *
+ * The "timers" mode measures the timers directly: each client keeps a fixed number of timeouts outstanding, repeatedly
+ * scheduling a new one and cancelling its oldest. The "nodes" mode measures whole GraphCalls of a time-limited node
+ * around an instant dependency, comparing TimeLimitNodes with PluggableTimeLimitNodes on a {@link HashedWheelTimer}.
+ *
+ * The "retained" column is the number of scheduled tasks each timer still references at the end of the run, whether
+ * cancelled or not (i.e. its queue size, or the number of timeouts linked into the wheel). That's n/a for orTimeout,
+ * whose scheduler is internal to CompletableFuture.
+ *
+ * Usage: TimerChurnBenchmark [timers|nodes|all] [concurrency]
+ */
+public class TimerChurnBenchmark {
+    private TimerChurnBenchmark() {}
+
+    private static final Duration WARMUP = Duration.ofSeconds(3);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(10);
+    private static final int TIMEOUTS_PER_OPERATION = 1000;
+    private static final int OUTSTANDING_PER_CLIENT = 1000;
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    public static void main(String args[]) {
+        String mode = args.length > 0 ? args[0] : "all";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        if (mode.equals("timers") || mode.equals("all")) {
+            runTimers(concurrency);
+        }
+        if (mode.equals("nodes") || mode.equals("all")) {
+            runNodes(concurrency);
+        }
+    }
+
+    private static void runTimers(int concurrency) {
+        System.out.println(String.format("%-40s %14s %14s %16s %12s", "timer", "timeouts/s", "bytes/timeout",
+                "p99 per 1000(us)", "retained"));
+        for (Map.Entry<String, Supplier<ChurnTarget>> target : timerTargets().entrySet()) {
+            ChurnTarget churnTarget = target.getValue().get();
+            ThreadLocal<TimeoutScheduler.Timeout[]> outstanding = ThreadLocal
+                    .withInitial(() -> new TimeoutScheduler.Timeout[OUTSTANDING_PER_CLIENT]);
+            ThreadLocal<int[]> nextIndex = ThreadLocal.withInitial(() -> new int[1]);
+            Runnable neverExpected = () -> {
+            };
+            LoadResult result = ClosedLoopLoad.run(target.getKey(), concurrency, WARMUP, MEASUREMENT, () -> {
+                TimeoutScheduler.Timeout[] timeouts = outstanding.get();
+                int[] index = nextIndex.get();
+                for (int i = 0; i < TIMEOUTS_PER_OPERATION; ++i) {
+                    int slot = index[0]++ % timeouts.length;
+                    if (timeouts[slot] != null) {
+                        timeouts[slot].cancel();
+                    }
+                    timeouts[slot] = churnTarget.scheduler.schedule(neverExpected, TIMEOUT_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                }
+            });
+            System.out.println(String.format("%-40s %,14.0f %,14.1f %,16.1f %12s", target.getKey(),
+                    result.getThroughputPerSecond() * TIMEOUTS_PER_OPERATION,
+                    result.getAllocatedBytesPerOperation() / TIMEOUTS_PER_OPERATION,
+                    result.getLatencyPercentileNanos(99) / 1000.0, churnTarget.describeRetained()));
+            churnTarget.closer.run();
+        }
+    }
+
+    // A timer under test, how many scheduled tasks it's still holding onto (null if unknown), and how to shut it down
+    private static class ChurnTarget {
+        private final TimeoutScheduler scheduler;
+        private final Supplier<Long> retained;
+        private final Runnable closer;
+
+        private ChurnTarget(TimeoutScheduler scheduler, Supplier<Long> retained, Runnable closer) {
+            this.scheduler = scheduler;
+            this.retained = retained;
+            this.closer = closer;
+        }
+
+        private String describeRetained() {
+            Long count = retained.get();
+            return count == null ? "n/a" : String.format("%,d", count);
+        }
+    }
+
+    private static Map<String, Supplier<ChurnTarget>> timerTargets() {
+        Map<String, Supplier<ChurnTarget>> targets = new LinkedHashMap<>();
+        targets.put("ScheduledThreadPoolExecutor", () -> {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+            return new ChurnTarget(TimeoutScheduler.from(executor), () -> (long) executor.getQueue().size(),
+                    () -> shutDownDiscardingQueue(executor));
+        });
+        targets.put("ScheduledThreadPoolExecutor(removeOnCancel)", () -> {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+            return new ChurnTarget(TimeoutScheduler.from(executor), () -> (long) executor.getQueue().size(),
+                    () -> shutDownDiscardingQueue(executor));
+        });
+        targets.put("CompletableFuture.orTimeout", () -> new ChurnTarget((task, delay, unit) -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.orTimeout(delay, unit).whenComplete((result, throwable) -> {
+                if (throwable instanceof TimeoutException) {
+                    task.run();
+                }
+            });
+            return () -> future.complete(null);
+        }, () -> null, () -> {
+        }));
+        targets.put("HashedWheelTimer", () -> {
+            HashedWheelTimer timer = HashedWheelTimer.create();
+            return new ChurnTarget(timer, timer::getRetainedCount, timer::close);
+        });
+        return targets;
+    }
+
+    // shutdownNow would copy out what could be millions of retained cancelled tasks
+    private static void shutDownDiscardingQueue(ScheduledThreadPoolExecutor executor) {
+        executor.getQueue().clear();
+        executor.shutdownNow();
+    }
+
+    private static class TestMemory extends Memory<Integer> {
+        private TestMemory(MemoryScope scope, CompletionStage<Integer> input) {
+            super(scope, input, Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    private static void runNodes(int concurrency) {
+        System.out.println(LoadResult.header());
+        Node<TestMemory, Integer> getInput = Node.inputBuilder(TestMemory.class).role(Role.of("GetInput")).build();
+        Node<TestMemory, Integer> increment = FunctionNodes.synchronous(Role.of("Increment"), TestMemory.class)
+                .apply(i -> i + 1, getInput);
+
+        Node<TestMemory, Integer> standard = TimeLimitNodes
+                .startNode(Role.of("TimeLimitedIncrement"), TestMemory.class)
+                .callerThreadExecutor()
+                .timeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .timeLimitedCall(increment);
+        runNode("TimeLimitNodes", concurrency, standard);
+
+        try (HashedWheelTimer timer = HashedWheelTimer.create()) {
+            Node<TestMemory, Integer> wheel = PluggableTimeLimitNodes
+                    .startNode(Role.of("TimeLimitedIncrement"), TestMemory.class)
+                    .timeoutScheduler(timer)
+                    .callerThreadExecutor()
+                    .timeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .timeLimitedCall(increment);
+            runNode("PluggableTimeLimitNodes(HashedWheelTimer)", concurrency, wheel);
+        }
+    }
+
+    private static void runNode(String name, int concurrency, Node<TestMemory, Integer> timeLimited) {
+        Graph<TestMemory> graph = Graph.fromRoots(Role.of("TimerChurnGraph"), Set.of(timeLimited));
+        GraphCall.Factory<Integer, TestMemory> graphCallFactory = GraphCall.Factory.from(graph, TestMemory::new);
+        LoadResult result = ClosedLoopLoad.run(name, concurrency, WARMUP, MEASUREMENT, () -> {
+            GraphCall<TestMemory> graphCall = graphCallFactory.openCancellableCall(CompletableFuture.completedFuture(1),
+                    Observer.doNothing());
+            graphCall.call(timeLimited).join();
+            graphCall.weaklyClose().join();
+        });
+        System.out.println(result);
+    }
+}
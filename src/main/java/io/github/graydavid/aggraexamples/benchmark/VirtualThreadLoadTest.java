@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggraexamples.benchmark.MotivationGraph.ServiceOperationMemory;
+import io.github.graydavid.aggraexamples.execution.VirtualThreads;
+import io.github.graydavid.aggraexamples.motivation.Types;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelRequest;
+import io.github.graydavid.aggraexamples.motivation.Types.TopLevelResponse;
+
+/**
+ * Opens a burst of concurrent GraphCalls against the motivation graph, whose services block for a simulated latency,
+ * and compares a cached thread pool against virtual threads. Reports peak live threads, peak heap used, and latency
+ * percentiles. Note that platform thread stacks live outside the heap, so the thread count is the better proxy for
+ * their memory cost.
+ *
+ * Usage: VirtualThreadLoadTest [concurrentCalls] [rounds]
+ */
+public class VirtualThreadLoadTest {
+    private VirtualThreadLoadTest() {}
+
+    public static void main(String args[]) throws InterruptedException {
+        int concurrentCalls = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Types.setServiceLatencySimulator(LatencyDistribution.logNormal(Duration.ofMillis(20), 0.5)::await);
+
+        ExecutorService cachedThreadPool = Executors.newCachedThreadPool();
+        run("CachedThreadPool", cachedThreadPool, concurrentCalls, rounds);
+        cachedThreadPool.shutdown();
+        // Give idle pool threads a chance to exit, so they don't count against the next run
+        cachedThreadPool.awaitTermination(1, TimeUnit.MINUTES);
+
+        if (VirtualThreads.isSupported()) {
+            run("VirtualThreads", VirtualThreads.newVirtualThreadPerTaskExecutor(), concurrentCalls, rounds);
+        } else {
+            System.out.println("Skipping VirtualThreads: requires Java 21 or later");
+        }
+    }
+
+    private static void run(String name, ExecutorService executor, int concurrentCalls, int rounds) {
+        MotivationGraph motivationGraph = MotivationGraph.from(executor);
+        Node<ServiceOperationMemory, TopLevelResponse> getTopLevelResponse = motivationGraph.getTopLevelResponseNode();
+        GraphCall.Factory<TopLevelRequest, ServiceOperationMemory> graphCallFactory = motivationGraph
+                .getGraphCallFactory();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeapUsed = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(
+                () -> peakHeapUsed.accumulateAndGet(memoryBean.getHeapMemoryUsage().getUsed(), Math::max), 0, 10,
+                TimeUnit.MILLISECONDS);
+
+        // Use the first round as warmup
+        runRound(graphCallFactory, getTopLevelResponse, concurrentCalls);
+        threadBean.resetPeakThreadCount();
+        peakHeapUsed.set(0);
+        long[] latencies = new long[concurrentCalls * rounds];
+        for (int round = 0; round < rounds; ++round) {
+            long[] roundLatencies = runRound(graphCallFactory, getTopLevelResponse, concurrentCalls);
+            System.arraycopy(roundLatencies, 0, latencies, round * concurrentCalls, concurrentCalls);
+        }
+        sampler.shutdownNow();
+        Arrays.sort(latencies);
+
+        System.out.println(String.format("%-16s calls=%d peakThreads=%d peakHeapMb=%d p50Ms=%.1f p99Ms=%.1f maxMs=%.1f",
+                name, concurrentCalls, threadBean.getPeakThreadCount(), peakHeapUsed.get() / (1024 * 1024),
+                Statistics.millis(Statistics.percentile(latencies, 50)),
+                Statistics.millis(Statistics.percentile(latencies, 99)),
+                Statistics.millis(latencies[latencies.length - 1])));
+    }
+
+    private static long[] runRound(GraphCall.Factory<TopLevelRequest, ServiceOperationMemory> graphCallFactory,
+            Node<ServiceOperationMemory, TopLevelResponse> getTopLevelResponse, int concurrentCalls) {
+        long[] latencies = new long[concurrentCalls];
+        CompletableFuture<?>[] finalStates = new CompletableFuture<?>[concurrentCalls];
+        for (int i = 0; i < concurrentCalls; ++i) {
+            int index = i;
+            long start = System.nanoTime();
+            GraphCall<ServiceOperationMemory> graphCall = graphCallFactory.openCancellableCall(
+                    CompletableFuture.completedFuture(new TopLevelRequest()), Observer.doNothing());
+            graphCall.call(getTopLevelResponse);
+            finalStates[i] = graphCall.weaklyClose()
+                    .whenComplete((state, throwable) -> latencies[index] = System.nanoTime() - start);
+        }
+        CompletableFuture.allOf(finalStates).join();
+        return latencies;
+    }
+}
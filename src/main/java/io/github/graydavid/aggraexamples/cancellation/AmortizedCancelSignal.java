@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.cancellation;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+
+/**
+ * Wraps a CompositeCancelSignal for tight loops, so that the signal is only read every so often, rather than on every
+ * iteration. Reading a composite signal means volatile reads across several sources, which can cost a noticeable share
+ * of a cheap iteration; reading it less often means the loop takes longer to stop once the signal is triggered.
+ *
+ * {@link #everyIterations(CompositeCancelSignal, int)} reads the signal every fixed number of iterations.
+ * {@link #adaptive(CompositeCancelSignal, Duration)} instead aims for a fixed time between reads, and so a fixed
+ * worst-case time to stop: on each read, it measures how long the iterations since the last read took, and scales the
+ * number of iterations until the next read towards the target (by at most a factor of 2 each time, so that one
+ * unusual iteration doesn't throw it off). Adaptive polling only adds a System#nanoTime call per read.
+ *
+ * Instances are meant to be created fresh for each behavior run and used by a single thread. Once a read returns true,
+ * every later call to {@link #read()} does too.
+ */
+public final class AmortizedCancelSignal {
+    private static final int MAX_INTERVAL = 1 << 24;
+
+    private final CompositeCancelSignal signal;
+    private final boolean adaptive;
+    private final long targetNanos;
+    private int interval;
+    private int countdown;
+    private long lastReadNanos;
+    private boolean triggered;
+
+    private AmortizedCancelSignal(CompositeCancelSignal signal, boolean adaptive, long targetNanos, int interval) {
+        this.signal = Objects.requireNonNull(signal);
+        this.adaptive = adaptive;
+        this.targetNanos = targetNanos;
+        this.interval = interval;
+        this.countdown = interval;
+        this.lastReadNanos = adaptive ? System.nanoTime() : 0;
+    }
+
+    /** Reads signal on every intervalth call to {@link #read()}. */
+    public static AmortizedCancelSignal everyIterations(CompositeCancelSignal signal, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        return new AmortizedCancelSignal(signal, false, 0, interval);
+    }
+
+    /** Reads signal about every targetLatency, adapting the number of calls to {@link #read()} in between. */
+    public static AmortizedCancelSignal adaptive(CompositeCancelSignal signal, Duration targetLatency) {
+        long targetNanos = targetLatency.toNanos();
+        if (targetNanos < 1) {
+            throw new IllegalArgumentException("targetLatency must be positive: " + targetLatency);
+        }
+        return new AmortizedCancelSignal(signal, true, targetNanos, 1);
+    }
+
+    /** Call once per iteration. Answers whether the loop should stop, reading the underlying signal only sometimes. */
+    public boolean read() {
+        if (triggered) {
+            return true;
+        }
+        if (--countdown > 0) {
+            return false;
+        }
+        return readNow();
+    }
+
+    private boolean readNow() {
+        triggered = signal.read();
+        if (adaptive) {
+            adapt();
+        }
+        countdown = interval;
+        return triggered;
+    }
+
+    private void adapt() {
+        long now = System.nanoTime();
+        long elapsedNanos = Math.max(1, now - lastReadNanos);
+        lastReadNanos = now;
+        double scale = Math.max(0.5, Math.min(2.0, (double) targetNanos / elapsedNanos));
+        interval = (int) Math.max(1, Math.min(MAX_INTERVAL, Math.round(interval * scale)));
+    }
+
+    /** The current number of iterations between reads of the underlying signal. */
+    public int getInterval() {
+        return interval;
+    }
+}
@@ -8,19 +8,12 @@ package io.github.graydavid.aggraexamples.cancellation;
 
 import java.time.Duration;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import io.github.graydavid.aggra.core.Behaviors.BehaviorWithCustomCancelAction;
 import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
-import io.github.graydavid.aggra.core.Behaviors.CustomCancelAction;
 import io.github.graydavid.aggra.core.Behaviors.CustomCancelActionBehaviorResponse;
 import io.github.graydavid.aggra.core.CallObservers.Observer;
 import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
@@ -35,7 +28,7 @@ import io.github.graydavid.aggra.core.Node;
 import io.github.graydavid.aggra.core.Reply;
 import io.github.graydavid.aggra.core.Role;
 import io.github.graydavid.aggra.core.Type;
-import io.github.graydavid.onemoretry.Try;
+import io.github.graydavid.aggraexamples.execution.InterruptibleExecutor;
 
 public class InterruptCustomAction {
     private InterruptCustomAction() {}
@@ -50,15 +43,11 @@ public class InterruptCustomAction {
     // Create the Graph and nodes (static is used for this example; Spring/Guice are just as valid)
     private static final Node<ExampleMemory, Boolean> ENTRY_NODE;
     private static final GraphCall.NoInputFactory<ExampleMemory> GRAPH_CALL_FACTORY;
+    private static final InterruptibleExecutor EXECUTOR;
     static {
-        // Create an executor using daemon threads so that it won't block program shutdown
-        Executor executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-            public Thread newThread(Runnable r) {
-                Thread t = Executors.defaultThreadFactory().newThread(r);
-                t.setDaemon(true);
-                return t;
-            }
-        });
+        // Create an executor whose tasks double as CustomCancelActions, interrupting only their own threads. It uses
+        // daemon threads so that it won't block program shutdown.
+        EXECUTOR = InterruptibleExecutor.builder().threads(4).build();
 
         // Create the nodes in the graph
         Node<ExampleMemory, Boolean> awaitNeverCountDownLatch = Node.communalBuilder(ExampleMemory.class)
@@ -69,27 +58,10 @@ public class InterruptCustomAction {
                     @Override
                     public CustomCancelActionBehaviorResponse<Boolean> run(
                             DependencyCallingDevice<ExampleMemory> device, CompositeCancelSignal signal) {
-                        CompletableFuture<Boolean> response = new CompletableFuture<>();
-                        CompletingOnCancelFutureTask<?> task = new CompletingOnCancelFutureTask<>(() -> {
-                            awaitNeverCountDownLatchTowardsFuture(response);
-                            return null;
-                        }, response);
-                        executor.execute(task);
-                        CustomCancelAction action = mayInterrupt -> task.cancel(mayInterrupt);
-                        return new CustomCancelActionBehaviorResponse<>(response, action);
-                    }
-
-                    private void awaitNeverCountDownLatchTowardsFuture(CompletableFuture<Boolean> futureToComplete) {
-                        Try.callCatchThrowable(() -> {
+                        return EXECUTOR.submit(() -> {
                             CountDownLatch latch = new CountDownLatch(1);
                             return latch.await(1, TimeUnit.SECONDS);
-                        }).consume((bool, t) -> {
-                            if (t == null) {
-                                futureToComplete.complete(bool);
-                            } else {
-                                futureToComplete.completeExceptionally(t);
-                            }
-                        });
+                        }).toBehaviorResponse();
                     }
 
                     @Override
@@ -116,26 +88,6 @@ public class InterruptCustomAction {
         GRAPH_CALL_FACTORY = GraphCall.NoInputFactory.from(graph, ExampleMemory::new);
     }
 
-    /**
-     * Completes a provided CompletableFuture if this task is cancelled. This helps make sure the CompletableFuture
-     * completes both on normal running and cancellation of the task.
-     */
-    private static class CompletingOnCancelFutureTask<T> extends FutureTask<T> {
-        private final CompletableFuture<?> futureToComplete;
-
-        private CompletingOnCancelFutureTask(Callable<T> callable, CompletableFuture<?> futureToComplete) {
-            super(callable);
-            this.futureToComplete = futureToComplete;
-        }
-
-        @Override
-        protected void done() {
-            if (isCancelled()) {
-                futureToComplete.completeExceptionally(new CancellationException());
-            }
-        }
-    }
-
     public static void main(String args[]) {
         Observer observer = Observer.doNothing(); // We don't want to observe any node calls
         GraphCall<ExampleMemory> graphCall = GRAPH_CALL_FACTORY.openCancellableCall(observer);
@@ -147,6 +99,7 @@ public class InterruptCustomAction {
         doneOrAbandonedReply.join();
         Duration duration = Duration.ofNanos(System.nanoTime() - start);
         System.out.println("Program done after " + duration.toMillis() + " ms");
+        System.out.println(EXECUTOR);
     }
 
     private static void handleCallState(GraphCall.State state, Throwable throwable, Reply<Boolean> finalReply) {
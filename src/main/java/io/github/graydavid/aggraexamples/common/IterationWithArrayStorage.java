@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.common;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryFactory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Storage;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.IterationNodes;
+import io.github.graydavid.aggraexamples.storage.ArrayStorage;
+
+/**
+ * The same as {@link Iteration}, except that each Memory stores its Replies in an {@link ArrayStorage}. Iteration
+ * creates one SecondaryMemory per list element, so this is where the per-Memory cost of storage matters most.
+ */
+public class IterationWithArrayStorage {
+    private IterationWithArrayStorage() {}
+
+    // MainMemory carries the SecondaryMemory storage factory, so that the iteration memory factory can reach it
+    private static class MainMemory extends Memory<Integer> {
+        private final Supplier<Storage> secondaryStorageFactory;
+
+        private MainMemory(MemoryScope scope, Supplier<Storage> storageFactory,
+                Supplier<Storage> secondaryStorageFactory) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), storageFactory);
+            this.secondaryStorageFactory = secondaryStorageFactory;
+        }
+
+        public Supplier<Storage> getSecondaryStorageFactory() {
+            return secondaryStorageFactory;
+        }
+    }
+
+    private static class SecondaryMemory extends Memory<Integer> {
+        private SecondaryMemory(MemoryScope scope, CompletionStage<Integer> input, Supplier<Storage> storageFactory) {
+            super(scope, input, Set.of(), storageFactory);
+        }
+    }
+
+    public static void main(String args[]) {
+        Node<SecondaryMemory, Integer> getInput = Node.inputBuilder(SecondaryMemory.class)
+                .role(Role.of("GetInput"))
+                .build();
+        Node<SecondaryMemory, Integer> multiplyInputByTwo = FunctionNodes
+                .synchronous(Role.of("MultipleInputByTwo"), SecondaryMemory.class)
+                .apply(num -> 2 * num, getInput);
+        Node<MainMemory, List<Integer>> getList = FunctionNodes.synchronous(Role.of("GetList"), MainMemory.class)
+                .getValue(List.of(5, 9, 10, 30));
+        // javac (but not Eclipse) has a problem inferring type arguments when the memory factory is declared inline,
+        // so break it out into a separate variable definition.
+        MemoryFactory<MainMemory, Integer, SecondaryMemory> secondaryMemoryFactory = (scope, input,
+                main) -> new SecondaryMemory(scope, input, main.getSecondaryStorageFactory());
+        Node<MainMemory, List<Integer>> multiplyListByTwo = IterationNodes
+                .startNode(Role.of("MultiplyListByTwo"), MainMemory.class)
+                .iterate(getList, secondaryMemoryFactory, multiplyInputByTwo)
+                .collectToOutputList();
+
+        // Index the Graph's nodes once per Memory class
+        Graph<MainMemory> graph = Graph.fromRoots(Role.of("IterationGraph"), Set.of(multiplyListByTwo));
+        Supplier<Storage> mainStorageFactory = ArrayStorage.factoryFor(graph, MainMemory.class);
+        Supplier<Storage> secondaryStorageFactory = ArrayStorage.factoryFor(graph, SecondaryMemory.class);
+        GraphCall.NoInputFactory<MainMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph,
+                scope -> new MainMemory(scope, mainStorageFactory, secondaryStorageFactory));
+
+        GraphCall<MainMemory> graphCall = graphCallFactory.openCancellableCall(Observer.doNothing());
+        List<Integer> doubled = graphCall.call(multiplyListByTwo).join();
+        graphCall.weaklyClose().join();
+        System.out.println(doubled);
+    }
+}
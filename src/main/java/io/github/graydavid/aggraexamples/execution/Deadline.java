@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import java.time.Duration;
+
+import io.github.graydavid.aggra.core.Memory;
+
+/**
+ * A point in time (by System#nanoTime) after which a request's result is useless, so no more work should be done for
+ * it. Deadlines are attached to Memories that implement {@link DeadlineMemory}, and child Memories inherit them from
+ * their parents when they're created: MemoryFactory and MemoryNoInputFactory receive the parent Memory, whether they're
+ * used by MemoryTripNodes, IterationNodes, or device.createMemoryAndCall directly, so the child's constructor can call
+ * {@link #inheritedFrom(Memory)}. A child can also narrow its inherited deadline with a budget of its own, but never
+ * extend it.
+ */
+public final class Deadline {
+    private static final Deadline NONE = new Deadline(0, false);
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+
+    private Deadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /** A deadline that never expires. */
+    public static Deadline none() {
+        return NONE;
+    }
+
+    /** A deadline that expires budget from now. */
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos(), true);
+    }
+
+    /** The deadline of memory, if it's a DeadlineMemory, or else none. */
+    public static Deadline inheritedFrom(Memory<?> memory) {
+        return (memory instanceof DeadlineMemory) ? ((DeadlineMemory) memory).getDeadline() : NONE;
+    }
+
+    /** The earlier of this deadline and budget from now. */
+    public Deadline narrowedTo(Duration budget) {
+        return earlierOf(after(budget));
+    }
+
+    public Deadline earlierOf(Deadline other) {
+        if (!bounded) {
+            return other;
+        }
+        if (!other.bounded) {
+            return this;
+        }
+        return (other.deadlineNanos - deadlineNanos < 0) ? other : this;
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /** The time left until the deadline (negative if it's passed), or Long.MAX_VALUE if it's not bounded. */
+    public long remainingNanos() {
+        return bounded ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? "Deadline[remaining=" + Duration.ofNanos(remainingNanos()) + "]" : "Deadline[none]";
+    }
+
+    /** A Memory that carries a deadline. */
+    public interface DeadlineMemory {
+        Deadline getDeadline();
+    }
+}
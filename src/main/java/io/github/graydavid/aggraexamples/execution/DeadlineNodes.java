@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import io.github.graydavid.aggra.core.Behaviors.Behavior;
+import io.github.graydavid.aggra.core.Behaviors.BehaviorWithCompositeCancelSignal;
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+import io.github.graydavid.aggra.core.Dependencies.AncestorMemoryDependency;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.DependencyLifetime;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggraexamples.execution.Deadline.DeadlineMemory;
+
+/**
+ * Creates nodes that honor the {@link Deadline} of the Memory they run in, rather than a timeout of their own:
+ * <ul>
+ * <li>{@link DeadlineNodeStarter#deadlineLimitedCall(Node)} wraps a node like {@link PluggableTimeLimitNodes} does,
+ * except that it times out at the deadline (ignoring the wrapped node's reply, which triggers its cancel signal), and
+ * fails straight away, without calling the wrapped node, if the deadline has already passed.
+ * <li>{@link DeadlineNodeStarter#getAsynchronously(Supplier)} and
+ * {@link DeadlineNodeStarter#applyAsynchronously(Function, Node)} run a function on an executor, like
+ * CreationTimeExecutorAsynchronousStarter does, except that they respond with a TimeoutException at the deadline, and
+ * skip the function entirely if the deadline passes (failing with a TimeoutException) or the cancel signal triggers
+ * (failing with a CancellationException) while it's waiting to run. Once the function has started, though, nothing
+ * stops it: the response fails at the deadline, but the function keeps running on the executor until it returns, and
+ * its result is discarded. Functions that might run long past the deadline should check it themselves, or be run as
+ * interruptible tasks instead (see {@link InterruptibleExecutor}).
+ * </ul>
+ * Since every Memory in a request inherits the same deadline (or a tighter one), no work starts after the point where
+ * its result is useless, however deep in the Memory tree it is.
+ *
+ * Behaviors don't have direct access to their Memory, so the deadline is read through
+ * {@link #getDeadline(Role, Class)}: a node that accesses its own Memory as an "ancestor" purely to read the deadline
+ * off of it.
+ */
+public class DeadlineNodes {
+    private DeadlineNodes() {}
+
+    public static final Type GET_DEADLINE_TYPE = Type.generic("GetDeadline");
+    public static final Type DEADLINE_LIMIT_TYPE = Type.generic("DeadlineLimit");
+    public static final Type DEADLINE_ASYNCHRONOUS_FUNCTION_TYPE = Type.generic("DeadlineAsynchronousFunction");
+
+    /** Creates a node that responds with the deadline of the Memory it's called in. */
+    public static <M extends Memory<?> & DeadlineMemory> Node<M, Deadline> getDeadline(Role role,
+            Class<M> memoryClass) {
+        Node<M, Void> doNothing = FunctionNodes.synchronous(Role.of(role + "-Anchor"), memoryClass).run(() -> {
+        });
+        Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+        AncestorMemoryDependency<M, Void> consumeDoNothing = builder.ancestorMemoryDependency(doNothing);
+        return builder.type(GET_DEADLINE_TYPE).role(role).build(device -> {
+            Deadline[] deadline = new Deadline[1];
+            Reply<Void> reply = device.accessAncestorMemoryAndCall(memory -> {
+                deadline[0] = memory.getDeadline();
+                return memory;
+            }, consumeDoNothing);
+            return reply.thenApply(ignored -> deadline[0]);
+        });
+    }
+
+    public static <M extends Memory<?> & DeadlineMemory> DeadlineNodeStarter<M> startNode(Role role,
+            Class<M> memoryClass) {
+        return new DeadlineNodeStarter<>(role, memoryClass);
+    }
+
+    public static class DeadlineNodeStarter<M extends Memory<?> & DeadlineMemory> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private TimeoutScheduler timeoutScheduler;
+        private Executor executor;
+
+        private DeadlineNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Required. */
+        public DeadlineNodeStarter<M> timeoutScheduler(TimeoutScheduler timeoutScheduler) {
+            this.timeoutScheduler = Objects.requireNonNull(timeoutScheduler);
+            return this;
+        }
+
+        /**
+         * Required, unless callerThreadExecutor is used. For limited calls, this is where timeout responses are
+         * completed; for asynchronous functions, it's also where the functions run.
+         */
+        public DeadlineNodeStarter<M> executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        /** Completes timeout responses (and runs functions) directly on the calling or timer thread. */
+        public DeadlineNodeStarter<M> callerThreadExecutor() {
+            return executor(Runnable::run);
+        }
+
+        public <T> Node<M, T> deadlineLimitedCall(Node<M, T> node) {
+            validate();
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, Deadline> consumeDeadline = builder
+                    .sameMemoryUnprimedDependency(getDeadline(Role.of(role + "-GetDeadline"), memoryClass));
+            SameMemoryDependency<M, T> consumeNode = builder.sameMemoryUnprimedDependency(node);
+            return builder.type(DEADLINE_LIMIT_TYPE)
+                    .role(role)
+                    .dependencyLifetime(DependencyLifetime.GRAPH)
+                    .build(new DeadlineLimitBehavior<>(timeoutScheduler, executor, consumeDeadline, consumeNode));
+        }
+
+        public <T> Node<M, T> getAsynchronously(Supplier<T> supplier) {
+            Objects.requireNonNull(supplier);
+            return buildAsynchronous(null, ignored -> supplier.get());
+        }
+
+        public <A, T> Node<M, T> applyAsynchronously(Function<? super A, ? extends T> function, Node<M, A> argument) {
+            return buildAsynchronous(Objects.requireNonNull(argument), Objects.requireNonNull(function));
+        }
+
+        private <A, T> Node<M, T> buildAsynchronous(Node<M, A> argument, Function<? super A, ? extends T> function) {
+            validate();
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, Deadline> consumeDeadline = builder
+                    .sameMemoryUnprimedDependency(getDeadline(Role.of(role + "-GetDeadline"), memoryClass));
+            SameMemoryDependency<M, A> consumeArgument = (argument == null) ? null
+                    : builder.sameMemoryUnprimedDependency(argument);
+            return builder.type(DEADLINE_ASYNCHRONOUS_FUNCTION_TYPE)
+                    .role(role)
+                    .buildWithCompositeCancelSignal(new DeadlineAsynchronousBehavior<>(timeoutScheduler, executor,
+                            consumeDeadline, consumeArgument, function));
+        }
+
+        private void validate() {
+            Objects.requireNonNull(timeoutScheduler, "timeoutScheduler is required");
+            Objects.requireNonNull(executor, "executor is required");
+        }
+    }
+
+    private static TimeoutException deadlineExceeded() {
+        return new TimeoutException("Deadline exceeded");
+    }
+
+    private static class DeadlineLimitBehavior<M extends Memory<?>, T> implements Behavior<M, T> {
+        private final TimeoutScheduler timeoutScheduler;
+        private final Executor executor;
+        private final SameMemoryDependency<M, Deadline> consumeDeadline;
+        private final SameMemoryDependency<M, T> consumeNode;
+
+        private DeadlineLimitBehavior(TimeoutScheduler timeoutScheduler, Executor executor,
+                SameMemoryDependency<M, Deadline> consumeDeadline, SameMemoryDependency<M, T> consumeNode) {
+            this.timeoutScheduler = timeoutScheduler;
+            this.executor = executor;
+            this.consumeDeadline = consumeDeadline;
+            this.consumeNode = consumeNode;
+        }
+
+        @Override
+        public CompletionStage<T> run(DependencyCallingDevice<M> device) {
+            return device.call(consumeDeadline).thenCompose(deadline -> limit(device, deadline));
+        }
+
+        private CompletableFuture<T> limit(DependencyCallingDevice<M> device, Deadline deadline) {
+            if (deadline.isExpired()) {
+                return CompletableFuture.failedFuture(deadlineExceeded());
+            }
+            Reply<T> reply = device.call(consumeNode);
+            if (!deadline.isBounded()) {
+                return reply.toCompletableFuture();
+            }
+
+            return TimeLimitRace.race(device, reply, timeoutScheduler, executor,
+                    Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS, DeadlineNodes::deadlineExceeded);
+        }
+    }
+
+    private static class DeadlineAsynchronousBehavior<M extends Memory<?>, A, T>
+            implements BehaviorWithCompositeCancelSignal<M, T> {
+        private final TimeoutScheduler timeoutScheduler;
+        private final Executor executor;
+        private final SameMemoryDependency<M, Deadline> consumeDeadline;
+        private final SameMemoryDependency<M, A> consumeArgument;
+        private final Function<? super A, ? extends T> function;
+
+        private DeadlineAsynchronousBehavior(TimeoutScheduler timeoutScheduler, Executor executor,
+                SameMemoryDependency<M, Deadline> consumeDeadline, SameMemoryDependency<M, A> consumeArgument,
+                Function<? super A, ? extends T> function) {
+            this.timeoutScheduler = timeoutScheduler;
+            this.executor = executor;
+            this.consumeDeadline = consumeDeadline;
+            this.consumeArgument = consumeArgument;
+            this.function = function;
+        }
+
+        @Override
+        public CompletionStage<T> run(DependencyCallingDevice<M> device, CompositeCancelSignal signal) {
+            Reply<Deadline> deadline = device.call(consumeDeadline);
+            CompletionStage<A> argument = (consumeArgument == null) ? CompletableFuture.completedFuture(null)
+                    : device.call(consumeArgument);
+            return deadline.thenCombine(argument, (currentDeadline, currentArgument) -> start(currentDeadline,
+                    currentArgument, signal)).thenCompose(response -> response);
+        }
+
+        private CompletableFuture<T> start(Deadline deadline, A argument, CompositeCancelSignal signal) {
+            if (deadline.isExpired()) {
+                return CompletableFuture.failedFuture(deadlineExceeded());
+            }
+            CompletableFuture<T> response = new CompletableFuture<>();
+            TimeoutScheduler.Timeout scheduled = !deadline.isBounded() ? () -> false
+                    : timeoutScheduler.schedule(() -> executor.execute(
+                            () -> response.completeExceptionally(deadlineExceeded())),
+                            Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+            response.whenComplete((value, throwable) -> scheduled.cancel());
+            executor.execute(() -> {
+                // The deadline may have passed, or the caller lost interest, while this was queued
+                if (response.isDone()) {
+                    return;
+                }
+                if (signal.read()) {
+                    response.completeExceptionally(new CancellationException("Cancelled before the function started"));
+                    return;
+                }
+                if (deadline.isExpired()) {
+                    response.completeExceptionally(deadlineExceeded());
+                    return;
+                }
+                try {
+                    response.complete(function.apply(argument));
+                } catch (Throwable t) {
+                    response.completeExceptionally(t);
+                }
+            });
+            return response;
+        }
+    }
+}
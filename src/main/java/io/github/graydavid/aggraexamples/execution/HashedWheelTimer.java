@@ -0,0 +1,280 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link TimeoutScheduler} based on a hashed timing wheel, which makes scheduling and cancelling O(1), at the cost of
+ * firing timeouts only at tick boundaries (i.e. up to one tick late). This suits timeouts well: there are many of them,
+ * they mostly get cancelled, and nobody needs them to be precise.
+ *
+ * The wheel is an array of buckets, each a doubly-linked list of timeouts. A timeout lands in the bucket for its
+ * deadline tick modulo the wheel size, remembering how many more full rotations to wait. Scheduling and cancelling
+ * threads only push timeouts onto lock-free stacks (linked through the timeouts themselves, so pushing allocates
+ * nothing); once per tick, a single worker thread takes each stack whole, moves timeouts into and out of buckets, and
+ * runs expired ones.
+ */
+public class HashedWheelTimer implements TimeoutScheduler, AutoCloseable {
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final AtomicReference<WheelTimeout> pendingTimeouts = new AtomicReference<>();
+    private final AtomicReference<WheelTimeout> cancelledTimeouts = new AtomicReference<>();
+    private final LongAdder pendingCount = new LongAdder();
+    private final LongAdder retainedCount = new LongAdder();
+    private final long startNanos;
+    private final Thread worker;
+    private volatile boolean closed;
+
+    /**
+     * @param tickDuration the timer's resolution.
+     * @param ticksPerWheel the number of buckets, rounded up to a power of two. Timeouts longer than one rotation
+     *        (tickDuration * ticksPerWheel) still work, but they're looked at once per rotation.
+     * @param threadFactory creates the worker thread, which starts immediately.
+     */
+    public HashedWheelTimer(Duration tickDuration, int ticksPerWheel, ThreadFactory threadFactory) {
+        if (tickDuration.isNegative() || tickDuration.isZero()) {
+            throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+        }
+        if (ticksPerWheel < 1 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be in [1, 2^30]: " + ticksPerWheel);
+        }
+        this.tickNanos = tickDuration.toNanos();
+        int wheelSize = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        wheelSize = Math.max(wheelSize, 1);
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; ++i) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+        this.startNanos = System.nanoTime();
+        this.worker = threadFactory.newThread(this::work);
+        worker.start();
+    }
+
+    /** Creates a timer with a 1ms tick and 512 buckets, running on a daemon thread. */
+    public static HashedWheelTimer create() {
+        return new HashedWheelTimer(Duration.ofMillis(1), 512, runnable -> {
+            Thread thread = new Thread(runnable, "hashed-wheel-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (closed) {
+            throw new IllegalStateException("Timer is closed");
+        }
+        // Deadlines are relative to startNanos, so that they're positive and comparable with tick deadlines. They
+        // saturate rather than overflow, so that huge delays mean (effectively) never rather than straight away.
+        long elapsed = System.nanoTime() - startNanos;
+        long delayNanos = Math.max(0, unit.toNanos(delay));
+        long deadline = (delayNanos > Long.MAX_VALUE - elapsed) ? Long.MAX_VALUE : elapsed + delayNanos;
+        WheelTimeout timeout = new WheelTimeout(this, task, deadline);
+        pendingCount.increment();
+        retainedCount.increment();
+        WheelTimeout head;
+        do {
+            head = pendingTimeouts.get();
+            timeout.nextPending = head;
+        } while (!pendingTimeouts.compareAndSet(head, timeout));
+        return timeout;
+    }
+
+    /** The number of timeouts scheduled but neither run nor cancelled yet. */
+    public long getPendingCount() {
+        return pendingCount.sum();
+    }
+
+    /**
+     * The number of timeouts the timer still references, whether cancelled or not: cancelled timeouts stay linked in
+     * their buckets (or on the pending stack) until the worker's next tick unlinks them.
+     */
+    public long getRetainedCount() {
+        return retainedCount.sum();
+    }
+
+    /** Stops the worker. Timeouts that haven't run yet never will. */
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void work() {
+        long tick = 0;
+        while (!closed) {
+            if (!waitForTick(tick)) {
+                return;
+            }
+            removeCancelled();
+            transferPending(tick);
+            wheel[(int) (tick & mask)].expire();
+            ++tick;
+        }
+    }
+
+    // Answers false if the timer was closed while waiting
+    private boolean waitForTick(long tick) {
+        long tickDeadline = tickNanos * (tick + 1);
+        long remaining;
+        while ((remaining = tickDeadline - (System.nanoTime() - startNanos)) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted() && closed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void removeCancelled() {
+        WheelTimeout timeout = cancelledTimeouts.getAndSet(null);
+        while (timeout != null) {
+            WheelTimeout next = timeout.nextCancelled;
+            timeout.nextCancelled = null;
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    // Order doesn't matter here, since each timeout's bucket depends only on its deadline
+    private void transferPending(long currentTick) {
+        WheelTimeout timeout = pendingTimeouts.getAndSet(null);
+        while (timeout != null) {
+            WheelTimeout next = timeout.nextPending;
+            timeout.nextPending = null;
+            if (timeout.state == WheelTimeout.ST_INIT) {
+                long deadlineTick = Math.max(timeout.deadlineNanos / tickNanos, currentTick);
+                timeout.remainingRounds = (deadlineTick - currentTick) / wheel.length;
+                wheel[(int) (deadlineTick & mask)].add(timeout);
+            } else {
+                retainedCount.decrement();
+            }
+            timeout = next;
+        }
+    }
+
+    private static class WheelTimeout implements Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE = AtomicIntegerFieldUpdater
+                .newUpdater(WheelTimeout.class, "state");
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadlineNanos;
+        private volatile int state = ST_INIT;
+        // Links for the pending and cancelled stacks, published by the stacks' compareAndSet
+        private WheelTimeout nextPending;
+        private WheelTimeout nextCancelled;
+        // Only accessed by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private WheelTimeout previous;
+        private WheelTimeout next;
+
+        private WheelTimeout(HashedWheelTimer timer, Runnable task, long deadlineNanos) {
+            this.timer = timer;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            timer.pendingCount.decrement();
+            // Let the worker unlink it, so that buckets are only ever touched by one thread
+            WheelTimeout head;
+            do {
+                head = timer.cancelledTimeouts.get();
+                nextCancelled = head;
+            } while (!timer.cancelledTimeouts.compareAndSet(head, this));
+            return true;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            timer.pendingCount.decrement();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+        }
+    }
+
+    private static class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        private void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        // Timeouts are placed by their deadline tick, so any with no rounds left are due
+        private void expire() {
+            WheelTimeout timeout = head;
+            while (timeout != null) {
+                WheelTimeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.state == WheelTimeout.ST_CANCELLED) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(WheelTimeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            if (timeout == head) {
+                head = timeout.next;
+            }
+            if (timeout == tail) {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            timeout.timer.retainedCount.decrement();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.graydavid.aggra.core.Behaviors.CustomCancelAction;
+import io.github.graydavid.aggra.core.Behaviors.CustomCancelActionBehaviorResponse;
+
+/**
+ * A bounded pool of daemon threads for running the blocking work of nodes built with custom cancel actions (see
+ * InterruptCustomAction). {@link #submit(Callable)} returns a {@link Task}, whose response is the CompletableFuture
+ * to respond with, and whose {@link Task#cancel(boolean)} is the CustomCancelAction; {@link Task#toBehaviorResponse()}
+ * packages both up.
+ *
+ * Cancelling a task that hasn't started yet means it never runs. Cancelling a running task with mayInterrupt
+ * interrupts its thread, but only while that thread is still running that task: a task's thread clears any leftover
+ * interrupt before moving on, under the same lock that interrupts take. Either way, the response fails with a
+ * CancellationException straight away, without waiting for the task to react.
+ *
+ * Tasks that ignore interrupts keep their thread busy regardless, so the executor tracks how many tasks have been
+ * interrupted, and how many were still running stuckThreshold after their interrupt (whether they've since finished,
+ * or are still stuck now).
+ */
+public class InterruptibleExecutor {
+    private final ThreadPoolExecutor pool;
+    private final long stuckThresholdNanos;
+    private final Set<Task<?>> runningTasks = ConcurrentHashMap.newKeySet();
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder cancelledBeforeStartCount = new LongAdder();
+    private final LongAdder interruptedCount = new LongAdder();
+    private final LongAdder finishedStuckCount = new LongAdder();
+
+    private InterruptibleExecutor(Builder builder) {
+        AtomicInteger threadCount = new AtomicInteger();
+        String threadNamePrefix = builder.threadNamePrefix;
+        this.pool = new ThreadPoolExecutor(builder.threads, builder.threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(builder.maxQueued), runnable -> {
+                    Thread thread = new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.stuckThresholdNanos = builder.stuckThreshold.toNanos();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int maxQueued = 1000;
+        private Duration stuckThreshold = Duration.ofSeconds(1);
+        private String threadNamePrefix = "interruptible-executor-";
+
+        private Builder() {}
+
+        /** The number of threads in the pool. Defaults to the number of available processors. */
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be positive: " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /** The maximum number of tasks waiting for a thread before more are rejected. Defaults to 1000. */
+        public Builder maxQueued(int maxQueued) {
+            if (maxQueued < 1) {
+                throw new IllegalArgumentException("maxQueued must be positive: " + maxQueued);
+            }
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        /** How long a task can keep running after an interrupt before it counts as stuck. Defaults to 1s. */
+        public Builder stuckThreshold(Duration stuckThreshold) {
+            this.stuckThreshold = Objects.requireNonNull(stuckThreshold);
+            return this;
+        }
+
+        /** Defaults to "interruptible-executor-". */
+        public Builder threadNamePrefix(String threadNamePrefix) {
+            this.threadNamePrefix = Objects.requireNonNull(threadNamePrefix);
+            return this;
+        }
+
+        public InterruptibleExecutor build() {
+            return new InterruptibleExecutor(this);
+        }
+    }
+
+    /**
+     * Submits callable to run on the pool. If the queue is full (or the executor is shut down), the returned task's
+     * response fails with a RejectedExecutionException.
+     */
+    public <T> Task<T> submit(Callable<T> callable) {
+        Task<T> task = new Task<>(this, Objects.requireNonNull(callable));
+        submittedCount.increment();
+        try {
+            pool.execute(task::run);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            task.response.completeExceptionally(e);
+        }
+        return task;
+    }
+
+    /** A submitted callable, and its cancellation handle. */
+    public static class Task<T> implements CustomCancelAction {
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+
+        private final InterruptibleExecutor executor;
+        private final Callable<T> callable;
+        private final CompletableFuture<T> response = new CompletableFuture<>();
+        // Guarded by this
+        private int state = NEW;
+        private Thread runner;
+        private long interruptNanos;
+        private boolean interrupted;
+
+        private Task(InterruptibleExecutor executor, Callable<T> callable) {
+            this.executor = executor;
+            this.callable = callable;
+        }
+
+        private void run() {
+            synchronized (this) {
+                if (state != NEW) {
+                    return;
+                }
+                state = RUNNING;
+                runner = Thread.currentThread();
+            }
+            executor.runningTasks.add(this);
+            try {
+                response.complete(callable.call());
+            } catch (Throwable t) {
+                response.completeExceptionally(t);
+            } finally {
+                executor.runningTasks.remove(this);
+                finish();
+            }
+        }
+
+        private void finish() {
+            synchronized (this) {
+                state = DONE;
+                runner = null;
+                // An interrupt meant for this task must not leak into the next task on this thread
+                Thread.interrupted();
+                if (interrupted && System.nanoTime() - interruptNanos >= executor.stuckThresholdNanos) {
+                    executor.finishedStuckCount.increment();
+                }
+            }
+        }
+
+        /** Cancels this task, interrupting it if it's running and mayInterruptIfRunning. */
+        @Override
+        public void run(boolean mayInterruptIfRunning) {
+            cancel(mayInterruptIfRunning);
+        }
+
+        /** Same as {@link #run(boolean)}, under a clearer name for callers outside of Aggra. */
+        public void cancel(boolean mayInterruptIfRunning) {
+            // Complete first, so that the task's reaction to the interrupt can't win the race to complete the response
+            response.completeExceptionally(new CancellationException("Task cancelled"));
+            synchronized (this) {
+                if (state == NEW) {
+                    state = DONE;
+                    executor.cancelledBeforeStartCount.increment();
+                } else if (state == RUNNING && mayInterruptIfRunning && !interrupted) {
+                    interrupted = true;
+                    interruptNanos = System.nanoTime();
+                    executor.interruptedCount.increment();
+                    runner.interrupt();
+                }
+            }
+        }
+
+        public CompletableFuture<T> getResponse() {
+            return response;
+        }
+
+        /** Packages up this task for a BehaviorWithCustomCancelAction to return. */
+        public CustomCancelActionBehaviorResponse<T> toBehaviorResponse() {
+            return new CustomCancelActionBehaviorResponse<>(response, this);
+        }
+
+        private synchronized boolean isStuck(long nowNanos) {
+            return state == RUNNING && interrupted && nowNanos - interruptNanos >= executor.stuckThresholdNanos;
+        }
+    }
+
+    /** The number of tasks submitted so far, including rejected ones. */
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    /** The number of tasks rejected so far, because the queue was full. */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /** The number of tasks cancelled before they started (which then never ran). */
+    public long getCancelledBeforeStartCount() {
+        return cancelledBeforeStartCount.sum();
+    }
+
+    /** The number of tasks interrupted so far. */
+    public long getInterruptedCount() {
+        return interruptedCount.sum();
+    }
+
+    /** The number of tasks still running stuckThreshold after their interrupt, whether finished since or not. */
+    public long getStuckCount() {
+        return finishedStuckCount.sum() + getCurrentlyStuckCount();
+    }
+
+    /** The number of tasks running now that were interrupted at least stuckThreshold ago. */
+    public int getCurrentlyStuckCount() {
+        long now = System.nanoTime();
+        return (int) runningTasks.stream().filter(task -> task.isStuck(now)).count();
+    }
+
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    public int getQueueLength() {
+        return pool.getQueue().size();
+    }
+
+    /** Stops accepting tasks, and interrupts every running task, like ExecutorService#shutdownNow. */
+    public void shutdownNow() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "InterruptibleExecutor[active=%d, queued=%d, submitted=%d, rejected=%d, cancelledBeforeStart=%d, "
+                        + "interrupted=%d, stuck=%d]",
+                getActiveCount(), getQueueLength(), getSubmittedCount(), getRejectedCount(),
+                getCancelledBeforeStartCount(), getInterruptedCount(), getStuckCount());
+    }
+}
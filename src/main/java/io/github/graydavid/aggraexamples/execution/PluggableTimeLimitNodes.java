@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.github.graydavid.aggra.core.Behaviors.Behavior;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.DependencyLifetime;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates time-limited nodes just like TimeLimitNodes does, except that timeouts are scheduled through a pluggable
+ * {@link TimeoutScheduler}, e.g. a shared {@link HashedWheelTimer}. If the wrapped node responds in time, the
+ * time-limited node responds the same way, and the timeout is cancelled. Otherwise, the time-limited node responds with
+ * a TimeoutException, and ignores the wrapped node's reply, which triggers its cancel signal.
+ *
+ * As with TimeLimitNodes, the executor is where the timeout response is completed, so that whatever runs off of it
+ * doesn't run on the timer's thread.
+ */
+public class PluggableTimeLimitNodes {
+    private PluggableTimeLimitNodes() {}
+
+    public static final Type PLUGGABLE_TIME_LIMIT_TYPE = Type.generic("PluggableTimeLimit");
+
+    public static <M extends Memory<?>> PluggableTimeLimitNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new PluggableTimeLimitNodeStarter<>(role, memoryClass);
+    }
+
+    public static class PluggableTimeLimitNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private TimeoutScheduler timeoutScheduler;
+        private Executor executor;
+        private long timeout = -1;
+        private TimeUnit unit;
+
+        private PluggableTimeLimitNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Required. */
+        public PluggableTimeLimitNodeStarter<M> timeoutScheduler(TimeoutScheduler timeoutScheduler) {
+            this.timeoutScheduler = Objects.requireNonNull(timeoutScheduler);
+            return this;
+        }
+
+        /** Required, unless callerThreadExecutor is used. */
+        public PluggableTimeLimitNodeStarter<M> executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        /** Completes timeout responses directly on the timer's thread. Only suitable for cheap consumers. */
+        public PluggableTimeLimitNodeStarter<M> callerThreadExecutor() {
+            return executor(Runnable::run);
+        }
+
+        /** Required. */
+        public PluggableTimeLimitNodeStarter<M> timeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+            }
+            this.timeout = timeout;
+            this.unit = Objects.requireNonNull(unit);
+            return this;
+        }
+
+        public <T> Node<M, T> timeLimitedCall(Node<M, T> node) {
+            Objects.requireNonNull(timeoutScheduler, "timeoutScheduler is required");
+            Objects.requireNonNull(executor, "executor is required");
+            if (unit == null) {
+                throw new IllegalStateException("timeout is required");
+            }
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, T> consumeNode = builder.sameMemoryUnprimedDependency(node);
+            return builder.type(PLUGGABLE_TIME_LIMIT_TYPE)
+                    .role(role)
+                    .dependencyLifetime(DependencyLifetime.GRAPH)
+                    .build(new TimeLimitBehavior<>(timeoutScheduler, executor, timeout, unit, consumeNode));
+        }
+    }
+
+    private static class TimeLimitBehavior<M extends Memory<?>, T> implements Behavior<M, T> {
+        private final TimeoutScheduler timeoutScheduler;
+        private final Executor executor;
+        private final long timeout;
+        private final TimeUnit unit;
+        private final SameMemoryDependency<M, T> consumeNode;
+
+        private TimeLimitBehavior(TimeoutScheduler timeoutScheduler, Executor executor, long timeout, TimeUnit unit,
+                SameMemoryDependency<M, T> consumeNode) {
+            this.timeoutScheduler = timeoutScheduler;
+            this.executor = executor;
+            this.timeout = timeout;
+            this.unit = unit;
+            this.consumeNode = consumeNode;
+        }
+
+        @Override
+        public CompletableFuture<T> run(DependencyCallingDevice<M> device) {
+            Reply<T> reply = device.call(consumeNode);
+            return TimeLimitRace.race(device, reply, timeoutScheduler, executor, timeout, unit,
+                    () -> new TimeoutException("Timed out after " + timeout + " " + unit));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Reply;
+
+/**
+ * Races a dependency's reply against a timeout, which is what every time-limited node (e.g.
+ * {@link PluggableTimeLimitNodes} and {@link DeadlineNodes}) does once it has called the node it wraps. If the reply
+ * wins, the response mirrors it, and the timeout is cancelled. If the timeout wins, the reply is ignored (triggering
+ * its cancel signal), and the response fails with a TimeoutException, completed on the executor rather than the
+ * timer's thread.
+ *
+ * Whoever decides first completes the response, so the loser never touches the device afterwards, which Aggra forbids
+ * once the response is complete.
+ */
+public class TimeLimitRace {
+    private TimeLimitRace() {}
+
+    /** Hears which side won a race, on the winner's thread, before the response is completed. */
+    public interface Listener {
+        Listener NONE = new Listener() {};
+
+        default void replied() {}
+
+        default void timedOut() {}
+    }
+
+    public static <M extends Memory<?>, T> CompletableFuture<T> race(DependencyCallingDevice<M> device,
+            Reply<T> reply, TimeoutScheduler timeoutScheduler, Executor executor, long timeout, TimeUnit unit,
+            Supplier<? extends TimeoutException> timeoutException) {
+        return race(device, reply, timeoutScheduler, executor, timeout, unit, timeoutException, Listener.NONE);
+    }
+
+    public static <M extends Memory<?>, T> CompletableFuture<T> race(DependencyCallingDevice<M> device,
+            Reply<T> reply, TimeoutScheduler timeoutScheduler, Executor executor, long timeout, TimeUnit unit,
+            Supplier<? extends TimeoutException> timeoutException, Listener listener) {
+        Objects.requireNonNull(timeoutException);
+        Objects.requireNonNull(listener);
+        CompletableFuture<T> response = new CompletableFuture<>();
+        AtomicBoolean decided = new AtomicBoolean();
+        TimeoutScheduler.Timeout scheduled = timeoutScheduler.schedule(() -> {
+            if (decided.compareAndSet(false, true)) {
+                listener.timedOut();
+                device.ignore(reply);
+                executor.execute(() -> response.completeExceptionally(timeoutException.get()));
+            }
+        }, timeout, unit);
+        reply.whenComplete((value, throwable) -> {
+            if (decided.compareAndSet(false, true)) {
+                scheduled.cancel();
+                listener.replied();
+                if (throwable == null) {
+                    response.complete(value);
+                } else {
+                    response.completeExceptionally(throwable);
+                }
+            }
+        });
+        return response;
+    }
+}
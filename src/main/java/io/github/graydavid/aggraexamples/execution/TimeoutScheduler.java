@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Schedules timeouts: tasks that usually get cancelled before they run. This is the pluggable timer backend for
+ * {@link PluggableTimeLimitNodes}. Tasks should be quick, since implementations may run them on a shared timer thread.
+ */
+@FunctionalInterface
+public interface TimeoutScheduler {
+    /** A scheduled timeout. */
+    @FunctionalInterface
+    interface Timeout {
+        /** Prevents the task from running, if it hasn't already. Answers whether this call cancelled it. */
+        boolean cancel();
+    }
+
+    Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Completes future with a TimeoutException if it's not otherwise complete before the timeout, like
+     * CompletableFuture#orTimeout, except timed by this scheduler. Returns future.
+     */
+    default <T> CompletableFuture<T> orTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        if (!future.isDone()) {
+            Timeout scheduled = schedule(() -> future.completeExceptionally(new TimeoutException()), timeout, unit);
+            future.whenComplete((result, throwable) -> scheduled.cancel());
+        }
+        return future;
+    }
+
+    /** Adapts a general-purpose scheduled executor, which is how timeouts are usually scheduled. */
+    static TimeoutScheduler from(ScheduledExecutorService scheduler) {
+        return (task, delay, unit) -> {
+            ScheduledFuture<?> future = scheduler.schedule(task, delay, unit);
+            return () -> future.cancel(false);
+        };
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+
+/**
+ * Creates asynchronous starters backed by virtual threads: every asynchronous FunctionNode call runs in its own virtual
+ * thread, so blocking service calls park cheaply instead of pinning a platform thread, and there's no pool to tune.
+ *
+ * Virtual threads arrived in Java 21, while this project compiles against an earlier version, so the executor is looked
+ * up reflectively. On earlier runtimes, {@link #isSupported()} returns false and the factory methods throw. That
+ * includes Java 19 and 20, where the method exists as a preview API, but only works with --enable-preview: support is
+ * decided by actually creating an executor, rather than by finding the method.
+ */
+public class VirtualThreads {
+    private VirtualThreads() {}
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findNewVirtualThreadPerTaskExecutor();
+
+    private static Method findNewVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            // Probe the method, since preview runtimes have it, but throw unless preview features are enabled
+            ((ExecutorService) method.invoke(null)).shutdown();
+            return method;
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /** Answers whether the current runtime supports virtual threads. */
+    public static boolean isSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Returns the equivalent of Java 21's Executors#newVirtualThreadPerTaskExecutor.
+     *
+     * @throws UnsupportedOperationException if the runtime doesn't support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads require Java 21 or later, but this is " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Returns an asynchronous starter whose nodes each run in a new virtual thread.
+     *
+     * @throws UnsupportedOperationException if the runtime doesn't support virtual threads.
+     */
+    public static CreationTimeExecutorAsynchronousStarter asynchronousStarter() {
+        return CreationTimeExecutorAsynchronousStarter.from(newVirtualThreadPerTaskExecutor());
+    }
+}
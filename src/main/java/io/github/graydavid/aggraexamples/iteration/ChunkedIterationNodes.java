@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.iteration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+
+import io.github.graydavid.aggra.core.Behaviors.Behavior;
+import io.github.graydavid.aggra.core.Dependencies.NewMemoryDependency;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryFactory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates nodes that iterate over a list like IterationNodes, except in chunks: instead of one Memory and one node call
+ * per element, the list is split into contiguous chunks, and each chunk gets one Memory and one call to a node that
+ * processes the whole chunk. Chunks are processed in parallel on a ForkJoinPool, and the output list keeps the input's
+ * order. This trades away per-element memoization and isolation to avoid per-element Memory, Storage, and Reply
+ * overhead, which dominates when the per-element work is small and the list is large.
+ *
+ * The chunk node must return exactly one output per element of its chunk, in the same order.
+ */
+public class ChunkedIterationNodes {
+    private ChunkedIterationNodes() {}
+
+    public static final Type CHUNKED_ITERATION_TYPE = Type.generic("ChunkedIteration");
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    public static <M extends Memory<?>> ChunkedIterationNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new ChunkedIterationNodeStarter<>(role, memoryClass);
+    }
+
+    public static class ChunkedIterationNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private int chunkSize;
+        private int minimumChunkSize = 1;
+
+        private ChunkedIterationNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** The pool to process chunks on, whose parallelism bounds how many run at once. Defaults to common pool. */
+        public ChunkedIterationNodeStarter<M> pool(ForkJoinPool pool) {
+            this.pool = Objects.requireNonNull(pool);
+            return this;
+        }
+
+        /**
+         * Fixes the number of elements per chunk. By default, the chunk size adapts to the list, aiming for a few
+         * chunks per pool thread (for load balancing), but no fewer elements per chunk than minimumChunkSize.
+         */
+        public ChunkedIterationNodeStarter<M> chunkSize(int chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /** The smallest adaptive chunk size, so that small lists don't get split up for nothing. Defaults to 1. */
+        public ChunkedIterationNodeStarter<M> minimumChunkSize(int minimumChunkSize) {
+            if (minimumChunkSize < 1) {
+                throw new IllegalArgumentException("minimumChunkSize must be positive: " + minimumChunkSize);
+            }
+            this.minimumChunkSize = minimumChunkSize;
+            return this;
+        }
+
+        public <I, CM extends Memory<List<I>>, T> ChunkedIteration<M, T> iterate(
+                Node<M, ? extends List<? extends I>> getList, MemoryFactory<M, List<I>, CM> chunkMemoryFactory,
+                Node<CM, ? extends List<? extends T>> processChunk) {
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, ? extends List<? extends I>> consumeList = builder
+                    .sameMemoryUnprimedDependency(getList);
+            NewMemoryDependency<CM, ? extends List<? extends T>> consumeChunk = builder
+                    .newMemoryDependency(processChunk);
+            ChunkedBehavior<M, I, CM, T> behavior = new ChunkedBehavior<>(pool, chunkSize, minimumChunkSize,
+                    consumeList, chunkMemoryFactory, consumeChunk);
+            return new ChunkedIteration<>(builder.type(CHUNKED_ITERATION_TYPE).role(role), behavior);
+        }
+    }
+
+    public static class ChunkedIteration<M extends Memory<?>, T> {
+        private final Node.CommunalBuilder<M> builder;
+        private final Behavior<M, List<T>> behavior;
+
+        private ChunkedIteration(Node.CommunalBuilder<M> builder, Behavior<M, List<T>> behavior) {
+            this.builder = builder;
+            this.behavior = behavior;
+        }
+
+        public Node<M, List<T>> collectToOutputList() {
+            return builder.build(behavior);
+        }
+    }
+
+    private static class ChunkedBehavior<M extends Memory<?>, I, CM extends Memory<List<I>>, T>
+            implements Behavior<M, List<T>> {
+        private final ForkJoinPool pool;
+        private final int chunkSize;
+        private final int minimumChunkSize;
+        private final SameMemoryDependency<M, ? extends List<? extends I>> consumeList;
+        private final MemoryFactory<M, List<I>, CM> chunkMemoryFactory;
+        private final NewMemoryDependency<CM, ? extends List<? extends T>> consumeChunk;
+
+        private ChunkedBehavior(ForkJoinPool pool, int chunkSize, int minimumChunkSize,
+                SameMemoryDependency<M, ? extends List<? extends I>> consumeList,
+                MemoryFactory<M, List<I>, CM> chunkMemoryFactory,
+                NewMemoryDependency<CM, ? extends List<? extends T>> consumeChunk) {
+            this.pool = pool;
+            this.chunkSize = chunkSize;
+            this.minimumChunkSize = minimumChunkSize;
+            this.consumeList = consumeList;
+            this.chunkMemoryFactory = chunkMemoryFactory;
+            this.consumeChunk = consumeChunk;
+        }
+
+        @Override
+        public CompletionStage<List<T>> run(DependencyCallingDevice<M> device) {
+            return device.call(consumeList).thenCompose(list -> processInChunks(device, list));
+        }
+
+        private CompletableFuture<List<T>> processInChunks(DependencyCallingDevice<M> device,
+                List<? extends I> list) {
+            int size = list.size();
+            int actualChunkSize = (chunkSize > 0) ? chunkSize : adaptiveChunkSize(size);
+            List<CompletableFuture<List<? extends T>>> chunkOutputs = new ArrayList<>();
+            for (int start = 0; start < size; start += actualChunkSize) {
+                int end = Math.min(size, start + actualChunkSize);
+                List<I> chunk = Collections.unmodifiableList(list.subList(start, end));
+                chunkOutputs.add(CompletableFuture
+                        .supplyAsync(() -> device.createMemoryAndCall(chunkMemoryFactory,
+                                CompletableFuture.completedFuture(chunk), consumeChunk), pool)
+                        .thenCompose(reply -> reply)
+                        .thenApply(output -> checkSize(chunk, output)));
+            }
+            return CompletableFuture.allOf(chunkOutputs.toArray(CompletableFuture[]::new)).thenApply(ignore -> {
+                List<T> output = new ArrayList<>(size);
+                chunkOutputs.forEach(chunkOutput -> output.addAll(chunkOutput.join()));
+                return output;
+            });
+        }
+
+        private int adaptiveChunkSize(int size) {
+            int targetChunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+            return Math.max(minimumChunkSize, (size + targetChunks - 1) / targetChunks);
+        }
+
+        private static <T> List<? extends T> checkSize(List<?> chunk, List<? extends T> output) {
+            if (output.size() != chunk.size()) {
+                throw new IllegalStateException(
+                        "Chunk of size " + chunk.size() + " produced output of size " + output.size());
+            }
+            return output;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.iteration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import io.github.graydavid.aggra.core.Behaviors.Behavior;
+import io.github.graydavid.aggra.core.Dependencies.NewMemoryDependency;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.DependencyLifetime;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryFactory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates nodes that iterate over a list like IterationNodes, except that they search for matching results, and respond
+ * as soon as the answer is known rather than after every element has run. At that point, no more elements are started,
+ * and every element reply still running is ignored, which triggers its cancel signal (as in the ReplyCompositeSignal
+ * example), so element nodes built with composite cancel signals or custom cancel actions stop early.
+ *
+ * findFirst and firstMatches answer in list order, like Stream#findFirst: an element's match only counts once every
+ * earlier element has completed without producing enough matches. anyMatch answers as soon as any element matches. A
+ * failing element (or predicate) fails the search if the search reaches it before deciding; otherwise, it's ignored.
+ *
+ * These nodes use {@link DependencyLifetime#GRAPH}, so that they can respond without waiting for ignored elements to
+ * wind down.
+ */
+public class EarlyTerminatingIterationNodes {
+    private EarlyTerminatingIterationNodes() {}
+
+    public static final Type EARLY_TERMINATING_ITERATION_TYPE = Type.generic("EarlyTerminatingIteration");
+
+    public static <M extends Memory<?>> EarlyTerminatingIterationNodeStarter<M> startNode(Role role,
+            Class<M> memoryClass) {
+        return new EarlyTerminatingIterationNodeStarter<>(role, memoryClass);
+    }
+
+    public static class EarlyTerminatingIterationNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private int maxInFlight = Integer.MAX_VALUE;
+
+        private EarlyTerminatingIterationNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /**
+         * The most element calls running at once. Elements are started in list order, so with a limit, elements after
+         * the answer may never start at all. Defaults to no limit, which starts every element immediately.
+         */
+        public EarlyTerminatingIterationNodeStarter<M> maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public <I, SM extends Memory<I>, T> EarlyTerminatingIteration<M, I, SM, T> iterate(
+                Node<M, ? extends List<? extends I>> getList, MemoryFactory<M, I, SM> memoryFactory,
+                Node<SM, T> node) {
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, ? extends List<? extends I>> consumeList = builder
+                    .sameMemoryUnprimedDependency(getList);
+            NewMemoryDependency<SM, T> consumeElement = builder.newMemoryDependency(node);
+            builder.type(EARLY_TERMINATING_ITERATION_TYPE).role(role).dependencyLifetime(DependencyLifetime.GRAPH);
+            return new EarlyTerminatingIteration<>(builder, maxInFlight, consumeList, memoryFactory, consumeElement);
+        }
+    }
+
+    public static class EarlyTerminatingIteration<M extends Memory<?>, I, SM extends Memory<I>, T> {
+        private final Node.CommunalBuilder<M> builder;
+        private final int maxInFlight;
+        private final SameMemoryDependency<M, ? extends List<? extends I>> consumeList;
+        private final MemoryFactory<M, I, SM> memoryFactory;
+        private final NewMemoryDependency<SM, T> consumeElement;
+
+        private EarlyTerminatingIteration(Node.CommunalBuilder<M> builder, int maxInFlight,
+                SameMemoryDependency<M, ? extends List<? extends I>> consumeList, MemoryFactory<M, I, SM> memoryFactory,
+                NewMemoryDependency<SM, T> consumeElement) {
+            this.builder = builder;
+            this.maxInFlight = maxInFlight;
+            this.consumeList = consumeList;
+            this.memoryFactory = memoryFactory;
+            this.consumeElement = consumeElement;
+        }
+
+        /** Responds with the first matching result in list order, or empty if none (or if that result is null). */
+        public Node<M, Optional<T>> findFirst(Predicate<? super T> predicate) {
+            return build(predicate, () -> new OrderedCollector<T, Optional<T>>(1,
+                    matches -> matches.isEmpty() ? Optional.empty() : Optional.ofNullable(matches.get(0))));
+        }
+
+        /** Responds with the first k matching results in list order, or all of them if there are fewer. */
+        public Node<M, List<T>> firstMatches(int k, Predicate<? super T> predicate) {
+            if (k < 1) {
+                throw new IllegalArgumentException("k must be positive: " + k);
+            }
+            return build(predicate, () -> new OrderedCollector<T, List<T>>(k, Collections::unmodifiableList));
+        }
+
+        /** Responds true as soon as any result matches, or false once every result doesn't. */
+        public Node<M, Boolean> anyMatch(Predicate<? super T> predicate) {
+            return build(predicate, AnyMatchCollector::new);
+        }
+
+        private <R> Node<M, R> build(Predicate<? super T> predicate, Supplier<Collector<T, R>> collectorFactory) {
+            Objects.requireNonNull(predicate);
+            Behavior<M, R> behavior = device -> device.call(consumeList)
+                    .thenCompose(list -> new Search<>(device, list, maxInFlight, memoryFactory, consumeElement,
+                            predicate, collectorFactory.get()).start());
+            return builder.build(behavior);
+        }
+    }
+
+    // The result of one element: a match (possibly null), a non-match, or a failure
+    private static class ElementResult<T> {
+        private static final ElementResult<Object> NO_MATCH = new ElementResult<>(null, null);
+
+        private final T match;
+        private final Throwable failure;
+
+        private ElementResult(T match, Throwable failure) {
+            this.match = match;
+            this.failure = failure;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> ElementResult<T> noMatch() {
+            return (ElementResult<T>) NO_MATCH;
+        }
+
+        private boolean isMatch() {
+            return this != NO_MATCH && failure == null;
+        }
+    }
+
+    // The decided response of a search: either a value or a failure
+    private static class Outcome<R> {
+        private final R value;
+        private final Throwable failure;
+
+        private Outcome(R value, Throwable failure) {
+            this.value = value;
+            this.failure = failure;
+        }
+
+        private static <R> Outcome<R> of(R value) {
+            return new Outcome<>(value, null);
+        }
+
+        private static <R> Outcome<R> failed(Throwable failure) {
+            return new Outcome<>(null, failure);
+        }
+    }
+
+    // Decides when a search is done. Only accessed while holding the Search's lock.
+    private interface Collector<T, R> {
+        /** Answers the outcome once it's decided, or null if the search needs more results. */
+        Outcome<R> accept(int index, ElementResult<T> result, int size);
+
+        Outcome<R> whenEmpty();
+    }
+
+    // Buffers results that complete out of order until every earlier result has, so it only remembers the gaps
+    private static class OrderedCollector<T, R> implements Collector<T, R> {
+        private final int k;
+        private final Function<List<T>, R> finisher;
+        private final Map<Integer, ElementResult<T>> outOfOrder = new HashMap<>();
+        private final List<T> matches = new ArrayList<>();
+        private int nextInOrder;
+
+        private OrderedCollector(int k, Function<List<T>, R> finisher) {
+            this.k = k;
+            this.finisher = finisher;
+        }
+
+        @Override
+        public Outcome<R> accept(int index, ElementResult<T> result, int size) {
+            outOfOrder.put(index, result);
+            ElementResult<T> next;
+            while ((next = outOfOrder.remove(nextInOrder)) != null) {
+                ++nextInOrder;
+                if (next.failure != null) {
+                    return Outcome.failed(next.failure);
+                }
+                if (next.isMatch()) {
+                    matches.add(next.match);
+                    if (matches.size() == k) {
+                        return Outcome.of(finisher.apply(matches));
+                    }
+                }
+            }
+            return (nextInOrder == size) ? Outcome.of(finisher.apply(matches)) : null;
+        }
+
+        @Override
+        public Outcome<R> whenEmpty() {
+            return Outcome.of(finisher.apply(matches));
+        }
+    }
+
+    private static class AnyMatchCollector<T> implements Collector<T, Boolean> {
+        private int completed;
+        private Throwable firstFailure;
+
+        @Override
+        public Outcome<Boolean> accept(int index, ElementResult<T> result, int size) {
+            if (result.isMatch()) {
+                return Outcome.of(true);
+            }
+            if (result.failure != null && firstFailure == null) {
+                firstFailure = result.failure;
+            }
+            if (++completed < size) {
+                return null;
+            }
+            return (firstFailure == null) ? Outcome.of(false) : Outcome.failed(firstFailure);
+        }
+
+        @Override
+        public Outcome<Boolean> whenEmpty() {
+            return Outcome.of(false);
+        }
+    }
+
+    // The state for a single search. Elements are started in drain, which only one thread runs at a time, so that
+    // elements that complete synchronously don't recurse into starting the next one. Starting and ignoring elements use
+    // the device outside of the lock, so deviceUsers counts the threads doing that, and the response (after which the
+    // device can't be used) is only completed by whichever of them finishes last once the search is decided.
+    private static class Search<M extends Memory<?>, I, SM extends Memory<I>, T, R> {
+        private final DependencyCallingDevice<M> device;
+        private final List<? extends I> list;
+        private final int maxInFlight;
+        private final MemoryFactory<M, I, SM> memoryFactory;
+        private final NewMemoryDependency<SM, T> consumeElement;
+        private final Predicate<? super T> predicate;
+        private final Collector<T, R> collector;
+        private final CompletableFuture<R> response = new CompletableFuture<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        // Guarded by this
+        private final Map<Integer, Reply<T>> outstanding = new HashMap<>();
+        private int nextIndex;
+        private boolean decided;
+        private int deviceUsers;
+        private Outcome<R> outcome;
+
+        private Search(DependencyCallingDevice<M> device, List<? extends I> list, int maxInFlight,
+                MemoryFactory<M, I, SM> memoryFactory, NewMemoryDependency<SM, T> consumeElement,
+                Predicate<? super T> predicate, Collector<T, R> collector) {
+            this.device = device;
+            this.list = list;
+            this.maxInFlight = maxInFlight;
+            this.memoryFactory = memoryFactory;
+            this.consumeElement = consumeElement;
+            this.predicate = predicate;
+            this.collector = collector;
+        }
+
+        private CompletionStage<R> start() {
+            if (list.isEmpty()) {
+                complete(collector.whenEmpty());
+            } else {
+                drain();
+            }
+            return response;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                int index;
+                while ((index = claimNextIndex()) >= 0) {
+                    startElement(index);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private synchronized int claimNextIndex() {
+            if (decided || nextIndex == list.size() || outstanding.size() >= maxInFlight) {
+                return -1;
+            }
+            ++deviceUsers;
+            return nextIndex++;
+        }
+
+        private void startElement(int index) {
+            Reply<T> reply = device.createMemoryAndCall(memoryFactory,
+                    CompletableFuture.completedFuture(list.get(index)), consumeElement);
+            boolean alreadyDecided;
+            synchronized (this) {
+                alreadyDecided = decided;
+                if (!alreadyDecided) {
+                    outstanding.put(index, reply);
+                }
+            }
+            if (alreadyDecided) {
+                device.ignore(reply);
+            }
+            releaseDevice();
+            if (!alreadyDecided) {
+                reply.whenComplete((value, throwable) -> elementComplete(index, value, throwable));
+            }
+        }
+
+        private void elementComplete(int index, T value, Throwable throwable) {
+            ElementResult<T> result = evaluate(value, throwable);
+            List<Reply<T>> toIgnore;
+            synchronized (this) {
+                outstanding.remove(index);
+                if (decided) {
+                    return;
+                }
+                outcome = collector.accept(index, result, list.size());
+                if (outcome == null) {
+                    toIgnore = null;
+                } else {
+                    decided = true;
+                    ++deviceUsers;
+                    toIgnore = new ArrayList<>(outstanding.values());
+                    outstanding.clear();
+                }
+            }
+            if (toIgnore == null) {
+                drain();
+            } else {
+                toIgnore.forEach(device::ignore);
+                releaseDevice();
+            }
+        }
+
+        private void releaseDevice() {
+            Outcome<R> decidedOutcome = null;
+            synchronized (this) {
+                if (--deviceUsers == 0 && decided) {
+                    decidedOutcome = outcome;
+                    outcome = null;
+                }
+            }
+            if (decidedOutcome != null) {
+                complete(decidedOutcome);
+            }
+        }
+
+        // Runs the predicate outside of the lock, since it's client code
+        private ElementResult<T> evaluate(T value, Throwable throwable) {
+            if (throwable != null) {
+                return new ElementResult<>(null, throwable);
+            }
+            try {
+                return predicate.test(value) ? new ElementResult<>(value, null) : ElementResult.noMatch();
+            } catch (RuntimeException e) {
+                return new ElementResult<>(null, e);
+            }
+        }
+
+        private void complete(Outcome<R> outcome) {
+            if (outcome.failure == null) {
+                response.complete(outcome.value);
+            } else {
+                response.completeExceptionally(outcome.failure);
+            }
+        }
+    }
+}
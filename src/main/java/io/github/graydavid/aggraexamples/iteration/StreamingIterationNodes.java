@@ -0,0 +1,334 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.iteration;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import io.github.graydavid.aggra.core.Behaviors.Behavior;
+import io.github.graydavid.aggra.core.Dependencies.NewMemoryDependency;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryFactory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates nodes that iterate over a list like IterationNodes, except that the results are streamed rather than
+ * collected: each element's result is handed downstream as soon as it's available, in completion order, and then
+ * forgotten. Element calls are only started when there's demand for their results, and no more than maxInFlight are
+ * ever started but not yet handed downstream. So, however long the list, only maxInFlight results are held at once, and
+ * downstream work can start as soon as the first result arrives.
+ *
+ * Results are exposed either as a {@link Flow.Publisher}, handed to a consumer that the node waits on, or folded by an
+ * incremental reducer. Either way, the publisher lives only as long as the node is running, since the node's
+ * DependencyCallingDevice can't be used afterwards: the node doesn't respond until the publisher has terminated and
+ * finished with the device, even if the consumer's stage completes while another thread is still draining. If an
+ * element call fails or the subscriber cancels, no more elements are started, and the outstanding element replies are
+ * ignored, which triggers their cancel signals.
+ */
+public class StreamingIterationNodes {
+    private StreamingIterationNodes() {}
+
+    public static final Type STREAMING_ITERATION_TYPE = Type.generic("StreamingIteration");
+
+    public static <M extends Memory<?>> StreamingIterationNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new StreamingIterationNodeStarter<>(role, memoryClass);
+    }
+
+    public static class StreamingIterationNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private int maxInFlight = 16;
+
+        private StreamingIterationNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** The most element calls started but not yet handed downstream. Defaults to 16. */
+        public StreamingIterationNodeStarter<M> maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public <I, SM extends Memory<I>, T> StreamingIteration<M, I, SM, T> iterate(
+                Node<M, ? extends List<? extends I>> getList, MemoryFactory<M, I, SM> memoryFactory,
+                Node<SM, T> node) {
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, ? extends List<? extends I>> consumeList = builder
+                    .sameMemoryUnprimedDependency(getList);
+            NewMemoryDependency<SM, T> consumeElement = builder.newMemoryDependency(node);
+            return new StreamingIteration<>(builder.type(STREAMING_ITERATION_TYPE).role(role), maxInFlight,
+                    consumeList, memoryFactory, consumeElement);
+        }
+    }
+
+    public static class StreamingIteration<M extends Memory<?>, I, SM extends Memory<I>, T> {
+        private final Node.CommunalBuilder<M> builder;
+        private final int maxInFlight;
+        private final SameMemoryDependency<M, ? extends List<? extends I>> consumeList;
+        private final MemoryFactory<M, I, SM> memoryFactory;
+        private final NewMemoryDependency<SM, T> consumeElement;
+
+        private StreamingIteration(Node.CommunalBuilder<M> builder, int maxInFlight,
+                SameMemoryDependency<M, ? extends List<? extends I>> consumeList, MemoryFactory<M, I, SM> memoryFactory,
+                NewMemoryDependency<SM, T> consumeElement) {
+            this.builder = builder;
+            this.maxInFlight = maxInFlight;
+            this.consumeList = consumeList;
+            this.memoryFactory = memoryFactory;
+            this.consumeElement = consumeElement;
+        }
+
+        /**
+         * Hands a publisher of the element results to consumer, and responds with whatever consumer's stage does. The
+         * publisher accepts a single subscriber. Once consumer's stage completes, the publisher is cancelled, since the
+         * node is no longer around to make calls for it, and the node responds once the publisher has terminated.
+         */
+        public <R> Node<M, R> publishTo(Function<? super Flow.Publisher<T>, ? extends CompletionStage<R>> consumer) {
+            Objects.requireNonNull(consumer);
+            Behavior<M, R> behavior = device -> device.call(consumeList).thenCompose(list -> {
+                ElementPublisher<M, I, SM, T> publisher = new ElementPublisher<>(device, list, maxInFlight,
+                        memoryFactory, consumeElement);
+                CompletionStage<R> result;
+                try {
+                    result = consumer.apply(publisher);
+                } catch (RuntimeException e) {
+                    result = CompletableFuture.failedFuture(e);
+                }
+                CompletionStage<R> consumerResult = result;
+                return result.handle((value, throwable) -> {
+                    publisher.cancel();
+                    return publisher.termination;
+                }).thenCompose(Function.identity()).thenCompose(ignore -> consumerResult);
+            });
+            return builder.build(behavior);
+        }
+
+        /**
+         * Folds element results into accumulation as they arrive, in completion order, so accumulator shouldn't depend
+         * on order. Holds no more than maxInFlight results at once.
+         */
+        public <R> Node<M, R> reduce(R identity, BiFunction<R, ? super T, R> accumulator) {
+            Objects.requireNonNull(accumulator);
+            return publishTo(publisher -> {
+                ReducingSubscriber<T, R> subscriber = new ReducingSubscriber<>(identity, accumulator, maxInFlight);
+                publisher.subscribe(subscriber);
+                return subscriber.result;
+            });
+        }
+    }
+
+    // Every onNext/onError/onComplete, and every start of an element call, happens in drain, which only one thread runs
+    // at a time: whoever finds work to do while another thread is draining just tells that thread to go around again.
+    // termination completes only after the last use of the device, so the node waits on it before responding.
+    private static class ElementPublisher<M extends Memory<?>, I, SM extends Memory<I>, T>
+            implements Flow.Publisher<T>, Flow.Subscription {
+        private static final Object NULL_RESULT = new Object();
+
+        private final DependencyCallingDevice<M> device;
+        private final List<? extends I> list;
+        private final int maxInFlight;
+        private final MemoryFactory<M, I, SM> memoryFactory;
+        private final NewMemoryDependency<SM, T> consumeElement;
+        private final AtomicBoolean subscribed = new AtomicBoolean();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final Queue<Object> results = new ConcurrentLinkedQueue<>();
+        private final Set<Reply<T>> outstanding = ConcurrentHashMap.newKeySet();
+        private final CompletableFuture<Void> termination = new CompletableFuture<>();
+        private volatile Flow.Subscriber<? super T> subscriber;
+        private volatile Throwable failure;
+        private volatile boolean cancelled;
+        // Only accessed in drain
+        private int nextIndex;
+        private int inFlight;
+        private long emitted;
+        private boolean terminated;
+
+        private ElementPublisher(DependencyCallingDevice<M> device, List<? extends I> list, int maxInFlight,
+                MemoryFactory<M, I, SM> memoryFactory, NewMemoryDependency<SM, T> consumeElement) {
+            this.device = device;
+            this.list = list;
+            this.maxInFlight = maxInFlight;
+            this.memoryFactory = memoryFactory;
+            this.consumeElement = consumeElement;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            Objects.requireNonNull(subscriber);
+            if (!subscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {}
+
+                    @Override
+                    public void cancel() {}
+                });
+                subscriber.onError(new IllegalStateException("Only one subscriber is allowed"));
+                return;
+            }
+            subscriber.onSubscribe(this);
+            this.subscriber = subscriber;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                requested.accumulateAndGet(n, (current, add) -> {
+                    long sum = current + add;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                Flow.Subscriber<? super T> currentSubscriber = subscriber;
+                if (!terminated) {
+                    // Cancelling doesn't need a subscriber, since the consumer may never have subscribed at all
+                    if (cancelled) {
+                        terminate();
+                    } else if (currentSubscriber != null) {
+                        drainOnce(currentSubscriber);
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainOnce(Flow.Subscriber<? super T> currentSubscriber) {
+            Throwable currentFailure = failure;
+            if (currentFailure != null) {
+                terminate();
+                currentSubscriber.onError(currentFailure);
+                return;
+            }
+            Object result;
+            while (emitted < requested.get() && (result = results.poll()) != null) {
+                --inFlight;
+                ++emitted;
+                @SuppressWarnings("unchecked")
+                T value = (result == NULL_RESULT) ? null : (T) result;
+                currentSubscriber.onNext(value);
+                // Cancelling or failing from onNext calls drain, so the next time around will handle it
+                if (cancelled || failure != null) {
+                    return;
+                }
+            }
+            if (emitted == list.size()) {
+                terminate();
+                currentSubscriber.onComplete();
+                return;
+            }
+            // Only start calls for results that have been requested and not yet accounted for
+            while (nextIndex < list.size() && inFlight < maxInFlight && emitted + inFlight < requested.get()) {
+                startElement(list.get(nextIndex++));
+            }
+        }
+
+        private void startElement(I element) {
+            ++inFlight;
+            Reply<T> reply = device.createMemoryAndCall(memoryFactory, CompletableFuture.completedFuture(element),
+                    consumeElement);
+            outstanding.add(reply);
+            reply.whenComplete((value, throwable) -> {
+                outstanding.remove(reply);
+                if (throwable == null) {
+                    results.add(value == null ? NULL_RESULT : value);
+                } else if (failure == null) {
+                    failure = throwable;
+                }
+                drain();
+            });
+        }
+
+        private void terminate() {
+            terminated = true;
+            results.clear();
+            outstanding.forEach(device::ignore);
+            termination.complete(null);
+        }
+    }
+
+    private static class ReducingSubscriber<T, R> implements Flow.Subscriber<T> {
+        private final BiFunction<R, ? super T, R> accumulator;
+        private final int maxInFlight;
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private R accumulation;
+
+        private ReducingSubscriber(R identity, BiFunction<R, ? super T, R> accumulator, int maxInFlight) {
+            this.accumulation = identity;
+            this.accumulator = accumulator;
+            this.maxInFlight = maxInFlight;
+        }
+
+        // Keeps maxInFlight results requested at all times, so that the publisher can keep that many calls going
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(maxInFlight);
+        }
+
+        @Override
+        public void onNext(T item) {
+            try {
+                accumulation = accumulator.apply(accumulation, item);
+            } catch (RuntimeException e) {
+                subscription.cancel();
+                result.completeExceptionally(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(accumulation);
+        }
+    }
+}
@@ -80,7 +80,7 @@ public class Aggra {
         GRAPH_CALL_FACTORY = GraphCall.Factory.from(graph, ServiceOperationMemory::new);
     }
 
-    public TopLevelResponse getResponse(TopLevelRequest request) {
+    public static TopLevelResponse getResponse(TopLevelRequest request) {
         GraphCall<ServiceOperationMemory> graphCall = GRAPH_CALL_FACTORY
                 .openCancellableCall(CompletableFuture.completedFuture(request), Observer.doNothing());
         Reply<TopLevelResponse> response = graphCall.call(GET_TOP_LEVEL_RESPONSE);
@@ -69,7 +69,19 @@ public class ConditionalMemoizationNoArgumentPushFutures {
     }
 
     private static <T> Supplier<T> memoize(Supplier<T> supplier) {
-        // Placeholder: imagine we implement this to return a memoized version of supplier
-        return null;
+        // A minimal memoizer: the first caller computes the value, and everyone else reuses it
+        return new Supplier<>() {
+            private boolean computed;
+            private T value;
+
+            @Override
+            public synchronized T get() {
+                if (!computed) {
+                    value = supplier.get();
+                    computed = true;
+                }
+                return value;
+            }
+        };
     }
 }
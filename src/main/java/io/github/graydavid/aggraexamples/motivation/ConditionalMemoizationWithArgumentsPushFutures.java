@@ -6,6 +6,9 @@
 
 package io.github.graydavid.aggraexamples.motivation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
@@ -76,7 +79,10 @@ public class ConditionalMemoizationWithArgumentsPushFutures {
     }
 
     private static Object createKey(String ClassAndMethod, Object... arguments) {
-        // Placeholder: imagine we implement this to return a unique key given the arguments
-        return null;
+        // A minimal key: equal as long as the method and all of the arguments are equal
+        List<Object> key = new ArrayList<>(arguments.length + 1);
+        key.add(ClassAndMethod);
+        key.addAll(Arrays.asList(arguments));
+        return key;
     }
 }
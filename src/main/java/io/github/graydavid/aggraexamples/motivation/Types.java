@@ -6,9 +6,27 @@
 
 package io.github.graydavid.aggraexamples.motivation;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
 public class Types {
     private Types() {}
 
+    // Services respond instantly by default. Benchmarks can replace this to simulate real service latency.
+    private static volatile Runnable serviceLatencySimulator = () -> {
+    };
+
+    /** Sets the action that every service call runs before responding, e.g. to sleep for a simulated latency. */
+    public static void setServiceLatencySimulator(Runnable simulator) {
+        serviceLatencySimulator = Objects.requireNonNull(simulator);
+    }
+
+    private static void simulateServiceLatency() {
+        serviceLatencySimulator.run();
+    }
+
     public static class TopLevelRequest {
     }
     public static class TopLevelResponse {
@@ -22,27 +40,40 @@ public class Types {
     public static class ServiceResponseB {
     }
     public static class Service1 {
-        static ServiceResponse1 callService(TopLevelRequest request) {
+        public static ServiceResponse1 callService(TopLevelRequest request) {
+            simulateServiceLatency();
             return new ServiceResponse1();
         }
     }
+    public static class BulkService1 {
+        // A stand-in for a bulk version of Service1: one call with one latency, no matter how many requests
+        public static Map<TopLevelRequest, ServiceResponse1> callService(List<TopLevelRequest> requests) {
+            simulateServiceLatency();
+            Map<TopLevelRequest, ServiceResponse1> responses = new HashMap<>();
+            requests.forEach(request -> responses.put(request, new ServiceResponse1()));
+            return responses;
+        }
+    }
     public static class Service2 {
-        static ServiceResponse2 callService(ServiceResponse1 response1) {
+        public static ServiceResponse2 callService(ServiceResponse1 response1) {
+            simulateServiceLatency();
             return new ServiceResponse2();
         }
     }
     public static class ServiceA {
-        static ServiceResponseA callService(TopLevelRequest request) {
+        public static ServiceResponseA callService(TopLevelRequest request) {
+            simulateServiceLatency();
             return new ServiceResponseA();
         }
     }
     public static class ServiceB {
-        static ServiceResponseB callService(ServiceResponseA responseA, ServiceResponse1 response1) {
+        public static ServiceResponseB callService(ServiceResponseA responseA, ServiceResponse1 response1) {
+            simulateServiceLatency();
             return new ServiceResponseB();
         }
     }
     public static class GetTopLevelResponse {
-        static TopLevelResponse getResponse(ServiceResponse2 response2, ServiceResponseB responseB) {
+        public static TopLevelResponse getResponse(ServiceResponse2 response2, ServiceResponseB responseB) {
             return new TopLevelResponse();
         }
     }
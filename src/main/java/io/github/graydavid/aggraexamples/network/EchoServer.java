@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stand-in for a remote service, listening on the loopback interface: it echoes back every frame it receives (see
+ * {@link SocketChannelNodes} for the framing) after a fixed delay, to simulate the service's latency. The server is
+ * itself non-blocking, running on its own {@link NioEventLoop} plus a timer thread for the delays, so it uses the same
+ * two threads however many connections are open, and doesn't skew thread counts in benchmarks.
+ */
+public class EchoServer implements AutoCloseable {
+    private static final int BACKLOG = 4096;
+
+    private final long delayNanos;
+    private final NioEventLoop eventLoop;
+    private final ScheduledExecutorService scheduler;
+    private final ServerSocketChannel serverChannel;
+
+    private EchoServer(Duration delay) throws IOException {
+        this.delayNanos = delay.toNanos();
+        this.eventLoop = NioEventLoop.start("echo-server");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "echo-server-delay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), BACKLOG);
+        serverChannel.configureBlocking(false);
+    }
+
+    /** Starts a server on an ephemeral loopback port, which echoes each frame after delay. */
+    public static EchoServer start(Duration delay) throws IOException {
+        EchoServer server = new EchoServer(delay);
+        server.eventLoop.execute(server::registerServerChannel);
+        return server;
+    }
+
+    private void registerServerChannel() {
+        try {
+            eventLoop.register(serverChannel, SelectionKey.OP_ACCEPT, new NioEventLoop.Handler() {
+                @Override
+                public void ready(SelectionKey key) throws IOException {
+                    SocketChannel channel;
+                    while ((channel = serverChannel.accept()) != null) {
+                        channel.configureBlocking(false);
+                        Connection connection = new Connection(channel);
+                        connection.key = eventLoop.register(channel, SelectionKey.OP_READ, connection);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable throwable) {
+                    throwable.printStackTrace();
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        scheduler.shutdownNow();
+        eventLoop.close();
+    }
+
+    // A single client connection. Everything runs on the event loop's thread.
+    private class Connection implements NioEventLoop.Handler {
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        private ByteBuffer in = ByteBuffer.allocate(256);
+        private SelectionKey key;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void ready(SelectionKey key) throws IOException {
+            if (key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        }
+
+        private void read() throws IOException {
+            if (!in.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                in = bigger.put(in);
+            }
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= Integer.BYTES && in.remaining() >= Integer.BYTES + in.getInt(in.position())) {
+                ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + in.getInt(in.position()));
+                ByteBuffer slice = in.slice();
+                slice.limit(frame.capacity());
+                frame.put(slice).flip();
+                in.position(in.position() + frame.capacity());
+                echoLater(frame);
+            }
+            in.compact();
+        }
+
+        private void echoLater(ByteBuffer frame) {
+            if (delayNanos == 0) {
+                write(frame);
+                return;
+            }
+            scheduler.schedule(() -> eventLoop.execute(() -> write(frame)), delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void write(ByteBuffer frame) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            pendingWrites.add(frame);
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void flush() throws IOException {
+            while (!pendingWrites.isEmpty()) {
+                ByteBuffer next = pendingWrites.peek();
+                channel.write(next);
+                if (next.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pendingWrites.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        @Override
+        public void failed(Throwable throwable) {
+            close();
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // The client is gone either way
+            }
+        }
+    }
+}
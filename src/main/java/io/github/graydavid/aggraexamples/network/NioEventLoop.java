@@ -0,0 +1,194 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.network;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * A single thread that waits on a shared Selector for any number of non-blocking channels, and dispatches readiness
+ * events to each channel's {@link Handler}. This is what lets many in-flight socket exchanges share one thread, rather
+ * than each blocking a thread of its own while waiting on the network.
+ *
+ * Channels may only be registered, and SelectionKeys only changed, on the event loop's thread, so other threads hand
+ * that work over with {@link #execute(Runnable, Consumer)}. Handlers and tasks run on the event loop's thread too, so
+ * they must never block.
+ *
+ * Once the event loop is closed, nothing waits forever on it: the handler of every channel still registered is failed,
+ * and so is every task that was accepted but hasn't run yet.
+ */
+public class NioEventLoop implements AutoCloseable {
+    /** Handles readiness events for a registered channel. Always called on the event loop's thread. */
+    public interface Handler {
+        void ready(SelectionKey key) throws IOException;
+
+        /**
+         * Called instead, if ready throws, or if the event loop closes while the channel is still registered. The
+         * channel's key has already been cancelled.
+         */
+        void failed(Throwable throwable);
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    private NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::loop, name);
+        this.thread.setDaemon(true);
+    }
+
+    /** Creates an event loop and starts its thread, with the given name. */
+    public static NioEventLoop start(String name) throws IOException {
+        NioEventLoop eventLoop = new NioEventLoop(name);
+        eventLoop.thread.start();
+        return eventLoop;
+    }
+
+    /** Same as {@link #execute(Runnable, Consumer)}, except that task is dropped if the loop closes before it runs. */
+    public void execute(Runnable task) {
+        execute(task, rejected -> {
+        });
+    }
+
+    /**
+     * Runs task on the event loop's thread, soon. Throws a RejectedExecutionException if the loop is already closed. If
+     * the loop closes after accepting task but before running it, passes onRejected a RejectedExecutionException
+     * instead, on the event loop's thread.
+     */
+    public void execute(Runnable task, Consumer<? super RejectedExecutionException> onRejected) {
+        if (closed) {
+            throw closedException();
+        }
+        Task pending = new Task(Objects.requireNonNull(task), Objects.requireNonNull(onRejected));
+        tasks.add(pending);
+        // The loop may have closed, and failed its remaining tasks, in between the check and the add
+        if (closed && tasks.remove(pending)) {
+            throw closedException();
+        }
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    private static RejectedExecutionException closedException() {
+        return new RejectedExecutionException("Event loop is closed");
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /** Registers channel for ops, dispatching its events to handler. Must be called on the event loop's thread. */
+    public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        if (!inEventLoop()) {
+            throw new IllegalStateException("Channels must be registered on the event loop's thread");
+        }
+        return channel.register(selector, ops, handler);
+    }
+
+    private static class Task {
+        private final Runnable task;
+        private final Consumer<? super RejectedExecutionException> onRejected;
+
+        private Task(Runnable task, Consumer<? super RejectedExecutionException> onRejected) {
+            this.task = task;
+            this.onRejected = onRejected;
+        }
+    }
+
+    private void loop() {
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+            runTasks();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Handler handler = (Handler) key.attachment();
+                if (key.isValid()) {
+                    dispatch(key, handler);
+                }
+            }
+        }
+        shutDown();
+    }
+
+    private void runTasks() {
+        Task task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Marks the loop closed first (in case it stopped on its own), so that no task is accepted after the queue drains
+    private void shutDown() {
+        closed = true;
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            if (key.isValid()) {
+                key.cancel();
+                try {
+                    ((Handler) key.attachment()).failed(new IOException("Event loop closed"));
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        Task task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.onRejected.accept(closedException());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void dispatch(SelectionKey key, Handler handler) {
+        try {
+            handler.ready(key);
+        } catch (IOException | RuntimeException e) {
+            key.cancel();
+            handler.failed(e);
+        }
+    }
+
+    /**
+     * Stops the event loop's thread and closes its Selector, failing registered handlers and pending tasks on the way
+     * out. This doesn't wait for the thread to stop. Channels still registered are left for their handlers to close.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.graydavid.aggra.core.Behaviors.BehaviorWithCustomCancelAction;
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+import io.github.graydavid.aggra.core.Behaviors.CustomCancelActionBehaviorResponse;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates nodes that exchange a request for a response with a server over a non-blocking SocketChannel, driven by a
+ * shared {@link NioEventLoop}. Each exchange writes the request as a frame and reads a single frame back as the
+ * response. A frame is a 4-byte big-endian length followed by that many bytes: the protocol {@link EchoServer} speaks.
+ *
+ * Each node keeps a pool of idle connections, so that sequential exchanges reuse the same connection rather than paying
+ * for a new one (and leaving the old one in TIME_WAIT) every time. An exchange takes the most recently used idle
+ * connection, or opens a new one if there isn't one, and returns it to the pool once it has read the whole response.
+ * Up to maxIdleConnections connections stay open while idle: any more are closed, as are any the server closes.
+ *
+ * This is the non-blocking version of NonInterruptCustomAction's Socket: no thread waits on an exchange while it's in
+ * flight, so thousands of exchanges can share the event loop's single thread. The node's custom cancel action closes
+ * the exchange's connection, which stops the exchange straight away, wherever it's got to, and fails the response with
+ * a CancellationException. The connection is never reused, since it might hold part of a request or response. Since
+ * closing doesn't need interrupts, the node declares that it never interrupts.
+ */
+public class SocketChannelNodes {
+    private SocketChannelNodes() {}
+
+    public static final Type SOCKET_CHANNEL_EXCHANGE_TYPE = Type.generic("SocketChannelExchange");
+    private static final int FRAME_HEADER_BYTES = Integer.BYTES;
+
+    public static <M extends Memory<?>> SocketChannelNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new SocketChannelNodeStarter<>(role, memoryClass);
+    }
+
+    public static class SocketChannelNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private NioEventLoop eventLoop;
+        private InetSocketAddress address;
+        private int maxResponseBytes = 1 << 20;
+        private int maxIdleConnections = 64;
+
+        private SocketChannelNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Required. Share one event loop between every node, unless a single thread can't keep up. */
+        public SocketChannelNodeStarter<M> eventLoop(NioEventLoop eventLoop) {
+            this.eventLoop = Objects.requireNonNull(eventLoop);
+            return this;
+        }
+
+        /** Required. The server to connect to. */
+        public SocketChannelNodeStarter<M> address(InetSocketAddress address) {
+            this.address = Objects.requireNonNull(address);
+            return this;
+        }
+
+        /** The largest response frame to accept, to guard against a corrupt length. Defaults to 1MiB. */
+        public SocketChannelNodeStarter<M> maxResponseBytes(int maxResponseBytes) {
+            if (maxResponseBytes < 0) {
+                throw new IllegalArgumentException("maxResponseBytes must be non-negative: " + maxResponseBytes);
+            }
+            this.maxResponseBytes = maxResponseBytes;
+            return this;
+        }
+
+        /** The most connections to keep open while they're not in use. Defaults to 64. */
+        public SocketChannelNodeStarter<M> maxIdleConnections(int maxIdleConnections) {
+            if (maxIdleConnections < 0) {
+                throw new IllegalArgumentException("maxIdleConnections must be non-negative: " + maxIdleConnections);
+            }
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /** Creates a node that sends request's bytes (from position to limit), and responds with the reply's bytes. */
+        public Node<M, ByteBuffer> exchange(Node<M, ByteBuffer> request) {
+            Objects.requireNonNull(eventLoop, "eventLoop is required");
+            Objects.requireNonNull(address, "address is required");
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, ByteBuffer> consumeRequest = builder.sameMemoryUnprimedDependency(request);
+            ConnectionPool pool = new ConnectionPool(eventLoop, address, maxIdleConnections);
+            return builder.type(SOCKET_CHANNEL_EXCHANGE_TYPE)
+                    .role(role)
+                    .buildWithCustomCancelAction(new ExchangeBehavior<>(pool, maxResponseBytes, consumeRequest));
+        }
+    }
+
+    private static class ExchangeBehavior<M extends Memory<?>>
+            implements BehaviorWithCustomCancelAction<M, ByteBuffer> {
+        private final ConnectionPool pool;
+        private final int maxResponseBytes;
+        private final SameMemoryDependency<M, ByteBuffer> consumeRequest;
+
+        private ExchangeBehavior(ConnectionPool pool, int maxResponseBytes,
+                SameMemoryDependency<M, ByteBuffer> consumeRequest) {
+            this.pool = pool;
+            this.maxResponseBytes = maxResponseBytes;
+            this.consumeRequest = consumeRequest;
+        }
+
+        @Override
+        public CustomCancelActionBehaviorResponse<ByteBuffer> run(DependencyCallingDevice<M> device,
+                CompositeCancelSignal signal) {
+            Exchange exchange = new Exchange(pool, maxResponseBytes);
+            device.call(consumeRequest).whenComplete((request, throwable) -> {
+                if (throwable != null) {
+                    exchange.response.completeExceptionally(throwable);
+                    return;
+                }
+                ByteBuffer frame = frame(request);
+                try {
+                    pool.eventLoop.execute(() -> exchange.start(frame), exchange::failed);
+                } catch (RejectedExecutionException e) {
+                    exchange.response.completeExceptionally(e);
+                }
+            });
+            return new CustomCancelActionBehaviorResponse<>(exchange.response, mayInterrupt -> exchange.cancel());
+        }
+
+        @Override
+        public boolean cancelActionMayInterruptIfRunning() {
+            return false;
+        }
+    }
+
+    private static ByteBuffer frame(ByteBuffer payload) {
+        ByteBuffer duplicate = payload.duplicate();
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + duplicate.remaining());
+        frame.putInt(duplicate.remaining()).put(duplicate).flip();
+        return frame;
+    }
+
+    // The idle connections to a single server. Only accessed on the event loop's thread.
+    private static class ConnectionPool {
+        private final NioEventLoop eventLoop;
+        private final InetSocketAddress address;
+        private final int maxIdleConnections;
+        private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+
+        private ConnectionPool(NioEventLoop eventLoop, InetSocketAddress address, int maxIdleConnections) {
+            this.eventLoop = eventLoop;
+            this.address = address;
+            this.maxIdleConnections = maxIdleConnections;
+        }
+
+        // Answers the most recently used idle connection that's still open, or null if there isn't one
+        private Connection take() {
+            Connection connection;
+            while ((connection = idle.pollLast()) != null && !connection.key.isValid()) {
+                connection.close();
+            }
+            return connection;
+        }
+
+        // Watches the connection for the server closing it until it's taken again, unless the pool is already full
+        private void release(Connection connection) {
+            if (idle.size() >= maxIdleConnections || !connection.key.isValid()) {
+                connection.close();
+                return;
+            }
+            connection.key.attach(connection);
+            connection.key.interestOps(SelectionKey.OP_READ);
+            idle.addLast(connection);
+        }
+    }
+
+    // A connection, plus the key that it keeps from one exchange to the next. While idle, it handles its own events.
+    private static class Connection implements NioEventLoop.Handler {
+        private final ConnectionPool pool;
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        private Connection(ConnectionPool pool, SocketChannel channel) {
+            this.pool = pool;
+            this.channel = channel;
+        }
+
+        // The server never sends anything unasked, so this means it closed the connection (or broke the protocol)
+        @Override
+        public void ready(SelectionKey key) {
+            discard();
+        }
+
+        @Override
+        public void failed(Throwable throwable) {
+            discard();
+        }
+
+        private void discard() {
+            pool.idle.remove(this);
+            close();
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // There's nothing more to do, and the connection is unusable either way
+            }
+        }
+    }
+
+    // A single exchange. Everything except cancel runs on the event loop's thread.
+    private static class Exchange implements NioEventLoop.Handler {
+        private final ConnectionPool pool;
+        private final int maxResponseBytes;
+        private final CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+        private final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        // Whoever takes the connection first, between finishing, failing, and cancelling, decides what happens to it
+        private final AtomicReference<Connection> owned = new AtomicReference<>();
+        private volatile boolean cancelled;
+        private SocketChannel channel;
+        private ByteBuffer request;
+        private ByteBuffer body;
+
+        private Exchange(ConnectionPool pool, int maxResponseBytes) {
+            this.pool = pool;
+            this.maxResponseBytes = maxResponseBytes;
+        }
+
+        private void start(ByteBuffer request) {
+            if (cancelled) {
+                return;
+            }
+            this.request = request;
+            try {
+                Connection connection = pool.take();
+                if (connection == null) {
+                    connection = new Connection(pool, SocketChannel.open());
+                }
+                channel = connection.channel;
+                owned.set(connection);
+                // Cancellation may have raced with taking the connection, and found no connection to close
+                if (cancelled) {
+                    closeConnection();
+                    return;
+                }
+                if (connection.key == null) {
+                    channel.configureBlocking(false);
+                    boolean connected = channel.connect(pool.address);
+                    connection.key = pool.eventLoop.register(channel,
+                            connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, this);
+                } else {
+                    connection.key.attach(this);
+                    connection.key.interestOps(SelectionKey.OP_WRITE);
+                }
+            } catch (IOException | RuntimeException e) {
+                failed(e);
+            }
+        }
+
+        @Override
+        public void ready(SelectionKey key) throws IOException {
+            if (key.isConnectable()) {
+                if (channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            } else if (key.isWritable()) {
+                channel.write(request);
+                if (!request.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable() && readResponse()) {
+                Connection connection = owned.getAndSet(null);
+                if (connection != null) {
+                    pool.release(connection);
+                }
+                body.flip();
+                response.complete(body);
+            }
+        }
+
+        // Answers whether the whole response has been read
+        private boolean readResponse() throws IOException {
+            if (body == null) {
+                readOrThrowOnEnd(header);
+                if (header.hasRemaining()) {
+                    return false;
+                }
+                int length = header.flip().getInt();
+                if (length < 0 || length > maxResponseBytes) {
+                    throw new IOException("Invalid response length: " + length);
+                }
+                body = ByteBuffer.allocate(length);
+            }
+            if (body.hasRemaining()) {
+                readOrThrowOnEnd(body);
+            }
+            return !body.hasRemaining();
+        }
+
+        private void readOrThrowOnEnd(ByteBuffer buffer) throws IOException {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed before the whole response was read");
+            }
+        }
+
+        @Override
+        public void failed(Throwable throwable) {
+            closeConnection();
+            response.completeExceptionally(throwable);
+        }
+
+        private void cancel() {
+            cancelled = true;
+            // Before closing, so that the exchange doesn't fail first with whatever closing the connection causes
+            response.completeExceptionally(new CancellationException("Exchange cancelled"));
+            closeConnection();
+        }
+
+        private void closeConnection() {
+            Connection connection = owned.getAndSet(null);
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.graydavid.aggra.core.Dependencies.Dependency;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggraexamples.observation.NodeCallTimings.Timing;
+
+/**
+ * The critical path of a completed GraphCall: the chain of node calls that actually set its end-to-end latency, along
+ * with every node's slack (how much later it could have finished without delaying the call).
+ *
+ * The analysis joins {@link NodeCallTimings} with the nodes' dependency edges. A node call's reply can't complete
+ * before its dependencies' replies do, so the dependency whose reply completed last (before the node's own) is the one
+ * that gated it, and whatever time the node took after that (or after it was called, if later) is its own. Starting
+ * from the root and following gating dependencies backwards gives the critical path. A dependency is looked up in the
+ * same Memory first; if it was called in other Memories (e.g. by iteration), the last of those to complete counts.
+ * Dependencies that were never called (e.g. conditionally) are skipped.
+ */
+public class CriticalPath {
+    private final long latencyNanos;
+    private final List<Step> steps;
+    private final Map<Node<?, ?>, Long> nodeToSlackNanos;
+
+    private CriticalPath(long latencyNanos, List<Step> steps, Map<Node<?, ?>, Long> nodeToSlackNanos) {
+        this.latencyNanos = latencyNanos;
+        this.steps = steps;
+        this.nodeToSlackNanos = nodeToSlackNanos;
+    }
+
+    /** The root's latency: from when it was called until its reply completed. */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /** The critical path, from the first node call to the root. */
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * The slack for every node that fed into the root, in nanoseconds. Nodes on the critical path have 0 slack. If a
+     * node was called in several Memories, this is the least slack of any of those calls.
+     */
+    public Map<Node<?, ?>, Long> getNodeToSlackNanos() {
+        return nodeToSlackNanos;
+    }
+
+    /** A node call on the critical path. */
+    public static class Step {
+        private final Timing timing;
+        private final long ownNanos;
+
+        private Step(Timing timing, long ownNanos) {
+            this.timing = timing;
+            this.ownNanos = ownNanos;
+        }
+
+        public Node<?, ?> getNode() {
+            return timing.getNode();
+        }
+
+        public Timing getTiming() {
+            return timing;
+        }
+
+        /** How much of the call's latency this node is responsible for, after its gating dependency completed. */
+        public long getOwnNanos() {
+            return ownNanos;
+        }
+    }
+
+    /**
+     * Analyzes the timings of a completed GraphCall that called root. Throws IllegalArgumentException if root's reply
+     * never completed in timings.
+     */
+    public static CriticalPath analyze(NodeCallTimings timings, Node<?, ?> root) {
+        return new Analysis(timings.getTimings()).analyze(root);
+    }
+
+    private static class Analysis {
+        private final Map<Node<?, ?>, List<Timing>> nodeToTimings = new HashMap<>();
+        private final Map<Memory<?>, Map<Node<?, ?>, Timing>> memoryToNodeToTiming = new IdentityHashMap<>();
+        private final Map<Timing, List<Timing>> timingToDependencies = new IdentityHashMap<>();
+        private final Map<Timing, Timing> timingToGating = new IdentityHashMap<>();
+
+        private Analysis(List<Timing> timings) {
+            for (Timing timing : timings) {
+                nodeToTimings.computeIfAbsent(timing.getNode(), node -> new ArrayList<>()).add(timing);
+                memoryToNodeToTiming.computeIfAbsent(timing.getMemory(), memory -> new HashMap<>())
+                        .put(timing.getNode(), timing);
+            }
+        }
+
+        private CriticalPath analyze(Node<?, ?> root) {
+            Timing rootTiming = nodeToTimings.getOrDefault(root, List.of())
+                    .stream()
+                    .max(Comparator.comparingLong(Timing::getEndNanos))
+                    .orElseThrow(() -> new IllegalArgumentException("No completed call of root: " + root.getRole()));
+
+            List<Step> steps = new ArrayList<>();
+            for (Timing timing = rootTiming; timing != null; timing = gating(timing)) {
+                steps.add(new Step(timing, ownNanos(timing)));
+            }
+            Collections.reverse(steps);
+
+            return new CriticalPath(rootTiming.getEndNanos() - rootTiming.getStartNanos(),
+                    Collections.unmodifiableList(steps), Collections.unmodifiableMap(slack(rootTiming)));
+        }
+
+        // The dependency calls that a node call waited on: ones that completed no later than it did
+        private List<Timing> dependencies(Timing timing) {
+            return timingToDependencies.computeIfAbsent(timing, this::findDependencies);
+        }
+
+        private List<Timing> findDependencies(Timing timing) {
+            List<Timing> dependencies = new ArrayList<>();
+            Map<Node<?, ?>, Timing> sameMemory = memoryToNodeToTiming.get(timing.getMemory());
+            for (Dependency<?, ?> dependency : timing.getNode().getDependencies()) {
+                Timing sameMemoryTiming = sameMemory.get(dependency.getNode());
+                List<Timing> candidates = (sameMemoryTiming != null) ? List.of(sameMemoryTiming)
+                        : nodeToTimings.getOrDefault(dependency.getNode(), List.of());
+                for (Timing candidate : candidates) {
+                    if (candidate.getEndNanos() <= timing.getEndNanos()) {
+                        dependencies.add(candidate);
+                    }
+                }
+            }
+            return dependencies;
+        }
+
+        private Timing gating(Timing timing) {
+            if (!timingToGating.containsKey(timing)) {
+                timingToGating.put(timing, dependencies(timing).stream()
+                        .max(Comparator.comparingLong(Timing::getEndNanos))
+                        .orElse(null));
+            }
+            return timingToGating.get(timing);
+        }
+
+        private long ownNanos(Timing timing) {
+            Timing gating = gating(timing);
+            long ownStart = (gating == null) ? timing.getStartNanos()
+                    : Math.max(timing.getStartNanos(), gating.getEndNanos());
+            return timing.getEndNanos() - ownStart;
+        }
+
+        // The latest each call could have completed without delaying the root, worked out backwards from the root,
+        // visiting every call after all of the calls that wait on it
+        private Map<Node<?, ?>, Long> slack(Timing rootTiming) {
+            List<Timing> dependenciesFirst = new ArrayList<>();
+            collectDependenciesFirst(rootTiming, Collections.newSetFromMap(new IdentityHashMap<>()),
+                    dependenciesFirst);
+            Map<Timing, Long> latestEnd = new IdentityHashMap<>();
+            latestEnd.put(rootTiming, rootTiming.getEndNanos());
+            Map<Node<?, ?>, Long> nodeToSlack = new HashMap<>();
+            for (int i = dependenciesFirst.size() - 1; i >= 0; --i) {
+                Timing timing = dependenciesFirst.get(i);
+                long timingLatestEnd = latestEnd.get(timing);
+                long dependencyLatestEnd = timingLatestEnd - ownNanos(timing);
+                for (Timing dependency : dependencies(timing)) {
+                    latestEnd.merge(dependency, dependencyLatestEnd, Math::min);
+                }
+                nodeToSlack.merge(timing.getNode(), Math.max(0, timingLatestEnd - timing.getEndNanos()), Math::min);
+            }
+            return nodeToSlack;
+        }
+
+        // A depth-first post-order: every call comes after all of its dependencies
+        private void collectDependenciesFirst(Timing timing, Set<Timing> visited, List<Timing> dependenciesFirst) {
+            if (visited.add(timing)) {
+                for (Timing dependency : dependencies(timing)) {
+                    collectDependenciesFirst(dependency, visited, dependenciesFirst);
+                }
+                dependenciesFirst.add(timing);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.graydavid.aggra.core.Node;
+
+/**
+ * Aggregates {@link CriticalPath}s across many GraphCalls, so that it's clear which nodes most often set the calls'
+ * latency (and so are worth optimizing), and which have plenty of slack (and so aren't). Thread-safe.
+ */
+public class CriticalPathStatistics {
+    private final LongAdder calls = new LongAdder();
+    private final Map<Node<?, ?>, NodeStatistics> nodeToStatistics = new ConcurrentHashMap<>();
+
+    public void record(CriticalPath path) {
+        calls.increment();
+        for (CriticalPath.Step step : path.getSteps()) {
+            NodeStatistics statistics = statistics(step.getNode());
+            statistics.onPath.increment();
+            statistics.ownNanosOnPath.add(step.getOwnNanos());
+        }
+        path.getNodeToSlackNanos().forEach((node, slack) -> {
+            NodeStatistics statistics = statistics(node);
+            statistics.fedRoot.increment();
+            statistics.slackNanos.add(slack);
+        });
+    }
+
+    private NodeStatistics statistics(Node<?, ?> node) {
+        return nodeToStatistics.computeIfAbsent(node, key -> new NodeStatistics());
+    }
+
+    private static class NodeStatistics {
+        private final LongAdder onPath = new LongAdder();
+        private final LongAdder ownNanosOnPath = new LongAdder();
+        private final LongAdder fedRoot = new LongAdder();
+        private final LongAdder slackNanos = new LongAdder();
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /** The fraction of recorded calls where node was on the critical path. */
+    public double getFractionOnPath(Node<?, ?> node) {
+        NodeStatistics statistics = nodeToStatistics.get(node);
+        long totalCalls = calls.sum();
+        return (statistics == null || totalCalls == 0) ? 0 : (double) statistics.onPath.sum() / totalCalls;
+    }
+
+    /**
+     * A table of every node seen, sorted by how often it was on the critical path, with the mean time it was
+     * responsible for when it was, and its mean slack across every call it fed into the root.
+     */
+    @Override
+    public String toString() {
+        long totalCalls = calls.sum();
+        List<Map.Entry<Node<?, ?>, NodeStatistics>> entries = new ArrayList<>(nodeToStatistics.entrySet());
+        entries.sort(Comparator.comparingLong(
+                (Map.Entry<Node<?, ?>, NodeStatistics> entry) -> entry.getValue().onPath.sum()).reversed());
+
+        StringBuilder table = new StringBuilder(
+                String.format(Locale.ROOT, "%-24s %10s %16s %16s%n", "Role", "OnPath%", "MeanOwnMs", "MeanSlackMs"));
+        for (Map.Entry<Node<?, ?>, NodeStatistics> entry : entries) {
+            NodeStatistics statistics = entry.getValue();
+            long onPath = statistics.onPath.sum();
+            long fedRoot = statistics.fedRoot.sum();
+            table.append(String.format(Locale.ROOT, "%-24s %10.1f %16.3f %16.3f%n", entry.getKey().getRole(),
+                    totalCalls == 0 ? 0.0 : 100.0 * onPath / totalCalls,
+                    onPath == 0 ? 0.0 : statistics.ownNanosOnPath.sum() / (onPath * 1e6),
+                    fedRoot == 0 ? 0.0 : statistics.slackNanos.sum() / (fedRoot * 1e6)));
+        }
+        return table.toString();
+    }
+}
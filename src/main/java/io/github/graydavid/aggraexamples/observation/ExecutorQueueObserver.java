@@ -0,0 +1,284 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.CallObservers.ObserverAfterStop;
+import io.github.graydavid.aggra.core.CallObservers.ObserverBeforeStart;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+
+/**
+ * Splits the behavior latency of asynchronous FunctionNodes into the time their tasks waited in an executor's queue and
+ * the time from when they started running until their responses completed. Wrap the executor with this class, create
+ * the nodes with {@link #getExecutor()} (e.g. via {@link CreationTimeExecutorAsynchronousStarter}), and pass
+ * {@link #toObserver()} to the GraphCalls. When a pool saturates, the queue wait grows while the run time doesn't; when
+ * a service slows down, it's the other way around.
+ *
+ * The observer and executor are linked through a thread-local: an asynchronous FunctionNode's behavior submits its task
+ * on the same thread, right after the behavior observation starts, so the executor takes the pending observation then.
+ * Nothing says when a behavior's synchronous part returns, so a pending observation that this executor never takes
+ * (because the node runs on another executor) is discarded as soon as it's known to be stale: when the next behavior
+ * observation starts on the same thread, or once its behavior has stopped. Nodes that complete successfully without
+ * their tasks reaching this executor are assumed to run elsewhere, and aren't tracked after that. Behaviors that fail
+ * before submitting a task are counted in {@link Timings#getUnqueued()}. The executor also keeps gauges of its queue
+ * depth and running tasks, for every task submitted to it.
+ */
+public class ExecutorQueueObserver {
+    private final Executor delegate;
+    private final Executor executor = this::execute;
+    private final ThreadLocal<Phases> pending = new ThreadLocal<>();
+    private final ConcurrentHashMap<Node<?, ?>, NodeTimings> nodeToTimings = new ConcurrentHashMap<>();
+    private final Set<Node<?, ?>> otherExecutorNodes = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+
+    public ExecutorQueueObserver(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    /** The instrumented executor, which asynchronous nodes should run on. */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /** Returns an Observer that records the behaviors of asynchronous FunctionNodes. */
+    public Observer toObserver() {
+        return Observer.builder().observerBeforeBehavior(observerBeforeStart()).build();
+    }
+
+    public <T> ObserverBeforeStart<T> observerBeforeStart() {
+        return (type, caller, node, memory) -> {
+            // Behaviors submit their tasks straight away, so anything still pending belongs to one that's returned
+            pending.remove();
+            if (!FunctionNodes.ASYNCHRONOUS_FUNCTION_TYPE.equals(node.getType()) || otherExecutorNodes.contains(node)) {
+                return ObserverAfterStop.doNothing();
+            }
+            NodeTimings timings = timingsFor(node);
+            Phases phases = new Phases();
+            pending.set(phases);
+            return (result, throwable) -> {
+                phases.stopped = true;
+                if (pending.get() == phases) {
+                    pending.remove();
+                }
+                // A successful response had to run somewhere, so if it wasn't here, the node uses another executor
+                if (throwable == null && !phases.enqueued) {
+                    otherExecutorNodes.add(node);
+                    nodeToTimings.remove(node);
+                    return;
+                }
+                timings.record(phases, System.nanoTime());
+            };
+        };
+    }
+
+    private NodeTimings timingsFor(Node<?, ?> node) {
+        NodeTimings timings = nodeToTimings.get(node);
+        if (timings == null) {
+            timings = nodeToTimings.computeIfAbsent(node, key -> new NodeTimings());
+        }
+        return timings;
+    }
+
+    // Timestamps for a single behavior, each written once before the response completes (and so before they're read)
+    private static class Phases {
+        private volatile long enqueueNanos;
+        private volatile boolean enqueued;
+        private volatile long dequeueNanos;
+        private volatile boolean dequeued;
+        private volatile boolean stopped;
+    }
+
+    private void execute(Runnable command) {
+        Phases pendingPhases = pending.get();
+        Phases phases = null;
+        if (pendingPhases != null) {
+            pending.remove();
+            if (!pendingPhases.stopped) {
+                phases = pendingPhases;
+                phases.enqueueNanos = System.nanoTime();
+                phases.enqueued = true;
+            }
+        }
+        peakQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+        Phases taskPhases = phases;
+        try {
+            delegate.execute(() -> {
+                queueDepth.decrementAndGet();
+                running.incrementAndGet();
+                if (taskPhases != null) {
+                    taskPhases.dequeueNanos = System.nanoTime();
+                    taskPhases.dequeued = true;
+                }
+                try {
+                    command.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            queueDepth.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /** The number of tasks submitted to the executor that haven't started running yet. */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /** The number of tasks running right now. */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /** The highest queue depth since the last call to this method, which then starts a new interval. */
+    public int getAndResetPeakQueueDepth() {
+        return peakQueueDepth.getAndSet(queueDepth.get());
+    }
+
+    private static class NodeTimings {
+        private final LogLinearHistogram queueWait = new LogLinearHistogram();
+        private final LogLinearHistogram run = new LogLinearHistogram();
+        private final LongAdder unqueued = new LongAdder();
+
+        private void record(Phases phases, long completeNanos) {
+            if (!phases.dequeued) {
+                unqueued.increment();
+                return;
+            }
+            queueWait.record(phases.dequeueNanos - phases.enqueueNanos);
+            run.record(completeNanos - phases.dequeueNanos);
+        }
+
+        private Timings collect(boolean reset) {
+            return new Timings(reset ? queueWait.snapshotAndReset() : queueWait.snapshot(),
+                    reset ? run.snapshotAndReset() : run.snapshot(), reset ? unqueued.sumThenReset() : unqueued.sum());
+        }
+    }
+
+    /** The queue waits and run times (in nanoseconds) of a single node's behaviors. */
+    public static class Timings {
+        private final HistogramSnapshot queueWait;
+        private final HistogramSnapshot run;
+        private final long unqueued;
+
+        private Timings(HistogramSnapshot queueWait, HistogramSnapshot run, long unqueued) {
+            this.queueWait = queueWait;
+            this.run = run;
+            this.unqueued = unqueued;
+        }
+
+        /** From when the node's task was submitted to the executor until it started running. */
+        public HistogramSnapshot getQueueWait() {
+            return queueWait;
+        }
+
+        /** From when the node's task started running until the node's behavior response completed. */
+        public HistogramSnapshot getRun() {
+            return run;
+        }
+
+        /** The number of behaviors whose tasks never started running on this executor (e.g. because they failed). */
+        public long getUnqueued() {
+            return unqueued;
+        }
+
+        @Override
+        public String toString() {
+            return "queueWait[" + queueWait + "] run[" + run + "] unqueued=" + unqueued;
+        }
+    }
+
+    /** Returns timings for every observed Node, without resetting them. */
+    public Map<Node<?, ?>, Timings> snapshot() {
+        return collect(false);
+    }
+
+    /** Returns timings recorded since the last reset, and starts a new interval. */
+    public Map<Node<?, ?>, Timings> snapshotAndReset() {
+        return collect(true);
+    }
+
+    private Map<Node<?, ?>, Timings> collect(boolean reset) {
+        Map<Node<?, ?>, Timings> result = new HashMap<>();
+        nodeToTimings.forEach((node, timings) -> result.put(node, timings.collect(reset)));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static class TestMemory extends Memory<Void> {
+        private TestMemory(MemoryScope scope) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        ExecutorQueueObserver queueObserver = new ExecutorQueueObserver(pool);
+        Node<TestMemory, String> callSlowService = CreationTimeExecutorAsynchronousStarter
+                .from(queueObserver.getExecutor())
+                .startNode(Role.of("CallSlowService"), TestMemory.class)
+                .get(() -> {
+                    sleep(5);
+                    return "response";
+                });
+        Graph<TestMemory> graph = Graph.fromRoots(Role.of("ExecutorQueueObserverGraph"), Set.of(callSlowService));
+        GraphCall.NoInputFactory<TestMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph, TestMemory::new);
+        Observer observer = queueObserver.toObserver();
+
+        // Run 8 calls at once on 2 threads: the service itself is no slower, but most of the latency is queueing
+        try {
+            for (int round = 0; round < 20; ++round) {
+                CompletableFuture<?>[] calls = new CompletableFuture<?>[8];
+                for (int i = 0; i < calls.length; ++i) {
+                    GraphCall<TestMemory> graphCall = graphCallFactory.openCancellableCall(observer);
+                    calls[i] = graphCall.finalCallAndWeaklyCloseOrAbandonOnTimeout(callSlowService, 5,
+                            TimeUnit.SECONDS, (state, throwable, reply) -> {
+                            });
+                }
+                System.out.println("Queue depth after submitting: " + queueObserver.getQueueDepth());
+                CompletableFuture.allOf(calls).join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("Peak queue depth: " + queueObserver.getAndResetPeakQueueDepth());
+        queueObserver.snapshotAndReset()
+                .forEach((node, timings) -> System.out.println(node.getRole() + ": " + timings));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
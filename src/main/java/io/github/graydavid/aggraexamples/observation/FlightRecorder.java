@@ -0,0 +1,322 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.graydavid.aggra.core.CallObservers.ObservationType;
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.CallObservers.ObserverAfterStop;
+import io.github.graydavid.aggra.core.Caller;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+
+/**
+ * A tail-based flight recorder for GraphCalls: every call's node observations are recorded, but only the slow calls'
+ * are kept. Each call borrows a preallocated ring buffer from a pool, and its Observer writes the start and end of
+ * every first call, behavior, and custom cancel action into it. When the call finishes, if its latency passed the
+ * threshold, the buffer's events are copied out into a compact {@link FlightTrace}; either way, the buffer goes back to
+ * the pool. So, the per-call cost is a few array writes per observation, and traces are only built for the slow tail.
+ *
+ * If a call makes more observations than its buffer holds, the earliest are overwritten. If the pool is empty (i.e.
+ * more calls are running than there are buffers), calls go unrecorded rather than allocating. A call that's abandoned
+ * is always retained, but its buffer is replaced rather than reused, since its nodes may still be writing to it.
+ */
+public class FlightRecorder {
+    private final Duration threshold;
+    private final int eventsPerBuffer;
+    private final int maxRetainedTraces;
+    private final ArrayBlockingQueue<EventBuffer> pool;
+    private final Deque<FlightTrace> retainedTraces = new ArrayDeque<>();
+    private final LongAdder recordedCalls = new LongAdder();
+    private final LongAdder unrecordedCalls = new LongAdder();
+    private final LongAdder retainedCalls = new LongAdder();
+
+    /**
+     * @param threshold calls at least this slow are retained.
+     * @param buffers the number of ring buffers, which bounds how many concurrent calls get recorded.
+     * @param eventsPerBuffer the number of observations each buffer holds, rounded up to a power of two.
+     * @param maxRetainedTraces how many of the most recently retained traces to keep.
+     */
+    public FlightRecorder(Duration threshold, int buffers, int eventsPerBuffer, int maxRetainedTraces) {
+        if (threshold.isNegative()) {
+            throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+        }
+        if (buffers < 1 || eventsPerBuffer < 1 || eventsPerBuffer > (1 << 30) || maxRetainedTraces < 1) {
+            throw new IllegalArgumentException("buffers, eventsPerBuffer, and maxRetainedTraces must be positive");
+        }
+        this.threshold = threshold;
+        this.eventsPerBuffer = Integer.highestOneBit(eventsPerBuffer * 2 - 1);
+        this.maxRetainedTraces = maxRetainedTraces;
+        this.pool = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; ++i) {
+            pool.add(new EventBuffer(this.eventsPerBuffer));
+        }
+    }
+
+    /** Starts recording a GraphCall. Pass the Recording as the call's Observer, and finish it once the call's done. */
+    public Recording startRecording() {
+        EventBuffer buffer = pool.poll();
+        if (buffer == null) {
+            unrecordedCalls.increment();
+        } else {
+            recordedCalls.increment();
+        }
+        return new Recording(buffer);
+    }
+
+    /** The most recently retained traces, oldest first. */
+    public synchronized List<FlightTrace> getRetainedTraces() {
+        return List.copyOf(retainedTraces);
+    }
+
+    /** Returns and forgets the retained traces, e.g. to write them somewhere, oldest first. */
+    public synchronized List<FlightTrace> drainRetainedTraces() {
+        List<FlightTrace> traces = new ArrayList<>(retainedTraces);
+        retainedTraces.clear();
+        return traces;
+    }
+
+    public long getRecordedCalls() {
+        return recordedCalls.sum();
+    }
+
+    /** The number of calls that weren't recorded because every buffer was in use. */
+    public long getUnrecordedCalls() {
+        return unrecordedCalls.sum();
+    }
+
+    public long getRetainedCalls() {
+        return retainedCalls.sum();
+    }
+
+    private synchronized void retain(FlightTrace trace) {
+        retainedCalls.increment();
+        if (retainedTraces.size() == maxRetainedTraces) {
+            retainedTraces.removeFirst();
+        }
+        retainedTraces.addLast(trace);
+    }
+
+    /**
+     * The recording of a single GraphCall. It's also that call's Observer. Finishing it, through one of the finish
+     * methods or a handler from {@link #finishingHandler(GraphCall.StateAndReplyHandler)}, must happen exactly once.
+     */
+    public class Recording implements Observer {
+        private final EventBuffer buffer;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private Recording(EventBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public ObserverAfterStop<Object> observeBeforeFirstCall(Caller caller, Node<?, ?> node, Memory<?> memory) {
+            return observe(ObservationType.FIRST_CALL, node);
+        }
+
+        @Override
+        public ObserverAfterStop<Object> observeBeforeBehavior(Caller caller, Node<?, ?> node, Memory<?> memory) {
+            return observe(ObservationType.BEHAVIOR, node);
+        }
+
+        @Override
+        public ObserverAfterStop<Void> observeBeforeCustomCancelAction(Caller caller, Node<?, ?> node,
+                Memory<?> memory) {
+            return observe(ObservationType.CUSTOM_CANCEL_ACTION, node);
+        }
+
+        private <T> ObserverAfterStop<T> observe(ObservationType type, Node<?, ?> node) {
+            if (buffer == null) {
+                return ObserverAfterStop.doNothing();
+            }
+            long sequence = buffer.start(type, node, System.nanoTime() - startNanos);
+            return (result, throwable) -> buffer.stop(sequence, System.nanoTime() - startNanos, throwable != null);
+        }
+
+        /** Finishes a call that completed normally (i.e. wasn't abandoned), measuring its latency from now. */
+        public void finish() {
+            finish(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /** Finishes a call that completed normally (i.e. wasn't abandoned), with an externally measured latency. */
+        public void finish(long latency, TimeUnit unit) {
+            finish(unit.toNanos(latency), false);
+        }
+
+        /** Finishes an abandoned call, which is always retained, measuring its latency from now. */
+        public void finishAbandoned() {
+            finish(System.nanoTime() - startNanos, true);
+        }
+
+        /**
+         * Wraps handler (e.g. for finalCallAndWeaklyCloseOrAbandonOnTimeout) so that this recording is finished
+         * according to the call's state before handler runs.
+         */
+        public <T> GraphCall.StateAndReplyHandler<T> finishingHandler(GraphCall.StateAndReplyHandler<T> handler) {
+            return (state, throwable, reply) -> {
+                if (state.isAbandoned()) {
+                    finishAbandoned();
+                } else {
+                    finish();
+                }
+                handler.handle(state, throwable, reply);
+            };
+        }
+
+        private void finish(long latencyNanos, boolean abandoned) {
+            if (!finished.compareAndSet(false, true)) {
+                throw new IllegalStateException("Recording already finished");
+            }
+            if (buffer == null) {
+                return;
+            }
+            if (abandoned || latencyNanos >= threshold.toNanos()) {
+                retain(buffer.toTrace(latencyNanos));
+            }
+            if (abandoned) {
+                pool.offer(new EventBuffer(eventsPerBuffer));
+            } else {
+                buffer.reset();
+                pool.offer(buffer);
+            }
+        }
+    }
+
+    // A ring buffer of observations, stored as parallel arrays, so that recording an observation allocates nothing.
+    // Observations claim slots with an atomic counter, so they can be recorded from many threads at once. Reading
+    // happens after the call is done, when all writes have completed.
+    private static class EventBuffer {
+        private final int mask;
+        private final long[] sequences;
+        private final Node<?, ?>[] nodes;
+        private final byte[] observationTypes;
+        private final long[] threadIds;
+        private final long[] starts;
+        private final long[] ends;
+        private final boolean[] failures;
+        private final AtomicLong nextSequence = new AtomicLong();
+
+        private EventBuffer(int capacity) {
+            this.mask = capacity - 1;
+            this.sequences = new long[capacity];
+            this.nodes = new Node<?, ?>[capacity];
+            this.observationTypes = new byte[capacity];
+            this.threadIds = new long[capacity];
+            this.starts = new long[capacity];
+            this.ends = new long[capacity];
+            this.failures = new boolean[capacity];
+        }
+
+        private long start(ObservationType type, Node<?, ?> node, long startOffset) {
+            long sequence = nextSequence.getAndIncrement();
+            int slot = (int) (sequence & mask);
+            nodes[slot] = node;
+            observationTypes[slot] = (byte) type.ordinal();
+            threadIds[slot] = Thread.currentThread().getId();
+            starts[slot] = startOffset;
+            ends[slot] = -1;
+            failures[slot] = false;
+            sequences[slot] = sequence;
+            return sequence;
+        }
+
+        // Skips observations whose slots have since been overwritten
+        private void stop(long sequence, long endOffset, boolean failed) {
+            int slot = (int) (sequence & mask);
+            if (sequences[slot] == sequence) {
+                ends[slot] = endOffset;
+                failures[slot] = failed;
+            }
+        }
+
+        private FlightTrace toTrace(long latencyNanos) {
+            ObservationType[] observationTypeValues = ObservationType.values();
+            long end = nextSequence.get();
+            long begin = Math.max(0, end - sequences.length);
+            List<FlightTrace.Event> events = new ArrayList<>((int) (end - begin));
+            for (long sequence = begin; sequence < end; ++sequence) {
+                int slot = (int) (sequence & mask);
+                if (sequences[slot] != sequence) {
+                    continue;
+                }
+                long duration = (ends[slot] < 0) ? -1 : ends[slot] - starts[slot];
+                events.add(new FlightTrace.Event(String.valueOf(nodes[slot].getRole()),
+                        String.valueOf(nodes[slot].getType()), observationTypeValues[observationTypes[slot]],
+                        threadIds[slot], starts[slot], duration, failures[slot]));
+            }
+            return FlightTrace.encode(latencyNanos, begin, events);
+        }
+
+        private void reset() {
+            nextSequence.set(0);
+        }
+    }
+
+    private static class TestMemory extends Memory<Void> {
+        private TestMemory(MemoryScope scope) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        Node<TestMemory, String> getHello = FunctionNodes.synchronous(Role.of("GetHello"), TestMemory.class)
+                .get(() -> {
+                    // Roughly 1 in 1000 calls is slow
+                    if (Math.random() < 0.001) {
+                        sleep(20);
+                    }
+                    return "Hello";
+                });
+        Node<TestMemory, String> getHelloWorld = FunctionNodes.synchronous(Role.of("GetHelloWorld"), TestMemory.class)
+                .apply(hello -> hello + " World", getHello);
+        Graph<TestMemory> graph = Graph.fromRoots(Role.of("FlightRecorderGraph"), Set.of(getHelloWorld));
+        GraphCall.NoInputFactory<TestMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph, TestMemory::new);
+
+        FlightRecorder recorder = new FlightRecorder(Duration.ofMillis(10), 64, 256, 100);
+        for (int i = 0; i < 10_000; ++i) {
+            FlightRecorder.Recording recording = recorder.startRecording();
+            GraphCall<TestMemory> graphCall = graphCallFactory.openCancellableCall(recording);
+            graphCall.finalCallAndWeaklyCloseOrAbandonOnTimeout(getHelloWorld, 5, TimeUnit.SECONDS,
+                    recording.finishingHandler((state, throwable, reply) -> {
+                    })).join();
+        }
+
+        System.out.println("Recorded " + recorder.getRecordedCalls() + " calls and retained "
+                + recorder.getRetainedCalls());
+        for (FlightTrace trace : recorder.getRetainedTraces()) {
+            System.out.println(trace.toBytes().length + " bytes binary:");
+            System.out.println(trace.toChromeTraceJson());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.github.graydavid.aggra.core.CallObservers.ObservationType;
+
+/**
+ * A node-level trace of a single GraphCall, as retained by a {@link FlightRecorder}. The trace is stored in a compact
+ * binary form (see {@link #toBytes()}), which is decoded on demand, e.g. to convert it to the Chrome trace-event JSON
+ * that chrome://tracing and Perfetto load.
+ *
+ * The binary form is: a magic number and version; the call's latency and how many events were overwritten because the
+ * ring buffer was full; a dictionary of (role, type) names; and then the events, in the order they started. Numbers are
+ * unsigned varints, and event start times are zigzag-encoded deltas from the previous event's start.
+ */
+public class FlightTrace {
+    private static final int MAGIC = 0x41474652; // "AGFR"
+    private static final byte VERSION = 1;
+    private static final ObservationType[] OBSERVATION_TYPES = ObservationType.values();
+    private static final int FLAG_FAILED = 1;
+    private static final int FLAG_UNFINISHED = 2;
+
+    private final byte[] bytes;
+
+    private FlightTrace(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /** Reads a trace previously written by {@link #toBytes()}. */
+    public static FlightTrace fromBytes(byte[] bytes) {
+        FlightTrace trace = new FlightTrace(bytes.clone());
+        trace.decode(); // Validate eagerly
+        return trace;
+    }
+
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    public long getLatencyNanos() {
+        return decode().latencyNanos;
+    }
+
+    /** The number of the call's earliest events that were overwritten, because the call had more than fit. */
+    public long getOverwrittenEvents() {
+        return decode().overwrittenEvents;
+    }
+
+    public List<Event> getEvents() {
+        return decode().events;
+    }
+
+    /** A single node observation: e.g. a node's behavior running from start to end on a thread. */
+    public static class Event {
+        private final String role;
+        private final String type;
+        private final ObservationType observationType;
+        private final long threadId;
+        private final long startOffsetNanos;
+        private final long durationNanos;
+        private final boolean failed;
+
+        Event(String role, String type, ObservationType observationType, long threadId, long startOffsetNanos,
+                long durationNanos, boolean failed) {
+            this.role = role;
+            this.type = type;
+            this.observationType = observationType;
+            this.threadId = threadId;
+            this.startOffsetNanos = startOffsetNanos;
+            this.durationNanos = durationNanos;
+            this.failed = failed;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public ObservationType getObservationType() {
+            return observationType;
+        }
+
+        /** The thread that started the observation. */
+        public long getThreadId() {
+            return threadId;
+        }
+
+        /** When the observation started, relative to the start of the GraphCall's recording. */
+        public long getStartOffsetNanos() {
+            return startOffsetNanos;
+        }
+
+        /** How long the observation took, or -1 if it never finished while the call was being recorded. */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public boolean isFinished() {
+            return durationNanos >= 0;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+    }
+
+    static FlightTrace encode(long latencyNanos, long overwrittenEvents, List<Event> events) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(64 + events.size() * 8);
+        try (DataOutputStream out = new DataOutputStream(byteStream)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeVarLong(out, latencyNanos);
+            writeVarLong(out, overwrittenEvents);
+
+            Map<List<String>, Integer> nameToIndex = new HashMap<>();
+            List<List<String>> names = new ArrayList<>();
+            int[] eventNameIndexes = new int[events.size()];
+            for (int i = 0; i < events.size(); ++i) {
+                Event event = events.get(i);
+                List<String> name = Arrays.asList(event.role, event.type);
+                eventNameIndexes[i] = nameToIndex.computeIfAbsent(name, key -> {
+                    names.add(key);
+                    return names.size() - 1;
+                });
+            }
+            writeVarLong(out, names.size());
+            for (List<String> name : names) {
+                out.writeUTF(name.get(0));
+                out.writeUTF(name.get(1));
+            }
+
+            writeVarLong(out, events.size());
+            long previousStart = 0;
+            for (int i = 0; i < events.size(); ++i) {
+                Event event = events.get(i);
+                writeVarLong(out, eventNameIndexes[i]);
+                int flags = (event.failed ? FLAG_FAILED : 0) | (event.isFinished() ? 0 : FLAG_UNFINISHED);
+                out.writeByte(event.observationType.ordinal() | (flags << 4));
+                writeVarLong(out, event.threadId);
+                long delta = event.startOffsetNanos - previousStart;
+                writeVarLong(out, (delta << 1) ^ (delta >> 63));
+                previousStart = event.startOffsetNanos;
+                if (event.isFinished()) {
+                    writeVarLong(out, event.durationNanos);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new FlightTrace(byteStream.toByteArray());
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static class Decoded {
+        private final long latencyNanos;
+        private final long overwrittenEvents;
+        private final List<Event> events;
+
+        private Decoded(long latencyNanos, long overwrittenEvents, List<Event> events) {
+            this.latencyNanos = latencyNanos;
+            this.overwrittenEvents = overwrittenEvents;
+            this.events = events;
+        }
+    }
+
+    private Decoded decode() {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Not a version " + VERSION + " flight trace");
+            }
+            long latencyNanos = readVarLong(in);
+            long overwrittenEvents = readVarLong(in);
+
+            int nameCount = (int) readVarLong(in);
+            String[] roles = new String[nameCount];
+            String[] types = new String[nameCount];
+            for (int i = 0; i < nameCount; ++i) {
+                roles[i] = in.readUTF();
+                types[i] = in.readUTF();
+            }
+
+            int eventCount = (int) readVarLong(in);
+            List<Event> events = new ArrayList<>(eventCount);
+            long previousStart = 0;
+            for (int i = 0; i < eventCount; ++i) {
+                int nameIndex = (int) readVarLong(in);
+                int typeAndFlags = in.readUnsignedByte();
+                int flags = typeAndFlags >>> 4;
+                long threadId = readVarLong(in);
+                long zigzag = readVarLong(in);
+                long start = previousStart + ((zigzag >>> 1) ^ -(zigzag & 1));
+                previousStart = start;
+                long duration = ((flags & FLAG_UNFINISHED) != 0) ? -1 : readVarLong(in);
+                events.add(new Event(roles[nameIndex], types[nameIndex], OBSERVATION_TYPES[typeAndFlags & 0xF],
+                        threadId, start, duration, (flags & FLAG_FAILED) != 0));
+            }
+            return new Decoded(latencyNanos, overwrittenEvents, Collections.unmodifiableList(events));
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed flight trace", e);
+        }
+    }
+
+    /**
+     * Converts to Chrome's trace-event JSON format: one complete ("X") event per observation, with each thread as its
+     * own track. Unfinished observations are drawn as lasting until the end of the call.
+     */
+    public String toChromeTraceJson() {
+        Decoded decoded = decode();
+        StringBuilder json = new StringBuilder(128 + decoded.events.size() * 160);
+        json.append("{\"displayTimeUnit\":\"ns\",\"otherData\":{\"latencyNanos\":")
+                .append(decoded.latencyNanos)
+                .append(",\"overwrittenEvents\":")
+                .append(decoded.overwrittenEvents)
+                .append("},\"traceEvents\":[");
+        for (int i = 0; i < decoded.events.size(); ++i) {
+            Event event = decoded.events.get(i);
+            long duration = event.isFinished() ? event.durationNanos
+                    : Math.max(0, decoded.latencyNanos - event.startOffsetNanos);
+            json.append(i == 0 ? "" : ",").append("\n{\"name\":");
+            appendJsonString(json, event.role);
+            json.append(",\"cat\":\"").append(event.observationType).append("\",\"ph\":\"X\",\"ts\":");
+            json.append(micros(event.startOffsetNanos)).append(",\"dur\":").append(micros(duration));
+            json.append(",\"pid\":1,\"tid\":").append(event.threadId).append(",\"args\":{\"type\":");
+            appendJsonString(json, event.type);
+            json.append(",\"failed\":").append(event.failed).append(",\"finished\":").append(event.isFinished());
+            json.append("}}");
+        }
+        return json.append("\n]}\n").toString();
+    }
+
+    // Chrome expects microseconds, but accepts fractions of them
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
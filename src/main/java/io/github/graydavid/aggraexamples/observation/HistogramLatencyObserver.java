@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.github.graydavid.aggra.core.CallObservers.ObservationType;
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.CallObservers.ObserverBeforeStart;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+
+/**
+ * Records node call latencies into a {@link LogLinearHistogram} per (Node, ObservationType). Compared to
+ * {@link io.github.graydavid.aggraexamples.advanced.LatencyObserver}, memory use is fixed per Node rather than growing
+ * with every call. In steady state, the only allocation per call is the small ObserverAfterStop that Aggra's
+ * ObserverBeforeStart contract requires (which the JIT can often scalar-replace).
+ *
+ * Reads via {@link #snapshot()} and {@link #snapshotAndReset()} can happen at any time without pausing node calls.
+ */
+public class HistogramLatencyObserver {
+    private static final ObservationType[] OBSERVATION_TYPES = ObservationType.values();
+
+    private final ConcurrentHashMap<Node<?, ?>, LogLinearHistogram[]> nodeToHistograms = new ConcurrentHashMap<>();
+
+    /** Returns an Observer that records first calls, behaviors, and custom cancel actions. */
+    public Observer toObserver() {
+        return Observer.builder()
+                .observerBeforeFirstCall(observerBeforeStart())
+                .observerBeforeBehavior(observerBeforeStart())
+                .observerBeforeCustomCancelAction(observerBeforeStart())
+                .build();
+    }
+
+    public <T> ObserverBeforeStart<T> observerBeforeStart() {
+        return (type, caller, node, memory) -> {
+            LogLinearHistogram histogram = histogramFor(node, type);
+            long start = System.nanoTime();
+            return (result, throwable) -> histogram.record(System.nanoTime() - start);
+        };
+    }
+
+    private LogLinearHistogram histogramFor(Node<?, ?> node, ObservationType type) {
+        // Try a plain get first: computeIfAbsent's lambda would otherwise be allocated on every call
+        LogLinearHistogram[] histograms = nodeToHistograms.get(node);
+        if (histograms == null) {
+            histograms = nodeToHistograms.computeIfAbsent(node, HistogramLatencyObserver::newHistograms);
+        }
+        return histograms[type.ordinal()];
+    }
+
+    private static LogLinearHistogram[] newHistograms(Node<?, ?> node) {
+        LogLinearHistogram[] histograms = new LogLinearHistogram[OBSERVATION_TYPES.length];
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LogLinearHistogram();
+        }
+        return histograms;
+    }
+
+    /** Returns latencies (in nanoseconds) for every observed Node and ObservationType, without resetting them. */
+    public Map<Node<?, ?>, Map<ObservationType, HistogramSnapshot>> snapshot() {
+        return collect(false);
+    }
+
+    /** Returns latencies (in nanoseconds) recorded since the last reset, and starts a new interval. */
+    public Map<Node<?, ?>, Map<ObservationType, HistogramSnapshot>> snapshotAndReset() {
+        return collect(true);
+    }
+
+    private Map<Node<?, ?>, Map<ObservationType, HistogramSnapshot>> collect(boolean reset) {
+        Map<Node<?, ?>, Map<ObservationType, HistogramSnapshot>> result = new HashMap<>();
+        nodeToHistograms.forEach((node, histograms) -> {
+            Map<ObservationType, HistogramSnapshot> typeToSnapshot = new EnumMap<>(ObservationType.class);
+            for (ObservationType type : OBSERVATION_TYPES) {
+                LogLinearHistogram histogram = histograms[type.ordinal()];
+                HistogramSnapshot snapshot = reset ? histogram.snapshotAndReset() : histogram.snapshot();
+                if (snapshot.getTotalCount() > 0) {
+                    typeToSnapshot.put(type, snapshot);
+                }
+            }
+            result.put(node, Collections.unmodifiableMap(typeToSnapshot));
+        });
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static class TestMemory extends Memory<Void> {
+        private TestMemory(MemoryScope scope) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        Node<TestMemory, String> getHello = FunctionNodes.synchronous(Role.of("GetHello"), TestMemory.class)
+                .getValue("Hello");
+        Node<TestMemory, String> getHelloWorld = FunctionNodes.synchronous(Role.of("GetHelloWorld"), TestMemory.class)
+                .apply(hello -> hello + " World", getHello);
+        Graph<TestMemory> graph = Graph.fromRoots(Role.of("HistogramLatencyObserverGraph"), Set.of(getHelloWorld));
+        GraphCall.NoInputFactory<TestMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph, TestMemory::new);
+
+        HistogramLatencyObserver latencyObserver = new HistogramLatencyObserver();
+        Observer observer = latencyObserver.toObserver();
+        for (int i = 0; i < 10_000; ++i) {
+            GraphCall<TestMemory> graphCall = graphCallFactory.openCancellableCall(observer);
+            graphCall.finalCallAndWeaklyCloseOrAbandonOnTimeout(getHelloWorld, 5, TimeUnit.SECONDS,
+                    (state, throwable, reply) -> {
+                    }).join();
+        }
+
+        // Snapshots can be taken periodically (e.g. every minute) and published to a metrics system
+        latencyObserver.snapshotAndReset().forEach((node, typeToSnapshot) -> {
+            typeToSnapshot.forEach((type, snapshot) -> {
+                System.out.println(node.getRole() + " " + type + ": " + snapshot);
+            });
+        });
+    }
+}
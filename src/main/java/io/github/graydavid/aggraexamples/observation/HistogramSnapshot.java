@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+/** An immutable, point-in-time view of a {@link LogLinearHistogram}. */
+public class HistogramSnapshot {
+    private final long[] bucketCounts;
+    private final long totalCount;
+    private final long max;
+
+    HistogramSnapshot(long[] bucketCounts, long max) {
+        this.bucketCounts = bucketCounts;
+        long total = 0;
+        for (long count : bucketCounts) {
+            total += count;
+        }
+        this.totalCount = total;
+        this.max = max;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the value at the given percentile (0 to 100), or 0 if nothing was recorded. The result is the highest
+     * value in the percentile's bucket, capped at the max, so it errs on the high side by at most the bucket width.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long targetRank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long cumulative = 0;
+        for (int i = 0; i < bucketCounts.length; ++i) {
+            cumulative += bucketCounts[i];
+            if (cumulative >= targetRank) {
+                return Math.min(LogLinearHistogram.highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d p50=%d p90=%d p99=%d max=%d", totalCount, getValueAtPercentile(50),
+                getValueAtPercentile(90), getValueAtPercentile(99), max);
+    }
+}
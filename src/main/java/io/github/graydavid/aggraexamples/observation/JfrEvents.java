@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events that {@link JfrObserver} emits. All are disabled by default, and none record stack
+ * traces, so that they're cheap when turned on and free when not. Enable them in a JFR settings file (e.g.
+ * {@code <event name="io.github.graydavid.aggraexamples.NodeBehavior"><setting name="enabled">true</setting>...}), or
+ * with {@code jdk.jfr.Recording#enable(Class)}.
+ */
+public class JfrEvents {
+    private JfrEvents() {}
+
+    private static final String PREFIX = "io.github.graydavid.aggraexamples.";
+
+    /** The fields common to every node event. */
+    @Category({"Aggra", "Node"})
+    @StackTrace(false)
+    @Enabled(false)
+    abstract static class NodeEvent extends Event {
+        @Label("Role")
+        String role;
+
+        @Label("Type")
+        String type;
+
+        @Label("Memory Class")
+        Class<?> memoryClass;
+
+        @Label("Caller")
+        @Description("The role of the node (or GraphCall) that called this node")
+        String caller;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name(PREFIX + "NodeFirstCall")
+    @Label("Node First Call")
+    @Description("From a node's first call in a Memory until its response completes")
+    public static class NodeFirstCall extends NodeEvent {
+    }
+
+    @Name(PREFIX + "NodeBehavior")
+    @Label("Node Behavior")
+    @Description("From the start of a node's behavior until the behavior's response completes")
+    public static class NodeBehavior extends NodeEvent {
+    }
+
+    @Name(PREFIX + "NodeCustomCancelAction")
+    @Label("Node Custom Cancel Action")
+    @Description("A node's custom cancel action running")
+    public static class NodeCustomCancelAction extends NodeEvent {
+    }
+
+    /** The fields common to every GraphCall event. */
+    @Category({"Aggra", "GraphCall"})
+    @StackTrace(false)
+    @Enabled(false)
+    abstract static class GraphCallEvent extends Event {
+        @Label("Name")
+        @Description("A name for the GraphCall, e.g. the Graph's role")
+        String name;
+    }
+
+    @Name(PREFIX + "GraphCallOpen")
+    @Label("GraphCall Open")
+    public static class GraphCallOpen extends GraphCallEvent {
+    }
+
+    /** The fields common to events that end a GraphCall. */
+    abstract static class GraphCallEndEvent extends GraphCallEvent {
+        @Label("Abandoned")
+        boolean abandoned;
+
+        @Label("Unhandled Exceptions")
+        int unhandledExceptions;
+
+        @Label("Ignored Replies")
+        int ignoredReplies;
+    }
+
+    @Name(PREFIX + "GraphCallWeaklyClose")
+    @Label("GraphCall Weakly Close")
+    @Description("From the request to weakly close a GraphCall until it's closed (or abandoned, on timeout)")
+    public static class GraphCallWeaklyClose extends GraphCallEndEvent {
+    }
+
+    @Name(PREFIX + "GraphCallAbandon")
+    @Label("GraphCall Abandon")
+    @Description("A GraphCall being abandoned explicitly, leaving whatever's still running in the background")
+    public static class GraphCallAbandon extends GraphCallEndEvent {
+    }
+}
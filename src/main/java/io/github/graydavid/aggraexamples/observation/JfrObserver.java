@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.CallObservers.ObserverAfterStop;
+import io.github.graydavid.aggra.core.Caller;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * An Observer that emits {@link JfrEvents} for node first calls, behaviors, and custom cancel actions, so that node
+ * calls show up in JDK Flight Recorder recordings alongside GC, lock contention, and the rest. Observers don't see the
+ * GraphCall itself, so there are also helpers to wrap opening, weakly closing, and abandoning GraphCalls in events.
+ *
+ * The events are disabled by default. While they are, each observation costs a check of whether its event type is
+ * enabled, and allocates nothing.
+ */
+public class JfrObserver implements Observer {
+    private static final JfrObserver INSTANCE = new JfrObserver();
+    private static final EventType NODE_FIRST_CALL_TYPE = EventType.getEventType(JfrEvents.NodeFirstCall.class);
+    private static final EventType NODE_BEHAVIOR_TYPE = EventType.getEventType(JfrEvents.NodeBehavior.class);
+    private static final EventType NODE_CUSTOM_CANCEL_ACTION_TYPE = EventType
+            .getEventType(JfrEvents.NodeCustomCancelAction.class);
+    private static final EventType GRAPH_CALL_OPEN_TYPE = EventType.getEventType(JfrEvents.GraphCallOpen.class);
+    private static final EventType GRAPH_CALL_WEAKLY_CLOSE_TYPE = EventType
+            .getEventType(JfrEvents.GraphCallWeaklyClose.class);
+    private static final EventType GRAPH_CALL_ABANDON_TYPE = EventType.getEventType(JfrEvents.GraphCallAbandon.class);
+
+    private JfrObserver() {}
+
+    public static Observer observer() {
+        return INSTANCE;
+    }
+
+    @Override
+    public ObserverAfterStop<Object> observeBeforeFirstCall(Caller caller, Node<?, ?> node, Memory<?> memory) {
+        if (!NODE_FIRST_CALL_TYPE.isEnabled()) {
+            return ObserverAfterStop.doNothing();
+        }
+        return observe(new JfrEvents.NodeFirstCall(), caller, node, memory);
+    }
+
+    @Override
+    public ObserverAfterStop<Object> observeBeforeBehavior(Caller caller, Node<?, ?> node, Memory<?> memory) {
+        if (!NODE_BEHAVIOR_TYPE.isEnabled()) {
+            return ObserverAfterStop.doNothing();
+        }
+        return observe(new JfrEvents.NodeBehavior(), caller, node, memory);
+    }
+
+    @Override
+    public ObserverAfterStop<Void> observeBeforeCustomCancelAction(Caller caller, Node<?, ?> node, Memory<?> memory) {
+        if (!NODE_CUSTOM_CANCEL_ACTION_TYPE.isEnabled()) {
+            return ObserverAfterStop.doNothing();
+        }
+        return observe(new JfrEvents.NodeCustomCancelAction(), caller, node, memory);
+    }
+
+    // Fields are only filled in if the event will be committed (e.g. it passed its threshold), since they allocate
+    private static <T> ObserverAfterStop<T> observe(JfrEvents.NodeEvent event, Caller caller, Node<?, ?> node,
+            Memory<?> memory) {
+        event.begin();
+        return (result, throwable) -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.role = String.valueOf(node.getRole());
+                event.type = String.valueOf(node.getType());
+                event.memoryClass = memory.getClass();
+                event.caller = String.valueOf(caller.getRole());
+                event.failed = throwable != null;
+                event.commit();
+            }
+        };
+    }
+
+    public static <I, M extends Memory<I>> GraphCall<M> openCancellableCall(String name,
+            GraphCall.Factory<I, M> factory, I input, Observer observer) {
+        if (!GRAPH_CALL_OPEN_TYPE.isEnabled()) {
+            return factory.openCancellableCall(input, observer);
+        }
+        JfrEvents.GraphCallOpen event = new JfrEvents.GraphCallOpen();
+        event.begin();
+        GraphCall<M> graphCall = factory.openCancellableCall(input, observer);
+        event.name = name;
+        event.commit();
+        return graphCall;
+    }
+
+    public static <M extends Memory<?>> GraphCall<M> openCancellableCall(String name,
+            GraphCall.NoInputFactory<M> factory, Observer observer) {
+        if (!GRAPH_CALL_OPEN_TYPE.isEnabled()) {
+            return factory.openCancellableCall(observer);
+        }
+        JfrEvents.GraphCallOpen event = new JfrEvents.GraphCallOpen();
+        event.begin();
+        GraphCall<M> graphCall = factory.openCancellableCall(observer);
+        event.name = name;
+        event.commit();
+        return graphCall;
+    }
+
+    /** Weakly closes graphCall, with an event lasting until it's closed. */
+    public static CompletableFuture<GraphCall.FinalState> weaklyClose(String name, GraphCall<?> graphCall) {
+        if (!GRAPH_CALL_WEAKLY_CLOSE_TYPE.isEnabled()) {
+            return graphCall.weaklyClose();
+        }
+        JfrEvents.GraphCallWeaklyClose event = new JfrEvents.GraphCallWeaklyClose();
+        event.begin();
+        return graphCall.weaklyClose().whenComplete((state, throwable) -> commitEnd(event, name, state));
+    }
+
+    /** Weakly closes graphCall (or abandons it on timeout), with an event lasting until it's closed or abandoned. */
+    public static CompletableFuture<GraphCall.State> weaklyCloseOrAbandonOnTimeout(String name,
+            GraphCall<?> graphCall, long timeout, TimeUnit unit) {
+        if (!GRAPH_CALL_WEAKLY_CLOSE_TYPE.isEnabled()) {
+            return graphCall.weaklyCloseOrAbandonOnTimeout(timeout, unit);
+        }
+        JfrEvents.GraphCallWeaklyClose event = new JfrEvents.GraphCallWeaklyClose();
+        event.begin();
+        return graphCall.weaklyCloseOrAbandonOnTimeout(timeout, unit)
+                .whenComplete((state, throwable) -> commitEnd(event, name, state));
+    }
+
+    public static GraphCall.State abandon(String name, GraphCall<?> graphCall) {
+        if (!GRAPH_CALL_ABANDON_TYPE.isEnabled()) {
+            return graphCall.abandon();
+        }
+        JfrEvents.GraphCallAbandon event = new JfrEvents.GraphCallAbandon();
+        event.begin();
+        GraphCall.State state = graphCall.abandon();
+        commitEnd(event, name, state);
+        return state;
+    }
+
+    private static void commitEnd(JfrEvents.GraphCallEndEvent event, String name, GraphCall.State state) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.name = name;
+            if (state != null) {
+                event.abandoned = state.isAbandoned();
+                event.unhandledExceptions = state.getUnhandledExceptions().size();
+                event.ignoredReplies = state.getIgnoredReplies().size();
+            }
+            event.commit();
+        }
+    }
+
+    private static class TestMemory extends Memory<Void> {
+        private TestMemory(MemoryScope scope) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        Node<TestMemory, String> getHello = FunctionNodes.synchronous(Role.of("GetHello"), TestMemory.class)
+                .getValue("Hello");
+        Node<TestMemory, String> getHelloWorld = FunctionNodes.synchronous(Role.of("GetHelloWorld"), TestMemory.class)
+                .apply(hello -> hello + " World", getHello);
+        Graph<TestMemory> graph = Graph.fromRoots(Role.of("JfrObserverGraph"), Set.of(getHelloWorld));
+        GraphCall.NoInputFactory<TestMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph, TestMemory::new);
+
+        // In production, events would be enabled through a settings file passed to -XX:StartFlightRecording instead
+        Path file = Files.createTempFile("aggra", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(JfrEvents.NodeFirstCall.class);
+            recording.enable(JfrEvents.NodeBehavior.class);
+            recording.enable(JfrEvents.GraphCallOpen.class);
+            recording.enable(JfrEvents.GraphCallWeaklyClose.class);
+            recording.start();
+            for (int i = 0; i < 1000; ++i) {
+                GraphCall<TestMemory> graphCall = openCancellableCall("JfrObserverGraph", graphCallFactory,
+                        observer());
+                graphCall.call(getHelloWorld).join();
+                weaklyClose("JfrObserverGraph", graphCall).join();
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, Integer> eventCounts = new TreeMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            eventCounts.merge(event.getEventType().getName(), 1, Integer::sum);
+        }
+        System.out.println("Events recorded in " + file + ": " + eventCounts);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free histogram of non-negative long values (e.g. nanosecond latencies). Buckets are log-linear:
+ * each power of two is split into 8 linear sub-buckets, which bounds the relative error of any reported value to 12.5%
+ * while needing only a few hundred buckets to cover nanoseconds through minutes.
+ *
+ * Recording is striped by thread to reduce contention: each thread increments a counter in its own stripe, and reads
+ * sum across stripes. Recording never allocates or blocks. Reads can happen concurrently with recording, and
+ * {@link #snapshotAndReset()} never loses a value: each recorded value lands either in the returned snapshot or in the
+ * next one. The max is only approximate across a reset, though: a value recorded while its stripe is being reset may
+ * have its count land in one snapshot and its max in the other, so a snapshot's max can be a little below or above
+ * every value it counted.
+ */
+public class LogLinearHistogram {
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int MAX_EXPONENT = 40; // About 18 minutes in nanoseconds; larger values are clamped
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+    static final long MAX_TRACKABLE_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray maxes;
+
+    /** Creates a histogram with one stripe per available processor (rounded to a power of two, capped at 64). */
+    public LogLinearHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public LogLinearHistogram(int desiredStripes) {
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(desiredStripes, 64)) * 2 - 1);
+        this.stripeMask = stripes - 1;
+        this.counts = new AtomicLongArray(stripes * BUCKET_COUNT);
+        this.maxes = new AtomicLongArray(stripes);
+    }
+
+    /** Records a value. Negative values are treated as 0, and values above ~2^41 are clamped. */
+    public void record(long value) {
+        long clamped = Math.max(0, Math.min(value, MAX_TRACKABLE_VALUE));
+        int stripe = stripe();
+        counts.getAndIncrement(stripe * BUCKET_COUNT + bucketIndex(clamped));
+        long currentMax;
+        while (clamped > (currentMax = maxes.get(stripe)) && !maxes.compareAndSet(stripe, currentMax, clamped)) {
+            // Retry: another thread in the same stripe raced us
+        }
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & stripeMask;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /** Returns the highest value that maps to the same bucket as bucketIndex. */
+    static long highestEquivalentValue(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+        int shift = bucketIndex / SUB_BUCKET_COUNT - 1;
+        long subBucket = bucketIndex & (SUB_BUCKET_COUNT - 1);
+        return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+
+    /** Returns a snapshot of everything recorded so far, without resetting. */
+    public HistogramSnapshot snapshot() {
+        return collect(false);
+    }
+
+    /** Returns a snapshot of everything recorded since the last reset, and starts a new interval. */
+    public HistogramSnapshot snapshotAndReset() {
+        return collect(true);
+    }
+
+    private HistogramSnapshot collect(boolean reset) {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long max = 0;
+        // Each stripe's counts and max are collected together, to keep the window where they can disagree small
+        for (int stripe = 0; stripe < maxes.length(); ++stripe) {
+            int offset = stripe * BUCKET_COUNT;
+            for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+                bucketCounts[bucket] += reset ? counts.getAndSet(offset + bucket, 0) : counts.get(offset + bucket);
+            }
+            max = Math.max(max, reset ? maxes.getAndSet(stripe, 0) : maxes.get(stripe));
+        }
+        return new HistogramSnapshot(bucketCounts, max);
+    }
+}
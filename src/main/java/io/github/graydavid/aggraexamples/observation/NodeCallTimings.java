@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.CallObservers.ObserverAfterStop;
+import io.github.graydavid.aggra.core.Caller;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+
+/**
+ * An Observer for a single GraphCall that records when each node was first called in each Memory and when its reply
+ * completed. Create one per GraphCall, pass it as that call's Observer, and then analyze it once the call is done
+ * (e.g. with {@link CriticalPath}).
+ */
+public class NodeCallTimings implements Observer {
+    private final ConcurrentLinkedQueue<Timing> timings = new ConcurrentLinkedQueue<>();
+
+    /** The completed first calls so far, in the order they completed. */
+    public List<Timing> getTimings() {
+        return List.copyOf(timings);
+    }
+
+    @Override
+    public ObserverAfterStop<Object> observeBeforeFirstCall(Caller caller, Node<?, ?> node, Memory<?> memory) {
+        long start = System.nanoTime();
+        return (result, throwable) -> timings.add(new Timing(node, memory, start, System.nanoTime()));
+    }
+
+    @Override
+    public ObserverAfterStop<Object> observeBeforeBehavior(Caller caller, Node<?, ?> node, Memory<?> memory) {
+        return ObserverAfterStop.doNothing();
+    }
+
+    @Override
+    public ObserverAfterStop<Void> observeBeforeCustomCancelAction(Caller caller, Node<?, ?> node, Memory<?> memory) {
+        return ObserverAfterStop.doNothing();
+    }
+
+    /** A node's first call in a Memory, from when it was called until its reply completed, in System#nanoTime. */
+    public static class Timing {
+        private final Node<?, ?> node;
+        private final Memory<?> memory;
+        private final long startNanos;
+        private final long endNanos;
+
+        private Timing(Node<?, ?> node, Memory<?> memory, long startNanos, long endNanos) {
+            this.node = node;
+            this.memory = memory;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+
+        public Node<?, ?> getNode() {
+            return node;
+        }
+
+        public Memory<?> getMemory() {
+            return memory;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getEndNanos() {
+            return endNanos;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.management.ThreadMXBean;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.CallObservers.ObserverBeforeStart;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+import io.github.graydavid.aggra.nodes.FunctionNodes.CreationTimeExecutorAsynchronousStarter;
+
+/**
+ * Attributes CPU time and allocated bytes to node behaviors, aggregated per Role, using the per-thread counters in
+ * com.sun.management.ThreadMXBean. Wall-clock latency says which nodes are slow; this says which nodes burn CPU and
+ * drive GC pressure.
+ *
+ * Only the synchronous portion of a behavior can be measured: the thread counters say nothing about work done later on
+ * other threads. So a behavior is measured only if its response completes on the thread that started it, while the
+ * behavior is still open there (as for synchronous FunctionNodes, and thread-lingering completion functions whose
+ * dependencies were already complete). If the response completes on another thread instead (asynchronous FunctionNodes,
+ * thread-jumping completion functions, or thread-lingering ones that waited), the behavior only counts as
+ * asynchronous; the work that completed it is attributed to whatever behavior was open on the completing thread. (The
+ * one case that can't be told apart is a thread-lingering behavior that waited and was then completed by the same
+ * thread that started it, which is charged for everything that thread did in between.)
+ * Usage is exclusive: a behavior that calls other nodes synchronously isn't charged for their measured usage.
+ *
+ * This is an opt-in mode: each measured behavior costs a few ThreadMXBean reads, which is noticeably more than
+ * {@link HistogramLatencyObserver}.
+ */
+public class ResourceUsageObserver {
+    private static final ThreadMXBean THREAD_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final ThreadLocal<List<OpenBehavior>> threadToOpenBehaviors = ThreadLocal.withInitial(ArrayList::new);
+    private final ConcurrentHashMap<Role, RoleUsage> roleToUsage = new ConcurrentHashMap<>();
+
+    /**
+     * Throws UnsupportedOperationException if this JVM can't measure per-thread CPU time or allocation. Otherwise,
+     * enables both measurements, if they aren't already.
+     */
+    public ResourceUsageObserver() {
+        if (!THREAD_BEAN.isCurrentThreadCpuTimeSupported() || !THREAD_BEAN.isThreadAllocatedMemorySupported()) {
+            throw new UnsupportedOperationException("Thread CPU time or allocation measurement isn't supported");
+        }
+        THREAD_BEAN.setThreadCpuTimeEnabled(true);
+        THREAD_BEAN.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /** Returns an Observer that records behaviors. */
+    public Observer toObserver() {
+        return Observer.builder().observerBeforeBehavior(observerBeforeStart()).build();
+    }
+
+    public <T> ObserverBeforeStart<T> observerBeforeStart() {
+        return (type, caller, node, memory) -> {
+            RoleUsage usage = usageFor(node.getRole());
+            List<OpenBehavior> openBehaviors = threadToOpenBehaviors.get();
+            pruneCompletedElsewhere(openBehaviors);
+            OpenBehavior behavior = new OpenBehavior(Thread.currentThread());
+            openBehaviors.add(behavior);
+            return (result, throwable) -> close(behavior, usage);
+        };
+    }
+
+    private RoleUsage usageFor(Role role) {
+        RoleUsage usage = roleToUsage.get(role);
+        if (usage == null) {
+            usage = roleToUsage.computeIfAbsent(role, key -> new RoleUsage());
+        }
+        return usage;
+    }
+
+    // Behaviors that completed on other threads can't be closed by their starting threads, so they're dropped lazily
+    private static void pruneCompletedElsewhere(List<OpenBehavior> openBehaviors) {
+        while (!openBehaviors.isEmpty() && openBehaviors.get(openBehaviors.size() - 1).completedElsewhere) {
+            openBehaviors.remove(openBehaviors.size() - 1);
+        }
+    }
+
+    private void close(OpenBehavior behavior, RoleUsage usage) {
+        usage.behaviors.increment();
+        if (behavior.thread != Thread.currentThread()) {
+            behavior.completedElsewhere = true;
+            return;
+        }
+        List<OpenBehavior> openBehaviors = threadToOpenBehaviors.get();
+        int index = openBehaviors.lastIndexOf(behavior);
+        if (index < 0) {
+            return; // Already closed as part of its caller: i.e. it completed after the behavior that started it
+        }
+        long cpuNanos = THREAD_BEAN.getCurrentThreadCpuTime() - behavior.startCpuNanos;
+        long allocatedBytes = currentThreadAllocatedBytes() - behavior.startAllocatedBytes;
+        // Anything still open above this behavior was started by it and is completing asynchronously
+        openBehaviors.subList(index, openBehaviors.size()).clear();
+        if (!openBehaviors.isEmpty()) {
+            OpenBehavior parent = openBehaviors.get(openBehaviors.size() - 1);
+            parent.childCpuNanos += cpuNanos;
+            parent.childAllocatedBytes += allocatedBytes;
+        }
+        usage.synchronousBehaviors.increment();
+        usage.cpuNanos.add(cpuNanos - behavior.childCpuNanos);
+        usage.allocatedBytes.add(allocatedBytes - behavior.childAllocatedBytes);
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Everything but completedElsewhere is only accessed by the starting thread
+    private static class OpenBehavior {
+        private final Thread thread;
+        private final long startCpuNanos;
+        private final long startAllocatedBytes;
+        private long childCpuNanos;
+        private long childAllocatedBytes;
+        private volatile boolean completedElsewhere;
+
+        private OpenBehavior(Thread thread) {
+            this.thread = thread;
+            this.startCpuNanos = THREAD_BEAN.getCurrentThreadCpuTime();
+            this.startAllocatedBytes = currentThreadAllocatedBytes();
+        }
+    }
+
+    private static class RoleUsage {
+        private final LongAdder behaviors = new LongAdder();
+        private final LongAdder synchronousBehaviors = new LongAdder();
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        private Usage collect(boolean reset) {
+            return reset
+                    ? new Usage(behaviors.sumThenReset(), synchronousBehaviors.sumThenReset(),
+                            cpuNanos.sumThenReset(), allocatedBytes.sumThenReset())
+                    : new Usage(behaviors.sum(), synchronousBehaviors.sum(), cpuNanos.sum(), allocatedBytes.sum());
+        }
+    }
+
+    /** The resources used by all of a Role's measured behaviors. */
+    public static class Usage {
+        private final long behaviors;
+        private final long synchronousBehaviors;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+
+        private Usage(long behaviors, long synchronousBehaviors, long cpuNanos, long allocatedBytes) {
+            this.behaviors = behaviors;
+            this.synchronousBehaviors = synchronousBehaviors;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public long getBehaviors() {
+            return behaviors;
+        }
+
+        /** The number of behaviors that were measured, because they completed synchronously. */
+        public long getSynchronousBehaviors() {
+            return synchronousBehaviors;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "behaviors=%d synchronous=%d cpuMs=%.3f allocatedBytes=%d", behaviors,
+                    synchronousBehaviors, cpuNanos / 1e6, allocatedBytes);
+        }
+    }
+
+    /** Returns usage for every observed Role, without resetting it. */
+    public Map<Role, Usage> snapshot() {
+        return collect(false);
+    }
+
+    /** Returns usage recorded since the last reset, and starts a new interval. */
+    public Map<Role, Usage> snapshotAndReset() {
+        return collect(true);
+    }
+
+    private Map<Role, Usage> collect(boolean reset) {
+        Map<Role, Usage> result = new HashMap<>();
+        roleToUsage.forEach((role, usage) -> result.put(role, usage.collect(reset)));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static class TestMemory extends Memory<Void> {
+        private TestMemory(MemoryScope scope) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), () -> new ConcurrentHashMapStorage());
+        }
+    }
+
+    public static void main(String args[]) {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Node<TestMemory, int[]> allocateBuffer = FunctionNodes.synchronous(Role.of("AllocateBuffer"), TestMemory.class)
+                .get(() -> new int[64 * 1024]);
+        Node<TestMemory, Long> sumSquares = FunctionNodes.synchronous(Role.of("SumSquares"), TestMemory.class)
+                .apply(buffer -> {
+                    long sum = 0;
+                    for (int i = 0; i < 2_000_000; ++i) {
+                        sum += (long) i * i;
+                    }
+                    return sum + buffer.length;
+                }, allocateBuffer);
+        Node<TestMemory, String> callService = CreationTimeExecutorAsynchronousStarter.from(executor)
+                .startNode(Role.of("CallService"), TestMemory.class)
+                .apply(sum -> Long.toString(sum), sumSquares);
+        Graph<TestMemory> graph = Graph.fromRoots(Role.of("ResourceUsageObserverGraph"), Set.of(callService));
+        GraphCall.NoInputFactory<TestMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph, TestMemory::new);
+
+        ResourceUsageObserver usageObserver = new ResourceUsageObserver();
+        Observer observer = usageObserver.toObserver();
+        try {
+            for (int i = 0; i < 1_000; ++i) {
+                GraphCall<TestMemory> graphCall = graphCallFactory.openCancellableCall(observer);
+                graphCall.finalCallAndWeaklyCloseOrAbandonOnTimeout(callService, 5, TimeUnit.SECONDS,
+                        (state, throwable, reply) -> {
+                        }).join();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Sort by allocation to find the nodes driving heap pressure
+        List<Map.Entry<Role, Usage>> entries = new ArrayList<>(usageObserver.snapshotAndReset().entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<Role, Usage> entry) -> entry.getValue().getAllocatedBytes())
+                .reversed());
+        entries.forEach(entry -> System.out.println(entry.getKey() + ": " + entry.getValue()));
+    }
+}
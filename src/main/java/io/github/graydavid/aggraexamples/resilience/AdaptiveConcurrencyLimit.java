@@ -0,0 +1,276 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Limits how many calls to a single downstream service may be in flight at once, adapting the limit to the latency the
+ * service shows. Use one limit per downstream service (e.g. per wrapped Role), shared across every GraphCall.
+ *
+ * The limit follows AIMD, where congestion is signalled by latency rather than by loss: the limit tracks the lowest
+ * latency seen recently, as an estimate of the service's latency without queueing. A call that takes more than
+ * latencyTolerance times that, or fails, multiplies the limit by backoffRatio; any other call grows the limit by
+ * 1/limit (i.e. by about one per limit's worth of calls), as long as the limit is actually being used. Only calls that
+ * started after the latest decrease can decrease the limit again, so that a single slow spell only backs off once. The
+ * lowest latency is forgotten every minimumLatencyWindow, so that the estimate can follow the service if it slows.
+ *
+ * Calls over the limit wait in a FIFO queue of at most maxQueued calls, and are rejected straight away if the queue is
+ * full. Queued calls don't hold a thread: they're started by whichever thread completes the call that frees their slot.
+ */
+public class AdaptiveConcurrencyLimit {
+    private final double minimumLimit;
+    private final double maximumLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final long minimumLatencyWindowNanos;
+    private final int maxQueued;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<CompletableFuture<Long>> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long minimumLatencyNanos = Long.MAX_VALUE;
+    private long minimumLatencyResetNanos;
+    private long lastDecreaseNanos;
+    private long allowedCount;
+    private long queuedCount;
+    private long rejectedCount;
+    private long decreaseCount;
+
+    private AdaptiveConcurrencyLimit(Builder builder) {
+        if (builder.minimumLimit > builder.maximumLimit) {
+            throw new IllegalArgumentException("minimumLimit must be <= maximumLimit: " + builder.minimumLimit + " > "
+                    + builder.maximumLimit);
+        }
+        this.minimumLimit = builder.minimumLimit;
+        this.maximumLimit = builder.maximumLimit;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.backoffRatio = builder.backoffRatio;
+        this.minimumLatencyWindowNanos = builder.minimumLatencyWindow.toNanos();
+        this.maxQueued = builder.maxQueued;
+        this.limit = Math.max(minimumLimit, Math.min(maximumLimit, builder.initialLimit));
+        long now = System.nanoTime();
+        this.minimumLatencyResetNanos = now + minimumLatencyWindowNanos;
+        this.lastDecreaseNanos = now;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int initialLimit = 20;
+        private int minimumLimit = 1;
+        private int maximumLimit = 1000;
+        private double latencyTolerance = 2;
+        private double backoffRatio = 0.9;
+        private Duration minimumLatencyWindow = Duration.ofSeconds(10);
+        private int maxQueued = 0;
+
+        private Builder() {}
+
+        /** Defaults to 20. */
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = validatePositive("initialLimit", initialLimit);
+            return this;
+        }
+
+        /** Defaults to 1. */
+        public Builder minimumLimit(int minimumLimit) {
+            this.minimumLimit = validatePositive("minimumLimit", minimumLimit);
+            return this;
+        }
+
+        /** Defaults to 1000. */
+        public Builder maximumLimit(int maximumLimit) {
+            this.maximumLimit = validatePositive("maximumLimit", maximumLimit);
+            return this;
+        }
+
+        private static int validatePositive(String name, int value) {
+            if (value < 1) {
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+            return value;
+        }
+
+        /** How many times the lowest recent latency a call can take before it's a sign of congestion. Defaults to 2. */
+        public Builder latencyTolerance(double latencyTolerance) {
+            if (latencyTolerance < 1) {
+                throw new IllegalArgumentException("latencyTolerance must be >= 1: " + latencyTolerance);
+            }
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        /** What to multiply the limit by on congestion. Defaults to 0.9. */
+        public Builder backoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("backoffRatio must be in (0, 1): " + backoffRatio);
+            }
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /** How long to remember the lowest latency for. Defaults to 10s. */
+        public Builder minimumLatencyWindow(Duration minimumLatencyWindow) {
+            this.minimumLatencyWindow = Objects.requireNonNull(minimumLatencyWindow);
+            return this;
+        }
+
+        /** How many calls may wait for a slot before more are rejected. Defaults to 0: reject straight away. */
+        public Builder maxQueued(int maxQueued) {
+            if (maxQueued < 0) {
+                throw new IllegalArgumentException("maxQueued must be non-negative: " + maxQueued);
+            }
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        public AdaptiveConcurrencyLimit build() {
+            return new AdaptiveConcurrencyLimit(this);
+        }
+    }
+
+    /**
+     * Acquires a slot: a future that completes with the call's start time (to pass to
+     * {@link #release(long, boolean)}) once the call may go ahead, or fails with a RejectedExecutionException if the
+     * queue is full. A queued future may complete on another call's thread.
+     */
+    CompletableFuture<Long> acquire() {
+        synchronized (lock) {
+            if (inFlight < limit) {
+                inFlight++;
+                allowedCount++;
+                return CompletableFuture.completedFuture(System.nanoTime());
+            }
+            if (queue.size() < maxQueued) {
+                CompletableFuture<Long> waiter = new CompletableFuture<>();
+                queue.add(waiter);
+                queuedCount++;
+                return waiter;
+            }
+            rejectedCount++;
+        }
+        return CompletableFuture.failedFuture(new RejectedExecutionException("Concurrency limit reached"));
+    }
+
+    /** Releases a slot acquired at startNanos, adapting the limit based on how the call did. */
+    void release(long startNanos, boolean failed) {
+        long now = System.nanoTime();
+        long latencyNanos = now - startNanos;
+        List<CompletableFuture<Long>> started;
+        synchronized (lock) {
+            if (now - minimumLatencyResetNanos >= 0) {
+                minimumLatencyNanos = Long.MAX_VALUE;
+                minimumLatencyResetNanos = now + minimumLatencyWindowNanos;
+            }
+            boolean congested = failed || (minimumLatencyNanos != Long.MAX_VALUE
+                    && latencyNanos > latencyTolerance * minimumLatencyNanos);
+            if (!failed) {
+                minimumLatencyNanos = Math.min(minimumLatencyNanos, latencyNanos);
+            }
+            if (congested) {
+                if (startNanos - lastDecreaseNanos > 0) {
+                    limit = Math.max(minimumLimit, limit * backoffRatio);
+                    lastDecreaseNanos = now;
+                    decreaseCount++;
+                }
+            } else if (inFlight >= limit / 2) {
+                limit = Math.min(maximumLimit, limit + 1 / limit);
+            }
+            started = releaseSlot();
+        }
+        started.forEach(waiter -> waiter.complete(now));
+    }
+
+    /** Releases a slot without a result, for calls that were abandoned before they ever started. */
+    void releaseUnused() {
+        List<CompletableFuture<Long>> started;
+        long now = System.nanoTime();
+        synchronized (lock) {
+            started = releaseSlot();
+        }
+        started.forEach(waiter -> waiter.complete(now));
+    }
+
+    // Waiters are completed outside of the lock, since completing them starts their calls
+    private List<CompletableFuture<Long>> releaseSlot() {
+        inFlight--;
+        List<CompletableFuture<Long>> started = new ArrayList<>();
+        while (inFlight < limit && !queue.isEmpty()) {
+            started.add(queue.poll());
+            inFlight++;
+            allowedCount++;
+        }
+        return started;
+    }
+
+    public int getLimit() {
+        synchronized (lock) {
+            return (int) Math.ceil(limit);
+        }
+    }
+
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public int getQueueLength() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /** The number of calls allowed to go ahead so far, whether straight away or after queueing. */
+    public long getAllowedCount() {
+        synchronized (lock) {
+            return allowedCount;
+        }
+    }
+
+    /** The number of calls that have had to queue so far. */
+    public long getQueuedCount() {
+        synchronized (lock) {
+            return queuedCount;
+        }
+    }
+
+    /** The number of calls rejected so far, because the queue was full. */
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /** The number of times the limit has been decreased so far. */
+    public long getDecreaseCount() {
+        synchronized (lock) {
+            return decreaseCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format(Locale.ROOT,
+                    "AdaptiveConcurrencyLimit[limit=%.1f, inFlight=%d, queued=%d, allowed=%d, queuedTotal=%d, "
+                            + "rejected=%d, decreases=%d]",
+                    limit, inFlight, queue.size(), allowedCount, queuedCount, rejectedCount, decreaseCount);
+        }
+    }
+}
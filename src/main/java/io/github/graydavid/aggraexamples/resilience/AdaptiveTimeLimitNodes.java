@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.github.graydavid.aggra.core.Behaviors.Behavior;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.DependencyLifetime;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+import io.github.graydavid.aggraexamples.execution.PluggableTimeLimitNodes;
+import io.github.graydavid.aggraexamples.execution.TimeLimitRace;
+import io.github.graydavid.aggraexamples.execution.TimeoutScheduler;
+
+/**
+ * Creates time-limited nodes just like {@link PluggableTimeLimitNodes} does, except that the timeout comes from an
+ * {@link AdaptiveTimeoutPolicy}, which tracks the wrapped node's live latency, instead of being fixed when the node is
+ * created. That avoids both timeouts so tight that normal latency variation fails calls, and timeouts so loose that
+ * they don't protect the tail.
+ *
+ * Individual calls can override the policy's timeout through an optional node that supplies the override (e.g. from
+ * the request). Overridden calls still contribute their latencies to the policy (a call that times out contributes
+ * its timeout, since its real latency is at least that), but don't count towards the policy's timeout rate.
+ */
+public class AdaptiveTimeLimitNodes {
+    private AdaptiveTimeLimitNodes() {}
+
+    public static final Type ADAPTIVE_TIME_LIMIT_TYPE = Type.generic("AdaptiveTimeLimit");
+
+    public static <M extends Memory<?>> AdaptiveTimeLimitNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new AdaptiveTimeLimitNodeStarter<>(role, memoryClass);
+    }
+
+    public static class AdaptiveTimeLimitNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private TimeoutScheduler timeoutScheduler;
+        private Executor executor;
+        private AdaptiveTimeoutPolicy policy;
+        private Node<M, Optional<Duration>> getTimeoutOverride;
+
+        private AdaptiveTimeLimitNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Required. */
+        public AdaptiveTimeLimitNodeStarter<M> timeoutScheduler(TimeoutScheduler timeoutScheduler) {
+            this.timeoutScheduler = Objects.requireNonNull(timeoutScheduler);
+            return this;
+        }
+
+        /** Required, unless callerThreadExecutor is used. */
+        public AdaptiveTimeLimitNodeStarter<M> executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        /** Completes timeout responses directly on the timer's thread. Only suitable for cheap consumers. */
+        public AdaptiveTimeLimitNodeStarter<M> callerThreadExecutor() {
+            return executor(Runnable::run);
+        }
+
+        /** Required. Share a policy only between nodes wrapping calls with similar latencies. */
+        public AdaptiveTimeLimitNodeStarter<M> policy(AdaptiveTimeoutPolicy policy) {
+            this.policy = Objects.requireNonNull(policy);
+            return this;
+        }
+
+        /**
+         * Optional. A node supplying a timeout that overrides the policy's for a single call, if present. The wrapped
+         * node is called straight away, and the override counts from then, too.
+         */
+        public AdaptiveTimeLimitNodeStarter<M> timeoutOverride(Node<M, Optional<Duration>> getTimeoutOverride) {
+            this.getTimeoutOverride = Objects.requireNonNull(getTimeoutOverride);
+            return this;
+        }
+
+        public <T> Node<M, T> timeLimitedCall(Node<M, T> node) {
+            Objects.requireNonNull(timeoutScheduler, "timeoutScheduler is required");
+            Objects.requireNonNull(executor, "executor is required");
+            Objects.requireNonNull(policy, "policy is required");
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, T> consumeNode = builder.sameMemoryUnprimedDependency(node);
+            SameMemoryDependency<M, Optional<Duration>> consumeTimeoutOverride = (getTimeoutOverride == null) ? null
+                    : builder.sameMemoryUnprimedDependency(getTimeoutOverride);
+            return builder.type(ADAPTIVE_TIME_LIMIT_TYPE)
+                    .role(role)
+                    .dependencyLifetime(DependencyLifetime.GRAPH)
+                    .build(new TimeLimitBehavior<>(timeoutScheduler, executor, policy, consumeNode,
+                            consumeTimeoutOverride));
+        }
+    }
+
+    private static class TimeLimitBehavior<M extends Memory<?>, T> implements Behavior<M, T> {
+        private final TimeoutScheduler timeoutScheduler;
+        private final Executor executor;
+        private final AdaptiveTimeoutPolicy policy;
+        private final SameMemoryDependency<M, T> consumeNode;
+        private final SameMemoryDependency<M, Optional<Duration>> consumeTimeoutOverride;
+
+        private TimeLimitBehavior(TimeoutScheduler timeoutScheduler, Executor executor, AdaptiveTimeoutPolicy policy,
+                SameMemoryDependency<M, T> consumeNode,
+                SameMemoryDependency<M, Optional<Duration>> consumeTimeoutOverride) {
+            this.timeoutScheduler = timeoutScheduler;
+            this.executor = executor;
+            this.policy = policy;
+            this.consumeNode = consumeNode;
+            this.consumeTimeoutOverride = consumeTimeoutOverride;
+        }
+
+        @Override
+        public CompletableFuture<T> run(DependencyCallingDevice<M> device) {
+            long startNanos = System.nanoTime();
+            Reply<T> reply = device.call(consumeNode);
+            if (consumeTimeoutOverride == null) {
+                return limit(device, reply, startNanos, policy.startCall(), false);
+            }
+
+            CompletableFuture<T> response = new CompletableFuture<>();
+            Reply<Optional<Duration>> timeoutOverride = device.call(consumeTimeoutOverride);
+            timeoutOverride.whenComplete((override, throwable) -> {
+                if (throwable != null) {
+                    device.ignore(reply);
+                    response.completeExceptionally(throwable);
+                    return;
+                }
+                CompletableFuture<T> limited;
+                if (override.isPresent()) {
+                    policy.startOverriddenCall();
+                    limited = limit(device, reply, startNanos, override.get().toNanos(), true);
+                } else {
+                    limited = limit(device, reply, startNanos, policy.startCall(), false);
+                }
+                limited.whenComplete((value, limitThrowable) -> {
+                    if (limitThrowable == null) {
+                        response.complete(value);
+                    } else {
+                        response.completeExceptionally(limitThrowable);
+                    }
+                });
+            });
+            return response;
+        }
+
+        private CompletableFuture<T> limit(DependencyCallingDevice<M> device, Reply<T> reply, long startNanos,
+                long timeoutNanos, boolean overridden) {
+            long remainingNanos = Math.max(0, timeoutNanos - (System.nanoTime() - startNanos));
+            return TimeLimitRace.race(device, reply, timeoutScheduler, executor, remainingNanos, TimeUnit.NANOSECONDS,
+                    () -> new TimeoutException("Timed out after " + timeoutNanos + " ns"),
+                    new PolicyRecorder(startNanos, timeoutNanos, overridden));
+        }
+
+        private class PolicyRecorder implements TimeLimitRace.Listener {
+            private final long startNanos;
+            private final long timeoutNanos;
+            private final boolean overridden;
+
+            private PolicyRecorder(long startNanos, long timeoutNanos, boolean overridden) {
+                this.startNanos = startNanos;
+                this.timeoutNanos = timeoutNanos;
+                this.overridden = overridden;
+            }
+
+            @Override
+            public void replied() {
+                policy.recordLatency(System.nanoTime() - startNanos);
+            }
+
+            @Override
+            public void timedOut() {
+                // The real latency is unknown, but at least the timeout, so record that instead of nothing
+                if (overridden) {
+                    policy.recordOverriddenTimeout(timeoutNanos);
+                } else {
+                    policy.recordTimeout(timeoutNanos);
+                }
+            }
+        }
+    }
+}
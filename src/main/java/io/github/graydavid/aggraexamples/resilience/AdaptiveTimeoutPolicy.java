@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.graydavid.aggraexamples.observation.HistogramSnapshot;
+import io.github.graydavid.aggraexamples.observation.LogLinearHistogram;
+
+/**
+ * Decides how long an {@link AdaptiveTimeLimitNodes} call should wait before timing out.
+ *
+ * The timeout is a live percentile of the wrapped call's latency times a multiplier (e.g. p99 x 1.5), recomputed at
+ * most once per refresh interval from the latencies recorded since the last recomputation. Until enough latencies have
+ * been recorded, the initial timeout is used. Every timeout is clamped between the minimum and maximum timeout.
+ *
+ * A call that times out is recorded as taking exactly the timeout: its real latency is unknown, but at least that. This
+ * keeps timeouts from feeding on themselves: if more calls time out than the percentile allows for, the percentile
+ * lands on the current timeout, and the next timeout grows by the multiplier (up to the maximum).
+ */
+public class AdaptiveTimeoutPolicy {
+    private final double percentile;
+    private final double multiplier;
+    private final long minimumTimeoutNanos;
+    private final long maximumTimeoutNanos;
+    private final long minimumSamples;
+    private final long refreshIntervalNanos;
+    private final LogLinearHistogram latencies = new LogLinearHistogram();
+    private final AtomicLong nextRefreshNanos;
+    private volatile long timeoutNanos;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong overrides = new AtomicLong();
+    private final AtomicLong intervalCalls = new AtomicLong();
+    private final AtomicLong intervalTimeouts = new AtomicLong();
+    private volatile double recentTimeoutRate;
+
+    private AdaptiveTimeoutPolicy(Builder builder) {
+        this.percentile = builder.percentile;
+        this.multiplier = builder.multiplier;
+        this.minimumTimeoutNanos = builder.minimumTimeout.toNanos();
+        this.maximumTimeoutNanos = builder.maximumTimeout.toNanos();
+        this.minimumSamples = builder.minimumSamples;
+        this.refreshIntervalNanos = builder.refreshInterval.toNanos();
+        this.nextRefreshNanos = new AtomicLong(System.nanoTime() + refreshIntervalNanos);
+        this.timeoutNanos = clamp(builder.initialTimeout.toNanos());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private double percentile = 99;
+        private double multiplier = 1.5;
+        private Duration initialTimeout = Duration.ofMillis(100);
+        private Duration minimumTimeout = Duration.ofMillis(1);
+        private Duration maximumTimeout = Duration.ofSeconds(1);
+        private long minimumSamples = 100;
+        private Duration refreshInterval = Duration.ofSeconds(1);
+
+        private Builder() {}
+
+        /** The latency percentile (0 to 100) to base the timeout on. Defaults to 99. */
+        public Builder percentile(double percentile) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be in (0, 100]: " + percentile);
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /** What to multiply the percentile by to get the timeout. Defaults to 1.5. */
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("multiplier must be at least 1: " + multiplier);
+            }
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /** The timeout to use until minimumSamples latencies have been recorded. Defaults to 100ms. */
+        public Builder initialTimeout(Duration initialTimeout) {
+            this.initialTimeout = Objects.requireNonNull(initialTimeout);
+            return this;
+        }
+
+        /** Defaults to 1ms. */
+        public Builder minimumTimeout(Duration minimumTimeout) {
+            this.minimumTimeout = Objects.requireNonNull(minimumTimeout);
+            return this;
+        }
+
+        /** Defaults to 1s. */
+        public Builder maximumTimeout(Duration maximumTimeout) {
+            this.maximumTimeout = Objects.requireNonNull(maximumTimeout);
+            return this;
+        }
+
+        /** The number of latencies needed to recompute the timeout. Defaults to 100. */
+        public Builder minimumSamples(long minimumSamples) {
+            this.minimumSamples = minimumSamples;
+            return this;
+        }
+
+        /** How often to recompute the timeout. Defaults to 1s. */
+        public Builder refreshInterval(Duration refreshInterval) {
+            this.refreshInterval = Objects.requireNonNull(refreshInterval);
+            return this;
+        }
+
+        public AdaptiveTimeoutPolicy build() {
+            if (minimumTimeout.compareTo(maximumTimeout) > 0) {
+                throw new IllegalArgumentException(
+                        "minimumTimeout must not exceed maximumTimeout: " + minimumTimeout + " vs " + maximumTimeout);
+            }
+            return new AdaptiveTimeoutPolicy(this);
+        }
+    }
+
+    /** Records the start of a call using this policy's timeout, and returns that timeout. */
+    long startCall() {
+        calls.incrementAndGet();
+        intervalCalls.incrementAndGet();
+        refreshTimeoutIfDue();
+        return timeoutNanos;
+    }
+
+    /** Records the start of a call whose timeout was overridden, so that it doesn't count towards the timeout rate. */
+    void startOverriddenCall() {
+        calls.incrementAndGet();
+        overrides.incrementAndGet();
+        refreshTimeoutIfDue();
+    }
+
+    private void refreshTimeoutIfDue() {
+        long now = System.nanoTime();
+        long nextRefresh = nextRefreshNanos.get();
+        if (now - nextRefresh < 0 || !nextRefreshNanos.compareAndSet(nextRefresh, now + refreshIntervalNanos)) {
+            return;
+        }
+        long windowCalls = intervalCalls.getAndSet(0);
+        long windowTimeouts = intervalTimeouts.getAndSet(0);
+        recentTimeoutRate = (windowCalls == 0) ? 0 : Math.min(1.0, (double) windowTimeouts / windowCalls);
+        HistogramSnapshot snapshot = latencies.snapshot();
+        if (snapshot.getTotalCount() >= minimumSamples) {
+            // Reset, so that the timeout tracks recent latencies rather than all latencies ever
+            long latency = latencies.snapshotAndReset().getValueAtPercentile(percentile);
+            timeoutNanos = clamp((long) Math.min(Long.MAX_VALUE, latency * multiplier));
+        }
+    }
+
+    private long clamp(long nanos) {
+        return Math.max(minimumTimeoutNanos, Math.min(maximumTimeoutNanos, nanos));
+    }
+
+    /** Records the latency of a call that completed (successfully or not) before timing out. */
+    void recordLatency(long nanos) {
+        latencies.record(nanos);
+    }
+
+    /** Records a call that timed out after this policy's timeoutNanos. */
+    void recordTimeout(long timeoutNanos) {
+        timeouts.incrementAndGet();
+        intervalTimeouts.incrementAndGet();
+        latencies.record(timeoutNanos);
+    }
+
+    /**
+     * Records a call that timed out after an overridden timeoutNanos. It doesn't count as one of this policy's
+     * timeouts, but its latency was at least timeoutNanos, and leaving it out would bias the percentile low.
+     */
+    void recordOverriddenTimeout(long timeoutNanos) {
+        latencies.record(timeoutNanos);
+    }
+
+    /** The current timeout. */
+    public Duration getTimeout() {
+        return Duration.ofNanos(timeoutNanos);
+    }
+
+    /** The number of calls started so far, including overridden ones. */
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    /** The number of calls so far that timed out after this policy's timeout. */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /** The number of calls so far whose timeout was overridden. */
+    public long getOverrideCount() {
+        return overrides.get();
+    }
+
+    /** The fraction of non-overridden calls that timed out during the last complete refresh interval. */
+    public double getRecentTimeoutRate() {
+        return recentTimeoutRate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "AdaptiveTimeoutPolicy[timeout=%dus, calls=%d, timeouts=%d, overrides=%d, "
+                + "recentTimeoutRate=%.4f]", timeoutNanos / 1000, getCallCount(), getTimeoutCount(),
+                getOverrideCount(), getRecentTimeoutRate());
+    }
+}
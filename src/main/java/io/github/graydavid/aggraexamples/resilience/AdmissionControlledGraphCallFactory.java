@@ -0,0 +1,379 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggraexamples.execution.TimeoutScheduler;
+
+/**
+ * Wraps a GraphCall.Factory with admission control, so that, during overload, new GraphCalls wait or are turned away
+ * rather than all being opened, all competing for the same executors, and all timing out together.
+ *
+ * At most maxOpenCalls GraphCalls are open at once. Calls over that wait in a queue, highest priority first and then
+ * FIFO, for at most maxQueueTime, after which they're rejected: by then, they'd likely be useless to their caller
+ * anyway. If the queue already holds maxQueued calls, a new call is rejected straight away, unless it has a higher
+ * priority than some queued call, in which case the newest of the lowest-priority queued calls is rejected instead.
+ * Rejected calls fail with a {@link GraphCallRejectedException} without ever opening a GraphCall.
+ *
+ * A GraphCall keeps its slot until the stage returned by its {@link GraphCallRunner} completes, so runners should only
+ * complete once the GraphCall is closed (or abandoned), since that's when it stops using resources. A queued call is
+ * opened on the thread that completes the call that frees its slot. If that opens a chain of calls that each complete
+ * straight away, the thread opens them one after another, rather than nesting each inside the last.
+ */
+public class AdmissionControlledGraphCallFactory<I, M extends Memory<I>> {
+    /** How important a call is. When there's a queue, higher priorities are admitted first and rejected last. */
+    public enum Priority {
+        LOW,
+        NORMAL,
+        HIGH
+    }
+
+    /** Runs a GraphCall, answering a stage that completes once the GraphCall is done with. */
+    @FunctionalInterface
+    public interface GraphCallRunner<M extends Memory<?>, T> {
+        CompletionStage<T> run(GraphCall<M> graphCall);
+    }
+
+    private static final Priority[] PRIORITIES_HIGHEST_FIRST = {Priority.HIGH, Priority.NORMAL, Priority.LOW};
+
+    private final GraphCall.Factory<I, M> factory;
+    private final TimeoutScheduler timeoutScheduler;
+    private final int maxOpenCalls;
+    private final int maxQueued;
+    private final long maxQueueTimeNanos;
+
+    private final Object lock = new Object();
+    private final EnumMap<Priority, ArrayDeque<Waiter>> queues = new EnumMap<>(Priority.class);
+    // The waiters left to admit by the release running further up this thread's stack, if any
+    private final ThreadLocal<ArrayDeque<Waiter>> admitting = new ThreadLocal<>();
+    private int openCalls;
+    private int queuedCalls;
+    private long admittedCount;
+    private long queueFullCount;
+    private long queueTimeoutCount;
+
+    private AdmissionControlledGraphCallFactory(Builder<I, M> builder) {
+        this.factory = builder.factory;
+        this.timeoutScheduler = builder.timeoutScheduler;
+        this.maxOpenCalls = builder.maxOpenCalls;
+        this.maxQueued = builder.maxQueued;
+        this.maxQueueTimeNanos = builder.maxQueueTime.toNanos();
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    public static <I, M extends Memory<I>> Builder<I, M> builder(GraphCall.Factory<I, M> factory) {
+        return new Builder<>(factory);
+    }
+
+    public static class Builder<I, M extends Memory<I>> {
+        private final GraphCall.Factory<I, M> factory;
+        private TimeoutScheduler timeoutScheduler;
+        private int maxOpenCalls = 64;
+        private int maxQueued = 1000;
+        private Duration maxQueueTime = Duration.ofMillis(100);
+
+        private Builder(GraphCall.Factory<I, M> factory) {
+            this.factory = Objects.requireNonNull(factory);
+        }
+
+        /** Required. Times how long calls have been queued. */
+        public Builder<I, M> timeoutScheduler(TimeoutScheduler timeoutScheduler) {
+            this.timeoutScheduler = Objects.requireNonNull(timeoutScheduler);
+            return this;
+        }
+
+        /** The maximum number of GraphCalls open at once. Defaults to 64. */
+        public Builder<I, M> maxOpenCalls(int maxOpenCalls) {
+            if (maxOpenCalls < 1) {
+                throw new IllegalArgumentException("maxOpenCalls must be positive: " + maxOpenCalls);
+            }
+            this.maxOpenCalls = maxOpenCalls;
+            return this;
+        }
+
+        /** The maximum number of calls waiting to open at once. Defaults to 1000. */
+        public Builder<I, M> maxQueued(int maxQueued) {
+            if (maxQueued < 0) {
+                throw new IllegalArgumentException("maxQueued must be non-negative: " + maxQueued);
+            }
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        /** The maximum time a call may wait to open. Defaults to 100ms. */
+        public Builder<I, M> maxQueueTime(Duration maxQueueTime) {
+            this.maxQueueTime = Objects.requireNonNull(maxQueueTime);
+            return this;
+        }
+
+        public AdmissionControlledGraphCallFactory<I, M> build() {
+            Objects.requireNonNull(timeoutScheduler, "timeoutScheduler is required");
+            return new AdmissionControlledGraphCallFactory<>(this);
+        }
+    }
+
+    /** Same as {@link #call(Object, Observer, Priority, GraphCallRunner)} with NORMAL priority. */
+    public <T> CompletableFuture<T> call(I input, Observer observer, GraphCallRunner<M, T> runner) {
+        return call(input, observer, Priority.NORMAL, runner);
+    }
+
+    /**
+     * Opens a cancellable GraphCall for input once it's admitted, and then runs it with runner. The response fails
+     * with a GraphCallRejectedException if the call isn't admitted.
+     */
+    public <T> CompletableFuture<T> call(I input, Observer observer, Priority priority, GraphCallRunner<M, T> runner) {
+        Objects.requireNonNull(observer);
+        Objects.requireNonNull(runner);
+        CompletableFuture<Void> admission = admit(Objects.requireNonNull(priority));
+        if (admission.isDone() && !admission.isCompletedExceptionally()) {
+            return open(input, observer, runner);
+        }
+        CompletableFuture<T> response = new CompletableFuture<>();
+        admission.whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                open(input, observer, runner).whenComplete((value, openThrowable) -> {
+                    if (openThrowable == null) {
+                        response.complete(value);
+                    } else {
+                        response.completeExceptionally(openThrowable);
+                    }
+                });
+            } else {
+                response.completeExceptionally(throwable);
+            }
+        });
+        return response;
+    }
+
+    /** Same as {@link #finalCall(Object, Observer, Priority, Node)} with NORMAL priority. */
+    public <T> CompletableFuture<T> finalCall(I input, Observer observer, Node<M, T> node) {
+        return finalCall(input, observer, Priority.NORMAL, node);
+    }
+
+    /** Calls node in a new GraphCall once it's admitted, and responds with node's response once weakly closed. */
+    public <T> CompletableFuture<T> finalCall(I input, Observer observer, Priority priority, Node<M, T> node) {
+        Objects.requireNonNull(node);
+        return call(input, observer, priority, graphCall -> {
+            CompletableFuture<T> response = graphCall.call(node).toCompletableFuture();
+            return graphCall.weaklyClose().thenCompose(finalState -> response);
+        });
+    }
+
+    private <T> CompletableFuture<T> open(I input, Observer observer, GraphCallRunner<M, T> runner) {
+        // Errors propagate, but the slot is still returned, so that the factory doesn't shrink with each one
+        CompletionStage<T> result = null;
+        try {
+            result = Objects.requireNonNull(runner.run(factory.openCancellableCall(input, observer)));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            if (result == null) {
+                release();
+            }
+        }
+        return result.whenComplete((value, throwable) -> release()).toCompletableFuture();
+    }
+
+    private CompletableFuture<Void> admit(Priority priority) {
+        Waiter waiter;
+        Waiter evicted = null;
+        synchronized (lock) {
+            if (openCalls < maxOpenCalls) {
+                openCalls++;
+                admittedCount++;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (queuedCalls >= maxQueued) {
+                evicted = evictLowerThan(priority);
+                if (evicted == null) {
+                    queueFullCount++;
+                    return CompletableFuture.failedFuture(
+                            new GraphCallRejectedException(GraphCallRejectedException.Reason.QUEUE_FULL));
+                }
+            }
+            waiter = new Waiter(priority);
+            queues.get(priority).add(waiter);
+            queuedCalls++;
+        }
+        if (evicted != null) {
+            evicted.reject(GraphCallRejectedException.Reason.QUEUE_FULL);
+        }
+        waiter.timeout = timeoutScheduler.schedule(() -> expire(waiter), maxQueueTimeNanos, TimeUnit.NANOSECONDS);
+        return waiter.admission;
+    }
+
+    // Rejects the newest of the lowest-priority waiters, as long as it's lower priority than priority
+    private Waiter evictLowerThan(Priority priority) {
+        for (Priority lower : Priority.values()) {
+            if (lower.compareTo(priority) >= 0) {
+                break;
+            }
+            Waiter evicted = queues.get(lower).pollLast();
+            if (evicted != null) {
+                queuedCalls--;
+                queueFullCount++;
+                return evicted;
+            }
+        }
+        return null;
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (lock) {
+            if (!queues.get(waiter.priority).remove(waiter)) {
+                return;
+            }
+            queuedCalls--;
+            queueTimeoutCount++;
+        }
+        waiter.reject(GraphCallRejectedException.Reason.QUEUE_TIMEOUT);
+    }
+
+    private void release() {
+        Waiter next = null;
+        synchronized (lock) {
+            for (Priority priority : PRIORITIES_HIGHEST_FIRST) {
+                next = queues.get(priority).poll();
+                if (next != null) {
+                    queuedCalls--;
+                    admittedCount++;
+                    break;
+                }
+            }
+            if (next == null) {
+                openCalls--;
+            }
+        }
+        if (next == null) {
+            return;
+        }
+        // The slot passes straight to next, so openCalls is unchanged. Admitting next may run its GraphCall to
+        // completion on this thread, releasing again, so nested releases leave their waiters for the outermost release
+        // to admit in a loop, rather than recursing once per queued call.
+        ArrayDeque<Waiter> pending = admitting.get();
+        if (pending != null) {
+            pending.add(next);
+            return;
+        }
+        pending = new ArrayDeque<>();
+        admitting.set(pending);
+        try {
+            for (Waiter waiter = next; waiter != null; waiter = pending.poll()) {
+                waiter.admit();
+            }
+        } finally {
+            admitting.remove();
+        }
+    }
+
+    private static class Waiter {
+        private final Priority priority;
+        private final CompletableFuture<Void> admission = new CompletableFuture<>();
+        private volatile TimeoutScheduler.Timeout timeout;
+
+        private Waiter(Priority priority) {
+            this.priority = priority;
+        }
+
+        private void admit() {
+            cancelTimeout();
+            admission.complete(null);
+        }
+
+        private void reject(GraphCallRejectedException.Reason reason) {
+            cancelTimeout();
+            admission.completeExceptionally(new GraphCallRejectedException(reason));
+        }
+
+        // The timeout may not have been scheduled yet, in which case, it will find this waiter gone when it runs
+        private void cancelTimeout() {
+            TimeoutScheduler.Timeout currentTimeout = timeout;
+            if (currentTimeout != null) {
+                currentTimeout.cancel();
+            }
+        }
+    }
+
+    /** The number of GraphCalls currently open. */
+    public int getOpenCalls() {
+        synchronized (lock) {
+            return openCalls;
+        }
+    }
+
+    /** The number of calls currently waiting to open. */
+    public int getQueuedCalls() {
+        synchronized (lock) {
+            return queuedCalls;
+        }
+    }
+
+    /** The number of calls admitted so far, whether straight away or after queueing. */
+    public long getAdmittedCount() {
+        synchronized (lock) {
+            return admittedCount;
+        }
+    }
+
+    /** The number of calls rejected so far, for any reason. */
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return queueFullCount + queueTimeoutCount;
+        }
+    }
+
+    /** The number of calls rejected so far for reason. */
+    public long getRejectedCount(GraphCallRejectedException.Reason reason) {
+        synchronized (lock) {
+            return (reason == GraphCallRejectedException.Reason.QUEUE_FULL) ? queueFullCount : queueTimeoutCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format(
+                    "AdmissionControlledGraphCallFactory[open=%d, queued=%d, admitted=%d, queueFull=%d, "
+                            + "queueTimeout=%d]",
+                    openCalls, queuedCalls, admittedCount, queueFullCount, queueTimeoutCount);
+        }
+    }
+
+    /** Thrown when a call isn't admitted, so no GraphCall was ever opened for it. */
+    public static class GraphCallRejectedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public enum Reason {
+            QUEUE_FULL,
+            QUEUE_TIMEOUT
+        }
+
+        private final Reason reason;
+
+        public GraphCallRejectedException(Reason reason) {
+            super("GraphCall rejected: " + reason);
+            this.reason = reason;
+        }
+
+        public Reason getReason() {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import io.github.graydavid.aggra.core.Behaviors.BehaviorWithCompositeCancelSignal;
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates nodes that guard calls to another node with an {@link AdaptiveConcurrencyLimit}, so that a slow downstream
+ * service can only tie up a bounded number of calls (and so threads) across all GraphCalls, rather than the whole
+ * shared executor. While the limit has room, the bulkhead node calls the wrapped node straight away. Otherwise, the
+ * call waits in the limit's queue, or, if that's full, the bulkhead node fails straight away with a
+ * RejectedExecutionException. Consumers can fall back on rejection by capturing the bulkhead node's response with
+ * CaptureResponseNodes.
+ *
+ * If a queued call's cancel signal is triggered while it waits, it gives up its slot as soon as it gets one, without
+ * calling the wrapped node, and fails with a CancellationException.
+ */
+public class BulkheadNodes {
+    private BulkheadNodes() {}
+
+    public static final Type BULKHEAD_TYPE = Type.generic("Bulkhead");
+
+    public static <M extends Memory<?>> BulkheadNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new BulkheadNodeStarter<>(role, memoryClass);
+    }
+
+    public static class BulkheadNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private AdaptiveConcurrencyLimit limit;
+
+        private BulkheadNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Required. Share a limit between every node that calls the same downstream service. */
+        public BulkheadNodeStarter<M> limit(AdaptiveConcurrencyLimit limit) {
+            this.limit = Objects.requireNonNull(limit);
+            return this;
+        }
+
+        public <T> Node<M, T> limitedCall(Node<M, T> node) {
+            Objects.requireNonNull(limit, "limit is required");
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, T> consumeNode = builder.sameMemoryUnprimedDependency(node);
+            return builder.type(BULKHEAD_TYPE)
+                    .role(role)
+                    .buildWithCompositeCancelSignal(new BulkheadBehavior<>(limit, consumeNode));
+        }
+    }
+
+    private static class BulkheadBehavior<M extends Memory<?>, T> implements BehaviorWithCompositeCancelSignal<M, T> {
+        private final AdaptiveConcurrencyLimit limit;
+        private final SameMemoryDependency<M, T> consumeNode;
+
+        private BulkheadBehavior(AdaptiveConcurrencyLimit limit, SameMemoryDependency<M, T> consumeNode) {
+            this.limit = limit;
+            this.consumeNode = consumeNode;
+        }
+
+        @Override
+        public CompletionStage<T> run(DependencyCallingDevice<M> device, CompositeCancelSignal signal) {
+            return limit.acquire().thenCompose(startNanos -> call(device, signal, startNanos));
+        }
+
+        private CompletionStage<T> call(DependencyCallingDevice<M> device, CompositeCancelSignal signal,
+                long startNanos) {
+            if (signal.read()) {
+                limit.releaseUnused();
+                return CompletableFuture.failedFuture(new CancellationException("Cancelled while queued"));
+            }
+            Reply<T> reply = device.call(consumeNode);
+            return reply.whenComplete((value, throwable) -> limit.release(startNanos, throwable != null));
+        }
+    }
+}
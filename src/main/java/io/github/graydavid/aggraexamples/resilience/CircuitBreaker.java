@@ -0,0 +1,291 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Decides whether calls to a dependency are allowed, based on how that dependency has been doing recently.
+ *
+ * While CLOSED, every call is allowed, and results are recorded in a rolling window (split into buckets, so old results
+ * age out a bucket at a time). Once the window holds at least minimumCalls results, and either the failure rate or the
+ * slow-call rate reaches its threshold, the breaker OPENs. While OPEN, every call is rejected, until openDuration has
+ * passed, at which point the breaker goes HALF_OPEN and allows halfOpenCalls trial calls. If those trials are below
+ * both thresholds, the breaker CLOSEs again with an empty window; otherwise, it re-OPENs.
+ *
+ * Results of calls that were allowed before the latest state change are ignored, so that, for example, a slow call
+ * started while CLOSED can't decide a HALF_OPEN trial. State is guarded by a single lock, which is held only briefly.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long bucketNanos;
+    private final long minimumCalls;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    private final Object lock = new Object();
+    private final long[] bucketEpochs;
+    private final long[] bucketCalls;
+    private final long[] bucketFailures;
+    private final long[] bucketSlowCalls;
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedNanos;
+    private long halfOpenedNanos;
+    private int halfOpenPermitsLeft;
+    private int halfOpenResults;
+    private int halfOpenFailures;
+    private int halfOpenSlowCalls;
+    private long allowedCount;
+    private long rejectedCount;
+    private long openCount;
+
+    private CircuitBreaker(Builder builder) {
+        this.failureRateThreshold = builder.failureRateThreshold / 100;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold / 100;
+        this.slowCallNanos = builder.slowCallDuration.toNanos();
+        this.bucketNanos = Math.max(1, builder.window.toNanos() / builder.windowBuckets);
+        this.minimumCalls = builder.minimumCalls;
+        this.openNanos = builder.openDuration.toNanos();
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.bucketEpochs = new long[builder.windowBuckets];
+        this.bucketCalls = new long[builder.windowBuckets];
+        this.bucketFailures = new long[builder.windowBuckets];
+        this.bucketSlowCalls = new long[builder.windowBuckets];
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private double failureRateThreshold = 50;
+        private double slowCallRateThreshold = 100;
+        private Duration slowCallDuration = Duration.ofSeconds(1);
+        private Duration window = Duration.ofSeconds(10);
+        private int windowBuckets = 10;
+        private long minimumCalls = 20;
+        private Duration openDuration = Duration.ofSeconds(5);
+        private int halfOpenCalls = 5;
+
+        private Builder() {}
+
+        /** The percentage (0 to 100] of failed calls at which to open. Defaults to 50. */
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = validatePercentage("failureRateThreshold", failureRateThreshold);
+            return this;
+        }
+
+        /** The percentage (0 to 100] of slow calls at which to open. Defaults to 100. */
+        public Builder slowCallRateThreshold(double slowCallRateThreshold) {
+            this.slowCallRateThreshold = validatePercentage("slowCallRateThreshold", slowCallRateThreshold);
+            return this;
+        }
+
+        private static double validatePercentage(String name, double percentage) {
+            if (percentage <= 0 || percentage > 100) {
+                throw new IllegalArgumentException(name + " must be in (0, 100]: " + percentage);
+            }
+            return percentage;
+        }
+
+        /** How long a call must take, successful or not, to count as slow. Defaults to 1s. */
+        public Builder slowCallDuration(Duration slowCallDuration) {
+            this.slowCallDuration = Objects.requireNonNull(slowCallDuration);
+            return this;
+        }
+
+        /** How far back the rolling window reaches, and how many buckets it's split into. Defaults to 10s and 10. */
+        public Builder window(Duration window, int windowBuckets) {
+            if (windowBuckets < 1) {
+                throw new IllegalArgumentException("windowBuckets must be positive: " + windowBuckets);
+            }
+            this.window = Objects.requireNonNull(window);
+            this.windowBuckets = windowBuckets;
+            return this;
+        }
+
+        /** The number of results the window needs before the breaker can open. Defaults to 20. */
+        public Builder minimumCalls(long minimumCalls) {
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /** How long to stay open before trying calls again. Defaults to 5s. */
+        public Builder openDuration(Duration openDuration) {
+            this.openDuration = Objects.requireNonNull(openDuration);
+            return this;
+        }
+
+        /** The number of trial calls to allow while half-open. Defaults to 5. */
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            if (halfOpenCalls < 1) {
+                throw new IllegalArgumentException("halfOpenCalls must be positive: " + halfOpenCalls);
+            }
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+
+    /**
+     * Answers whether a call may go ahead: a permit (to pass to {@link #recordResult(long, long, boolean)} when the
+     * call completes) if so, or -1 if the call is rejected.
+     */
+    long tryAcquirePermit() {
+        synchronized (lock) {
+            long now = System.nanoTime();
+            // Trials that never complete would otherwise leave the breaker half-open, rejecting everything, forever
+            if (state == State.HALF_OPEN && halfOpenPermitsLeft == 0 && now - halfOpenedNanos >= openNanos) {
+                open();
+            }
+            if (state == State.OPEN && now - openedNanos >= openNanos) {
+                transitionTo(State.HALF_OPEN);
+                halfOpenedNanos = now;
+                halfOpenPermitsLeft = halfOpenCalls;
+                halfOpenResults = 0;
+                halfOpenFailures = 0;
+                halfOpenSlowCalls = 0;
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && halfOpenPermitsLeft == 0)) {
+                rejectedCount++;
+                return -1;
+            }
+            if (state == State.HALF_OPEN) {
+                halfOpenPermitsLeft--;
+            }
+            allowedCount++;
+            return generation;
+        }
+    }
+
+    void recordResult(long permit, long durationNanos, boolean failed) {
+        boolean slow = durationNanos >= slowCallNanos;
+        synchronized (lock) {
+            if (permit != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                recordHalfOpenResult(failed, slow);
+            } else if (state == State.CLOSED) {
+                recordClosedResult(failed, slow);
+            }
+        }
+    }
+
+    private void recordHalfOpenResult(boolean failed, boolean slow) {
+        halfOpenResults++;
+        halfOpenFailures += failed ? 1 : 0;
+        halfOpenSlowCalls += slow ? 1 : 0;
+        if (halfOpenResults == halfOpenCalls) {
+            if (exceedsThresholds(halfOpenResults, halfOpenFailures, halfOpenSlowCalls)) {
+                open();
+            } else {
+                transitionTo(State.CLOSED);
+                clearWindow();
+            }
+        }
+    }
+
+    private void recordClosedResult(boolean failed, boolean slow) {
+        long epoch = System.nanoTime() / bucketNanos;
+        int bucket = (int) Math.floorMod(epoch, (long) bucketEpochs.length);
+        if (bucketEpochs[bucket] != epoch) {
+            bucketEpochs[bucket] = epoch;
+            bucketCalls[bucket] = 0;
+            bucketFailures[bucket] = 0;
+            bucketSlowCalls[bucket] = 0;
+        }
+        bucketCalls[bucket]++;
+        bucketFailures[bucket] += failed ? 1 : 0;
+        bucketSlowCalls[bucket] += slow ? 1 : 0;
+
+        long calls = 0;
+        long failures = 0;
+        long slowCalls = 0;
+        for (int i = 0; i < bucketEpochs.length; ++i) {
+            if (epoch - bucketEpochs[i] < bucketEpochs.length) {
+                calls += bucketCalls[i];
+                failures += bucketFailures[i];
+                slowCalls += bucketSlowCalls[i];
+            }
+        }
+        if (calls >= minimumCalls && exceedsThresholds(calls, failures, slowCalls)) {
+            open();
+        }
+    }
+
+    private boolean exceedsThresholds(long calls, long failures, long slowCalls) {
+        return failures >= failureRateThreshold * calls || slowCalls >= slowCallRateThreshold * calls;
+    }
+
+    private void open() {
+        transitionTo(State.OPEN);
+        openedNanos = System.nanoTime();
+        openCount++;
+    }
+
+    private void transitionTo(State newState) {
+        state = newState;
+        generation++;
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < bucketEpochs.length; ++i) {
+            bucketCalls[i] = 0;
+            bucketFailures[i] = 0;
+            bucketSlowCalls[i] = 0;
+        }
+    }
+
+    public State getState() {
+        synchronized (lock) {
+            return state;
+        }
+    }
+
+    /** The number of calls allowed so far. */
+    public long getAllowedCount() {
+        synchronized (lock) {
+            return allowedCount;
+        }
+    }
+
+    /** The number of calls rejected so far, without calling the dependency. */
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /** The number of times the breaker has opened so far. */
+    public long getOpenCount() {
+        synchronized (lock) {
+            return openCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format("CircuitBreaker[state=%s, allowed=%d, rejected=%d, opens=%d]", state, allowedCount,
+                    rejectedCount, openCount);
+        }
+    }
+}
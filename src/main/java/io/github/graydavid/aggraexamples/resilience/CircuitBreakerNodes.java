@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+import io.github.graydavid.aggra.nodes.CaptureResponseNodes;
+import io.github.graydavid.onemoretry.Try;
+
+/**
+ * Creates nodes that guard calls to another node with a {@link CircuitBreaker}. While the breaker allows calls, the
+ * guarding node calls the wrapped node and records how it did. While the breaker rejects calls, the guarding node
+ * doesn't call the wrapped node at all, and fails straight away with a RejectedExecutionException, so that GraphCalls
+ * don't each wait out a timeout on a dependency that's known to be down.
+ *
+ * {@link CircuitBreakerNodeStarter#protectedCall(Node)} responds just like the wrapped node (or fails fast), while
+ * {@link CircuitBreakerNodeStarter#captureProtectedCall(Node)} always responds successfully with a Try, like
+ * {@link CaptureResponseNodes}, so that consumers can fall back to a default value on rejection or failure.
+ *
+ * Wrapped nodes should be time-limited themselves (e.g. by TimeLimitNodes), so that a hung dependency produces
+ * failures, or at least slow calls, for the breaker to count.
+ */
+public class CircuitBreakerNodes {
+    private CircuitBreakerNodes() {}
+
+    public static final Type CIRCUIT_BREAKER_TYPE = Type.generic("CircuitBreaker");
+    public static final Type CAPTURE_CIRCUIT_BREAKER_TYPE = Type.generic("CaptureCircuitBreaker");
+
+    public static <M extends Memory<?>> CircuitBreakerNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new CircuitBreakerNodeStarter<>(role, memoryClass);
+    }
+
+    public static class CircuitBreakerNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private CircuitBreaker circuitBreaker;
+
+        private CircuitBreakerNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Required. Share a breaker between every node that calls the same dependency. */
+        public CircuitBreakerNodeStarter<M> circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = Objects.requireNonNull(circuitBreaker);
+            return this;
+        }
+
+        public <T> Node<M, T> protectedCall(Node<M, T> node) {
+            Objects.requireNonNull(circuitBreaker, "circuitBreaker is required");
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, T> consumeNode = builder.sameMemoryUnprimedDependency(node);
+            CircuitBreaker breaker = circuitBreaker;
+            return builder.type(CIRCUIT_BREAKER_TYPE)
+                    .role(role)
+                    .build(device -> call(breaker, device, consumeNode));
+        }
+
+        public <T> Node<M, Try<T>> captureProtectedCall(Node<M, T> node) {
+            Objects.requireNonNull(circuitBreaker, "circuitBreaker is required");
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, T> consumeNode = builder.sameMemoryUnprimedDependency(node);
+            CircuitBreaker breaker = circuitBreaker;
+            return builder.type(CAPTURE_CIRCUIT_BREAKER_TYPE)
+                    .role(role)
+                    .build(device -> call(breaker, device, consumeNode).handle((value, throwable) -> (throwable == null)
+                            ? Try.ofSuccess(value)
+                            : Try.ofFailure(throwable)));
+        }
+    }
+
+    private static <M extends Memory<?>, T> CompletionStage<T> call(CircuitBreaker breaker,
+            DependencyCallingDevice<M> device, SameMemoryDependency<M, T> consumeNode) {
+        long permit = breaker.tryAcquirePermit();
+        if (permit < 0) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Circuit breaker is open"));
+        }
+        long startNanos = System.nanoTime();
+        Reply<T> reply = device.call(consumeNode);
+        return reply.whenComplete((value, throwable) -> breaker.recordResult(permit, System.nanoTime() - startNanos,
+                throwable != null));
+    }
+}
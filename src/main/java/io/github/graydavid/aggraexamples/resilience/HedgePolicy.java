@@ -0,0 +1,213 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.graydavid.aggraexamples.observation.HistogramSnapshot;
+import io.github.graydavid.aggraexamples.observation.LogLinearHistogram;
+
+/**
+ * Decides when a hedged call should start its speculative second attempt, and whether it's allowed to.
+ *
+ * The hedge delay is a live percentile of the wrapped call's latency, recomputed at most once per refresh interval from
+ * the latencies recorded since the last recomputation. Until enough latencies have been recorded, the initial delay is
+ * used. Every delay is clamped between the minimum and maximum delay.
+ *
+ * Hedges are limited by a budget: each call earns budgetRatio hedge tokens (up to maxBudgetTokens), and each hedge
+ * spends one. So, even during an outage, when every call is slow, hedging adds at most about budgetRatio extra load.
+ */
+public class HedgePolicy {
+    private static final long MILLI_TOKENS_PER_TOKEN = 1000;
+
+    private final double percentile;
+    private final long minimumDelayNanos;
+    private final long maximumDelayNanos;
+    private final long minimumSamples;
+    private final long refreshIntervalNanos;
+    private final long milliTokensPerCall;
+    private final long maxMilliTokens;
+    private final LogLinearHistogram latencies = new LogLinearHistogram();
+    private final AtomicLong milliTokens = new AtomicLong();
+    private final AtomicLong nextRefreshNanos;
+    private volatile long delayNanos;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetDenials = new AtomicLong();
+
+    private HedgePolicy(Builder builder) {
+        this.percentile = builder.percentile;
+        this.minimumDelayNanos = builder.minimumDelay.toNanos();
+        this.maximumDelayNanos = builder.maximumDelay.toNanos();
+        this.minimumSamples = builder.minimumSamples;
+        this.refreshIntervalNanos = builder.refreshInterval.toNanos();
+        this.milliTokensPerCall = Math.round(builder.budgetRatio * MILLI_TOKENS_PER_TOKEN);
+        this.maxMilliTokens = builder.maxBudgetTokens * MILLI_TOKENS_PER_TOKEN;
+        this.nextRefreshNanos = new AtomicLong(System.nanoTime() + refreshIntervalNanos);
+        this.delayNanos = clamp(builder.initialDelay.toNanos());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private double percentile = 95;
+        private Duration initialDelay = Duration.ofMillis(10);
+        private Duration minimumDelay = Duration.ofMillis(1);
+        private Duration maximumDelay = Duration.ofSeconds(1);
+        private long minimumSamples = 100;
+        private Duration refreshInterval = Duration.ofSeconds(1);
+        private double budgetRatio = 0.1;
+        private long maxBudgetTokens = 10;
+
+        private Builder() {}
+
+        /** The latency percentile (0 to 100) after which to hedge. Defaults to 95. */
+        public Builder percentile(double percentile) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be in (0, 100]: " + percentile);
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /** The delay to use until minimumSamples latencies have been recorded. Defaults to 10ms. */
+        public Builder initialDelay(Duration initialDelay) {
+            this.initialDelay = Objects.requireNonNull(initialDelay);
+            return this;
+        }
+
+        /** Defaults to 1ms. */
+        public Builder minimumDelay(Duration minimumDelay) {
+            this.minimumDelay = Objects.requireNonNull(minimumDelay);
+            return this;
+        }
+
+        /** Defaults to 1s. */
+        public Builder maximumDelay(Duration maximumDelay) {
+            this.maximumDelay = Objects.requireNonNull(maximumDelay);
+            return this;
+        }
+
+        /** The number of latencies needed to recompute the delay. Defaults to 100. */
+        public Builder minimumSamples(long minimumSamples) {
+            this.minimumSamples = minimumSamples;
+            return this;
+        }
+
+        /** How often to recompute the delay. Defaults to 1s. */
+        public Builder refreshInterval(Duration refreshInterval) {
+            this.refreshInterval = Objects.requireNonNull(refreshInterval);
+            return this;
+        }
+
+        /** The hedge tokens earned per call, i.e. the long-term maximum ratio of hedges to calls. Defaults to 0.1. */
+        public Builder budgetRatio(double budgetRatio) {
+            if (budgetRatio < 0) {
+                throw new IllegalArgumentException("budgetRatio must not be negative: " + budgetRatio);
+            }
+            this.budgetRatio = budgetRatio;
+            return this;
+        }
+
+        /** The maximum number of hedge tokens that can be saved up for a burst. Defaults to 10. */
+        public Builder maxBudgetTokens(long maxBudgetTokens) {
+            this.maxBudgetTokens = maxBudgetTokens;
+            return this;
+        }
+
+        public HedgePolicy build() {
+            if (minimumDelay.compareTo(maximumDelay) > 0) {
+                throw new IllegalArgumentException(
+                        "minimumDelay must not exceed maximumDelay: " + minimumDelay + " vs " + maximumDelay);
+            }
+            return new HedgePolicy(this);
+        }
+    }
+
+    /** Records the start of a call, earning hedge budget, and returns how long to wait before hedging it. */
+    long startCall() {
+        calls.incrementAndGet();
+        milliTokens.getAndUpdate(current -> Math.min(maxMilliTokens, current + milliTokensPerCall));
+        refreshDelayIfDue();
+        return delayNanos;
+    }
+
+    private void refreshDelayIfDue() {
+        long now = System.nanoTime();
+        long nextRefresh = nextRefreshNanos.get();
+        if (now - nextRefresh < 0 || !nextRefreshNanos.compareAndSet(nextRefresh, now + refreshIntervalNanos)) {
+            return;
+        }
+        HistogramSnapshot snapshot = latencies.snapshot();
+        if (snapshot.getTotalCount() >= minimumSamples) {
+            // Reset, so that the delay tracks recent latencies rather than all latencies ever
+            delayNanos = clamp(latencies.snapshotAndReset().getValueAtPercentile(percentile));
+        }
+    }
+
+    private long clamp(long nanos) {
+        return Math.max(minimumDelayNanos, Math.min(maximumDelayNanos, nanos));
+    }
+
+    /** Spends a hedge token if one is available. */
+    boolean tryAcquireHedge() {
+        long current;
+        do {
+            current = milliTokens.get();
+            if (current < MILLI_TOKENS_PER_TOKEN) {
+                budgetDenials.incrementAndGet();
+                return false;
+            }
+        } while (!milliTokens.compareAndSet(current, current - MILLI_TOKENS_PER_TOKEN));
+        hedges.incrementAndGet();
+        return true;
+    }
+
+    void recordLatency(long nanos) {
+        latencies.record(nanos);
+    }
+
+    void recordHedgeWin() {
+        hedgeWins.incrementAndGet();
+    }
+
+    /** The current hedge delay. */
+    public Duration getDelay() {
+        return Duration.ofNanos(delayNanos);
+    }
+
+    /** The number of hedged calls started so far. */
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    /** The number of speculative second attempts started so far. */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /** The number of calls so far whose response came from the second attempt. */
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    /** The number of second attempts so far that were skipped for lack of budget. */
+    public long getBudgetDenialCount() {
+        return budgetDenials.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HedgePolicy[delay=%dus, calls=%d, hedges=%d, hedgeWins=%d, budgetDenials=%d]",
+                delayNanos / 1000, getCallCount(), getHedgeCount(), getHedgeWinCount(), getBudgetDenialCount());
+    }
+}
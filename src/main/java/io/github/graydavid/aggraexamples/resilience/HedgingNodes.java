@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.github.graydavid.aggra.core.Behaviors.BehaviorWithCompositeCancelSignal;
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+import io.github.graydavid.aggra.core.Dependencies.NewMemoryDependency;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.DependencyLifetime;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryFactory;
+import io.github.graydavid.aggra.core.MemoryBridges.MemoryNoInputFactory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates nodes that hedge calls to another node, in the same spirit as TimeLimitNodes wrap them in a timeout. A
+ * hedging node calls the wrapped node in a new Memory. If that hasn't responded after the {@link HedgePolicy}'s delay,
+ * and the policy's budget allows, it calls the wrapped node again in another new Memory (so that the second attempt
+ * isn't just memoized). The first successful reply wins, and the loser is ignored, which triggers its cancel signal, so
+ * that wrapped nodes built with composite cancel signals or custom cancel actions stop early. A failure only wins if
+ * there's no other attempt still running, and failures are never hedged.
+ *
+ * Hedging nodes use {@link DependencyLifetime#GRAPH}, so that they can respond as soon as the winner does, without
+ * waiting for the loser. Second attempts are started on the scheduler's thread, so the wrapped node should be
+ * asynchronous.
+ */
+public class HedgingNodes {
+    private HedgingNodes() {}
+
+    public static final Type HEDGING_TYPE = Type.generic("Hedging");
+
+    public static <M extends Memory<?>> HedgingNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new HedgingNodeStarter<>(role, memoryClass);
+    }
+
+    public static class HedgingNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+        private ScheduledExecutorService scheduler;
+        private HedgePolicy policy;
+
+        private HedgingNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Sets the scheduler used to time and start second attempts. Required. */
+        public HedgingNodeStarter<M> scheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = Objects.requireNonNull(scheduler);
+            return this;
+        }
+
+        /** Sets the policy for when to hedge. Required. Share a policy only between nodes with similar latencies. */
+        public HedgingNodeStarter<M> policy(HedgePolicy policy) {
+            this.policy = Objects.requireNonNull(policy);
+            return this;
+        }
+
+        public <NM extends Memory<?>, T> Node<M, T> createMemoryNoInputAndCall(
+                MemoryNoInputFactory<M, NM> memoryFactory, Node<NM, T> node) {
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            NewMemoryDependency<NM, T> consumeNode = builder.newMemoryDependency(node);
+            return build(builder, device -> device.createMemoryNoInputAndCall(memoryFactory, consumeNode));
+        }
+
+        public <NI, NM extends Memory<NI>, T> Node<M, T> createMemoryAndCall(MemoryFactory<M, NI, NM> memoryFactory,
+                Node<M, NI> getInput, Node<NM, T> node) {
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, NI> consumeInput = builder.sameMemoryUnprimedDependency(getInput);
+            NewMemoryDependency<NM, T> consumeNode = builder.newMemoryDependency(node);
+            return build(builder,
+                    device -> device.createMemoryAndCall(memoryFactory, device.call(consumeInput), consumeNode));
+        }
+
+        private <T> Node<M, T> build(Node.CommunalBuilder<M> builder, AttemptStarter<M, T> attemptStarter) {
+            Objects.requireNonNull(scheduler, "scheduler is required");
+            Objects.requireNonNull(policy, "policy is required");
+            return builder.type(HEDGING_TYPE)
+                    .role(role)
+                    .dependencyLifetime(DependencyLifetime.GRAPH)
+                    .buildWithCompositeCancelSignal(new HedgingBehavior<>(scheduler, policy, attemptStarter));
+        }
+    }
+
+    private interface AttemptStarter<M extends Memory<?>, T> {
+        Reply<T> start(DependencyCallingDevice<M> device);
+    }
+
+    private static class HedgingBehavior<M extends Memory<?>, T> implements BehaviorWithCompositeCancelSignal<M, T> {
+        private final ScheduledExecutorService scheduler;
+        private final HedgePolicy policy;
+        private final AttemptStarter<M, T> attemptStarter;
+
+        private HedgingBehavior(ScheduledExecutorService scheduler, HedgePolicy policy,
+                AttemptStarter<M, T> attemptStarter) {
+            this.scheduler = scheduler;
+            this.policy = policy;
+            this.attemptStarter = attemptStarter;
+        }
+
+        @Override
+        public CompletionStage<T> run(DependencyCallingDevice<M> device, CompositeCancelSignal signal) {
+            return new HedgedCall<>(this, device, signal).start();
+        }
+    }
+
+    // The state of a single hedging node call. All device calls happen under the lock, before response is complete.
+    private static class HedgedCall<M extends Memory<?>, T> {
+        private final HedgingBehavior<M, T> behavior;
+        private final DependencyCallingDevice<M> device;
+        private final CompositeCancelSignal signal;
+        private final CompletableFuture<T> response = new CompletableFuture<>();
+        private final Object lock = new Object();
+        private long startNanos;
+        private Reply<T> primary;
+        private Reply<T> hedge;
+        private int outstanding;
+        private Throwable firstFailure;
+        private ScheduledFuture<?> hedgeTimer;
+
+        private HedgedCall(HedgingBehavior<M, T> behavior, DependencyCallingDevice<M> device,
+                CompositeCancelSignal signal) {
+            this.behavior = behavior;
+            this.device = device;
+            this.signal = signal;
+        }
+
+        private CompletableFuture<T> start() {
+            long delayNanos = behavior.policy.startCall();
+            synchronized (lock) {
+                startNanos = System.nanoTime();
+                primary = behavior.attemptStarter.start(device);
+                outstanding = 1;
+                primary.whenComplete((value, throwable) -> onAttemptComplete(false, value, throwable));
+                if (!response.isDone()) {
+                    hedgeTimer = behavior.scheduler.schedule(this::startHedge, delayNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            return response;
+        }
+
+        private void startHedge() {
+            synchronized (lock) {
+                hedgeTimer = null;
+                if (response.isDone() || signal.read() || !behavior.policy.tryAcquireHedge()) {
+                    return;
+                }
+                hedge = behavior.attemptStarter.start(device);
+                outstanding++;
+                hedge.whenComplete((value, throwable) -> onAttemptComplete(true, value, throwable));
+            }
+        }
+
+        private void onAttemptComplete(boolean isHedge, T value, Throwable throwable) {
+            synchronized (lock) {
+                if (response.isDone()) {
+                    return;
+                }
+                outstanding--;
+                if (throwable != null) {
+                    if (firstFailure == null) {
+                        firstFailure = throwable;
+                    }
+                    if (outstanding > 0) {
+                        return;
+                    }
+                }
+
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                    hedgeTimer = null;
+                }
+                if (throwable == null) {
+                    // If the hedge won, this is only a lower bound on the primary's latency, but it keeps slow
+                    // primaries from going unrecorded just because they were cancelled
+                    behavior.policy.recordLatency(System.nanoTime() - startNanos);
+                    if (isHedge) {
+                        behavior.policy.recordHedgeWin();
+                    }
+                    Reply<T> loser = isHedge ? primary : hedge;
+                    if (loser != null && !loser.isDone()) {
+                        device.ignore(loser);
+                    }
+                    response.complete(value);
+                } else {
+                    response.completeExceptionally(firstFailure);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.sharing;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Collects individual key lookups from many concurrent callers (e.g. across GraphCalls) and dispatches them as a single
+ * bulk lookup. A batch is dispatched when it reaches maxBatchSize keys or when maxDelay has passed since its first key,
+ * whichever comes first. Duplicate keys within a batch are only looked up once, and entries whose callers have already
+ * cancelled don't count towards maxBatchSize.
+ *
+ * Each caller provides its own CompletableFuture to be completed. Callers cancel by completing that future themselves:
+ * if that happens before dispatch, their key is dropped from the batch (unless another caller still wants it); if it
+ * happens after, the bulk lookup still runs for the other callers, and the late result is simply discarded.
+ */
+public class Batcher<K, V> {
+    private final Function<List<K>, Map<K, V>> bulkLoader;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService scheduler;
+    private final Executor dispatchExecutor;
+    private final AtomicLong numBatches = new AtomicLong();
+    private final AtomicLong numKeys = new AtomicLong();
+    private final Object lock = new Object();
+    private List<Entry<K, V>> pending = new ArrayList<>();
+    private ScheduledFuture<?> pendingTimer;
+    // Identifies the pending batch, so that a timer that fires too late to be cancelled can tell it's stale
+    private long pendingGeneration;
+
+    /**
+     * @param bulkLoader looks up many keys at once. Keys missing from the returned map fail with
+     *        {@link MissingKeyException}.
+     * @param maxBatchSize the number of keys that triggers immediate dispatch.
+     * @param maxDelay the longest any key waits for its batch to fill before dispatch.
+     * @param scheduler used to time batch windows.
+     * @param dispatchExecutor used to run bulkLoader.
+     */
+    public Batcher(Function<List<K>, Map<K, V>> bulkLoader, int maxBatchSize, Duration maxDelay,
+            ScheduledExecutorService scheduler, Executor dispatchExecutor) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.bulkLoader = Objects.requireNonNull(bulkLoader);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.scheduler = Objects.requireNonNull(scheduler);
+        this.dispatchExecutor = Objects.requireNonNull(dispatchExecutor);
+    }
+
+    /** Adds key to the current batch. response is completed with the key's value once the batch is looked up. */
+    public void load(K key, CompletableFuture<V> response) {
+        List<Entry<K, V>> toDispatch = null;
+        synchronized (lock) {
+            if (response.isDone()) {
+                return;
+            }
+            pending.add(new Entry<>(key, response));
+            if (pending.size() >= maxBatchSize) {
+                // Callers who cancelled while waiting shouldn't take up room that live keys could use
+                pending.removeIf(entry -> entry.response.isDone());
+            }
+            if (pending.size() >= maxBatchSize) {
+                toDispatch = takePending();
+            } else if (pendingTimer == null) {
+                long generation = pendingGeneration;
+                pendingTimer = scheduler.schedule(() -> dispatchOnTimer(generation), maxDelayNanos,
+                        TimeUnit.NANOSECONDS);
+            }
+        }
+        if (toDispatch != null) {
+            dispatch(toDispatch);
+        }
+    }
+
+    private List<Entry<K, V>> takePending() {
+        List<Entry<K, V>> taken = pending;
+        pending = new ArrayList<>();
+        pendingGeneration++;
+        if (pendingTimer != null) {
+            pendingTimer.cancel(false);
+            pendingTimer = null;
+        }
+        return taken;
+    }
+
+    private void dispatchOnTimer(long generation) {
+        List<Entry<K, V>> toDispatch;
+        synchronized (lock) {
+            // The batch this timer was for has already been dispatched, and a newer one has its own timer
+            if (generation != pendingGeneration) {
+                return;
+            }
+            toDispatch = takePending();
+        }
+        dispatch(toDispatch);
+    }
+
+    private void dispatch(List<Entry<K, V>> entries) {
+        // Drop callers who cancelled while waiting, and look up each remaining key only once
+        Map<K, List<CompletableFuture<V>>> keyToResponses = new LinkedHashMap<>();
+        for (Entry<K, V> entry : entries) {
+            if (!entry.response.isDone()) {
+                keyToResponses.computeIfAbsent(entry.key, k -> new ArrayList<>()).add(entry.response);
+            }
+        }
+        if (keyToResponses.isEmpty()) {
+            return;
+        }
+
+        numBatches.incrementAndGet();
+        numKeys.addAndGet(keyToResponses.size());
+        try {
+            dispatchExecutor.execute(() -> lookUpAndComplete(keyToResponses));
+        } catch (RuntimeException e) {
+            keyToResponses.values().forEach(responses -> responses.forEach(r -> r.completeExceptionally(e)));
+        }
+    }
+
+    private void lookUpAndComplete(Map<K, List<CompletableFuture<V>>> keyToResponses) {
+        Map<K, V> results;
+        try {
+            results = bulkLoader.apply(new ArrayList<>(keyToResponses.keySet()));
+        } catch (Throwable t) {
+            keyToResponses.values().forEach(responses -> responses.forEach(r -> r.completeExceptionally(t)));
+            return;
+        }
+        keyToResponses.forEach((key, responses) -> {
+            if (results.containsKey(key)) {
+                V value = results.get(key);
+                responses.forEach(response -> response.complete(value));
+            } else {
+                MissingKeyException exception = new MissingKeyException(key);
+                responses.forEach(response -> response.completeExceptionally(exception));
+            }
+        });
+    }
+
+    /** The number of bulk lookups dispatched so far. */
+    public long getNumBatches() {
+        return numBatches.get();
+    }
+
+    /** The number of distinct keys looked up so far, summed across batches. */
+    public long getNumKeys() {
+        return numKeys.get();
+    }
+
+    private static class Entry<K, V> {
+        private final K key;
+        private final CompletableFuture<V> response;
+
+        private Entry(K key, CompletableFuture<V> response) {
+            this.key = key;
+            this.response = response;
+        }
+    }
+
+    /** Thrown when a bulk lookup doesn't return a value for a key. */
+    public static class MissingKeyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public MissingKeyException(Object key) {
+            super("Bulk lookup returned no value for key: " + key);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.sharing;
+
+import java.util.concurrent.CompletableFuture;
+
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates nodes that look up a key through a shared {@link Batcher}, so that calls from many concurrent GraphCalls are
+ * combined into bulk lookups. Each node call still gets its own Reply, and cancelling one (e.g. through the GraphCall's
+ * or MemoryScope's cancel signal) only removes that caller from its batch.
+ */
+public class BatchingNodes {
+    private BatchingNodes() {}
+
+    public static final Type BATCHING_TYPE = Type.generic("Batching");
+
+    public static <M extends Memory<?>> BatchingNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+        return new BatchingNodeStarter<>(role, memoryClass);
+    }
+
+    public static class BatchingNodeStarter<M extends Memory<?>> {
+        private final Role role;
+        private final Class<M> memoryClass;
+
+        private BatchingNodeStarter(Role role, Class<M> memoryClass) {
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Creates a node that looks up the value of getKey through batcher. */
+        public <K, V> Node<M, V> batchedCall(Batcher<K, V> batcher, Node<M, K> getKey) {
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, K> consumeKey = builder.sameMemoryUnprimedDependency(getKey);
+            return builder.type(BATCHING_TYPE)
+                    .role(role)
+                    .buildWithCustomCancelAction(new BatchingBehavior<>(batcher, consumeKey));
+        }
+    }
+
+    private static class BatchingBehavior<M extends Memory<?>, K, V> extends SharedLoadBehavior<M, V> {
+        private final Batcher<K, V> batcher;
+        private final SameMemoryDependency<M, K> consumeKey;
+
+        private BatchingBehavior(Batcher<K, V> batcher, SameMemoryDependency<M, K> consumeKey) {
+            super("Batched call cancelled");
+            this.batcher = batcher;
+            this.consumeKey = consumeKey;
+        }
+
+        @Override
+        void start(DependencyCallingDevice<M> device, CompletableFuture<V> response) {
+            Reply<K> keyReply = device.call(consumeKey);
+            // Completing the response (e.g. on cancel) is enough to drop this caller from a batch not yet dispatched
+            keyReply.whenComplete((key, throwable) -> {
+                if (throwable == null) {
+                    batcher.load(key, response);
+                } else {
+                    response.completeExceptionally(throwable);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.sharing;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Type;
+
+/**
+ * Creates nodes that work like asynchronous FunctionNodes, except that their results are shared across GraphCalls
+ * through a {@link SharedCache}, keyed by the values of their dependencies. On a miss, the function runs on the
+ * executor; on a hit (including a load in flight for another GraphCall), it doesn't run at all.
+ *
+ * Cancelling a caching node call only abandons that caller's wait: the shared load keeps running for everyone else.
+ */
+public class CachingNodes {
+    private CachingNodes() {}
+
+    public static final Type CACHING_TYPE = Type.generic("Caching");
+
+    public static CachingStarter from(Executor executor) {
+        return new CachingStarter(executor);
+    }
+
+    public static class CachingStarter {
+        private final Executor executor;
+
+        private CachingStarter(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+        }
+
+        public <M extends Memory<?>> CachingNodeStarter<M> startNode(Role role, Class<M> memoryClass) {
+            return new CachingNodeStarter<>(executor, role, memoryClass);
+        }
+    }
+
+    public static class CachingNodeStarter<M extends Memory<?>> {
+        private final Executor executor;
+        private final Role role;
+        private final Class<M> memoryClass;
+
+        private CachingNodeStarter(Executor executor, Role role, Class<M> memoryClass) {
+            this.executor = executor;
+            this.role = role;
+            this.memoryClass = memoryClass;
+        }
+
+        /** Creates a node that applies function to the value of dependency, caching by that value. */
+        public <T, V> Node<M, V> apply(SharedCache<T, V> cache, Function<T, V> function, Node<M, T> dependency) {
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, T> consumeDependency = builder.sameMemoryUnprimedDependency(dependency);
+            return build(builder, device -> device.call(consumeDependency)
+                    .thenCompose(value -> cache.get(value,
+                            key -> CompletableFuture.supplyAsync(() -> function.apply(key), executor))));
+        }
+
+        /** Creates a node that applies function to the values of its dependencies, caching by the list of both. */
+        public <T, U, V> Node<M, V> apply(SharedCache<List<Object>, V> cache, BiFunction<T, U, V> function,
+                Node<M, T> dependency1, Node<M, U> dependency2) {
+            Node.CommunalBuilder<M> builder = Node.communalBuilder(memoryClass);
+            SameMemoryDependency<M, T> consumeDependency1 = builder.sameMemoryUnprimedDependency(dependency1);
+            SameMemoryDependency<M, U> consumeDependency2 = builder.sameMemoryUnprimedDependency(dependency2);
+            return build(builder, device -> {
+                Reply<T> reply1 = device.call(consumeDependency1);
+                Reply<U> reply2 = device.call(consumeDependency2);
+                return Reply.allOfBacking(reply1, reply2).thenCompose(ignore -> {
+                    T value1 = reply1.join();
+                    U value2 = reply2.join();
+                    return cache.get(Arrays.<Object>asList(value1, value2),
+                            key -> CompletableFuture.supplyAsync(() -> function.apply(value1, value2), executor));
+                });
+            });
+        }
+
+        private <V> Node<M, V> build(Node.CommunalBuilder<M> builder, CachedLookup<M, V> lookup) {
+            return builder.type(CACHING_TYPE).role(role).buildWithCustomCancelAction(new CachingBehavior<>(lookup));
+        }
+    }
+
+    private interface CachedLookup<M extends Memory<?>, V> {
+        CompletionStage<V> lookUp(DependencyCallingDevice<M> device);
+    }
+
+    private static class CachingBehavior<M extends Memory<?>, V> extends SharedLoadBehavior<M, V> {
+        private final CachedLookup<M, V> lookup;
+
+        private CachingBehavior(CachedLookup<M, V> lookup) {
+            super("Cached call cancelled");
+            this.lookup = lookup;
+        }
+
+        @Override
+        void start(DependencyCallingDevice<M> device, CompletableFuture<V> response) {
+            // The cached future is shared, so each caller gets its own copy to complete or cancel
+            lookup.lookUp(device).whenComplete((value, throwable) -> {
+                if (throwable == null) {
+                    response.complete(value);
+                } else {
+                    response.completeExceptionally(throwable);
+                }
+            });
+        }
+    }
+}
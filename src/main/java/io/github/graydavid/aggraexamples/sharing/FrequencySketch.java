@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.sharing;
+
+/**
+ * A count-min sketch that estimates how often keys have been seen recently, as used by TinyLFU admission. Counters
+ * saturate at 15, and all counters are halved once the number of increments reaches a sample size, so that old
+ * popularity fades. Not thread-safe: callers must synchronize.
+ */
+class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int increments;
+
+    FrequencySketch(long maximumSize) {
+        int width = Integer.highestOneBit((int) Math.min(Math.max(maximumSize, 16), 1 << 28) - 1) << 1;
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = (int) Math.min(10L * Math.max(maximumSize, 16), Integer.MAX_VALUE);
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean incremented = false;
+        for (int row = 0; row < DEPTH; ++row) {
+            int index = indexOf(hash, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index]++;
+                incremented = true;
+            }
+        }
+        if (incremented && ++increments >= sampleSize) {
+            halve();
+        }
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; ++row) {
+            frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+        int rowHash = (hash ^ SEEDS[row]) * SEEDS[row];
+        return (rowHash ^ (rowHash >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void halve() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; ++i) {
+                row[i] >>= 1;
+            }
+        }
+        increments /= 2;
+    }
+}
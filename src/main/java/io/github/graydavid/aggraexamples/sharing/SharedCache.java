@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.sharing;
+
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of results meant to be shared across GraphCalls, unlike Memory, which only memoizes within one. Both
+ * completed and in-flight results are shared: concurrent callers for the same key wait on a single load.
+ *
+ * Eviction follows W-TinyLFU: new entries enter a small LRU window; entries pushed out of the window only make it into
+ * the main LRU region if a frequency sketch says they're more popular than the entry they'd replace. This keeps hot
+ * keys cached in the face of scans of one-off keys. Completed results expire ttl after they complete; failed results
+ * are never cached. Expired entries are dropped when next looked up or when evicted, whichever comes first.
+ */
+public class SharedCache<K, V> {
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final long maximumSize;
+    private final long ttlNanos;
+    private final long windowMaximumSize;
+    private final FrequencySketch sketch;
+    private final Object lock = new Object();
+    private final LinkedHashMap<K, Entry<V>> window;
+    private final LinkedHashMap<K, Entry<V>> main;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * @param maximumSize the maximum number of entries, including in-flight ones.
+     * @param ttl how long a completed result stays usable.
+     */
+    public SharedCache(long maximumSize, Duration ttl) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive: " + ttl);
+        }
+        this.maximumSize = maximumSize;
+        this.ttlNanos = ttl.toNanos();
+        this.windowMaximumSize = Math.max(1, maximumSize / 100);
+        this.sketch = new FrequencySketch(maximumSize);
+        this.window = new LinkedHashMap<>(16, LOAD_FACTOR, true);
+        this.main = new LinkedHashMap<>(16, LOAD_FACTOR, true);
+    }
+
+    /**
+     * Returns the result for key, calling loader to start computing it if there's no unexpired result cached. Callers
+     * share the returned future with each other, so they must not complete (e.g. cancel) it.
+     */
+    public CompletableFuture<V> get(K key, Function<? super K, ? extends CompletionStage<V>> loader) {
+        Objects.requireNonNull(key);
+        Entry<V> created;
+        synchronized (lock) {
+            sketch.increment(key);
+            Entry<V> existing = lookUp(key);
+            if (existing != null) {
+                if (!existing.isExpired(System.nanoTime())) {
+                    hits.incrementAndGet();
+                    return existing.future;
+                }
+                remove(key, existing);
+                expirations.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            created = new Entry<>();
+            insert(key, created);
+        }
+
+        CompletionStage<V> load;
+        try {
+            load = loader.apply(key);
+        } catch (Throwable t) {
+            load = CompletableFuture.failedFuture(t);
+        }
+        load.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                created.expiresAtNanos = System.nanoTime() + ttlNanos;
+                created.future.complete(value);
+            } else {
+                synchronized (lock) {
+                    remove(key, created);
+                }
+                created.future.completeExceptionally(throwable);
+            }
+        });
+        return created.future;
+    }
+
+    private Entry<V> lookUp(K key) {
+        Entry<V> entry = window.get(key);
+        return (entry != null) ? entry : main.get(key);
+    }
+
+    private void remove(K key, Entry<V> entry) {
+        if (!window.remove(key, entry)) {
+            main.remove(key, entry);
+        }
+    }
+
+    private void insert(K key, Entry<V> entry) {
+        window.put(key, entry);
+        if (window.size() <= windowMaximumSize) {
+            return;
+        }
+
+        // The window's least-recently-used entry becomes a candidate for the main region
+        Map.Entry<K, Entry<V>> candidate = removeEldest(window);
+        long mainMaximumSize = maximumSize - windowMaximumSize;
+        if (main.size() < mainMaximumSize) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        // Otherwise, TinyLFU admission evicts whichever of the candidate and main's eldest entry is less popular
+        if (!main.isEmpty()) {
+            K victimKey = main.keySet().iterator().next();
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victimKey)) {
+                main.remove(victimKey);
+                main.put(candidate.getKey(), candidate.getValue());
+            }
+        }
+        evictions.incrementAndGet();
+    }
+
+    private static <K, V> Map.Entry<K, V> removeEldest(LinkedHashMap<K, V> map) {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        Map.Entry<K, V> eldest = new AbstractMap.SimpleImmutableEntry<>(iterator.next());
+        iterator.remove();
+        return eldest;
+    }
+
+    /** The number of entries currently cached, including in-flight and expired ones. */
+    public long size() {
+        synchronized (lock) {
+            return window.size() + main.size();
+        }
+    }
+
+    /** The number of lookups that found an unexpired result (or an in-flight load) so far. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** The number of lookups that had to start a load so far. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** The number of entries removed to stay within maximumSize so far. */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** The number of entries found expired and removed on lookup so far. */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /** The fraction of lookups so far that were hits, or NaN if there have been none. */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long lookupCount = hitCount + misses.get();
+        return (lookupCount == 0) ? Double.NaN : (double) hitCount / lookupCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SharedCache[size=%d, hits=%d, misses=%d, hitRate=%.3f, evictions=%d, expirations=%d]",
+                size(), getHitCount(), getMissCount(), getHitRate(), getEvictionCount(), getExpirationCount());
+    }
+
+    private static class Entry<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        // Stays at MAX_VALUE while in flight, so that waiters keep sharing the same load
+        private volatile long expiresAtNanos = Long.MAX_VALUE;
+
+        private boolean isExpired(long nowNanos) {
+            return expiresAtNanos != Long.MAX_VALUE && nowNanos - expiresAtNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.sharing;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import io.github.graydavid.aggra.core.Behaviors.BehaviorWithCustomCancelAction;
+import io.github.graydavid.aggra.core.Behaviors.CompositeCancelSignal;
+import io.github.graydavid.aggra.core.Behaviors.CustomCancelAction;
+import io.github.graydavid.aggra.core.Behaviors.CustomCancelActionBehaviorResponse;
+import io.github.graydavid.aggra.core.DependencyCallingDevices.DependencyCallingDevice;
+import io.github.graydavid.aggra.core.Memory;
+
+/**
+ * The behavior of nodes whose work is shared with callers from other GraphCalls (e.g. a batch or a cache load). Each
+ * node call gets its own response, which the subclass completes once the shared work is done. Cancelling a call only
+ * completes that response, abandoning this caller's wait, and never interrupts the shared work.
+ */
+abstract class SharedLoadBehavior<M extends Memory<?>, V> implements BehaviorWithCustomCancelAction<M, V> {
+    private final String cancelMessage;
+
+    SharedLoadBehavior(String cancelMessage) {
+        this.cancelMessage = cancelMessage;
+    }
+
+    /** Starts (or joins) the shared work, arranging for response to be completed with its result. */
+    abstract void start(DependencyCallingDevice<M> device, CompletableFuture<V> response);
+
+    @Override
+    public final CustomCancelActionBehaviorResponse<V> run(DependencyCallingDevice<M> device,
+            CompositeCancelSignal signal) {
+        CompletableFuture<V> response = new CompletableFuture<>();
+        start(device, response);
+        CustomCancelAction action = mayInterrupt -> response
+                .completeExceptionally(new CancellationException(cancelMessage));
+        return new CustomCancelActionBehaviorResponse<>(response, action);
+    }
+
+    @Override
+    public final boolean cancelActionMayInterruptIfRunning() {
+        // The work is shared with other callers, so it must never be interrupted on behalf of one of them
+        return false;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.storage;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Reply;
+import io.github.graydavid.aggra.core.Storage;
+
+/**
+ * A Storage that keeps Replies in a dense, fixed-size array rather than a ConcurrentHashMap. Each Node in a Graph that
+ * belongs to a given Memory class is assigned a slot index once, when the factory is created. After that, every Memory
+ * only pays for a single AtomicReferenceArray sized to the number of Nodes in its class, and every lookup is an
+ * identity probe into a shared, immutable index rather than a hash into a per-Memory map.
+ *
+ * Nodes are owned by Aggra, so there's nowhere to store the slot index on the Node itself. Instead, the index is an
+ * open-addressed identity table keyed by {@link System#identityHashCode(Object)}, which avoids calling Node#hashCode
+ * and allocates nothing per lookup.
+ */
+public class ArrayStorage implements Storage {
+    private final NodeIndex index;
+    private final AtomicReferenceArray<Reply<?>> replies;
+
+    private ArrayStorage(NodeIndex index) {
+        this.index = index;
+        this.replies = new AtomicReferenceArray<>(index.size());
+    }
+
+    /**
+     * Creates a factory for Storages to be used by Memorys of type memoryClass in graph. Pass the result as the
+     * storageFactory argument to Memory's constructor. The factory is thread-safe and should be created once per Graph
+     * and reused across GraphCalls.
+     */
+    public static Supplier<Storage> factoryFor(Graph<?> graph, Class<? extends Memory<?>> memoryClass) {
+        List<Node<?, ?>> memoryNodes = graph.getAllNodes()
+                .stream()
+                .filter(node -> node.getMemoryClass().equals(memoryClass))
+                .collect(Collectors.toList());
+        NodeIndex index = new NodeIndex(memoryNodes);
+        return () -> new ArrayStorage(index);
+    }
+
+    @Override
+    public <T> Reply<T> computeIfAbsent(Node<?, T> node, Supplier<Reply<T>> replySupplier) {
+        int slot = index.slotOf(node);
+        if (slot < 0) {
+            throw new IllegalArgumentException(
+                    "Node isn't part of the Graph this storage was created for: " + node.getRole());
+        }
+
+        Reply<T> existing = get(slot);
+        if (existing != null) {
+            return existing;
+        }
+        // Like ConcurrentHashMap, the supplier must be called at most once per Node, since it creates the Node's Reply.
+        // Contention here only happens when multiple threads call the same Node for the first time at once.
+        synchronized (this) {
+            existing = get(slot);
+            if (existing != null) {
+                return existing;
+            }
+            Reply<T> reply = Objects.requireNonNull(replySupplier.get());
+            replies.set(slot, reply);
+            return reply;
+        }
+    }
+
+    // Suppress justification: we only ever store a Reply<T> in the slot for a Node<?, T>
+    @SuppressWarnings("unchecked")
+    private <T> Reply<T> get(int slot) {
+        return (Reply<T>) replies.get(slot);
+    }
+
+    /** Maps Nodes to dense slot indexes using identity comparisons. Immutable once constructed. */
+    private static class NodeIndex {
+        private final Object[] keys;
+        private final int[] slots;
+        private final int mask;
+        private final int size;
+
+        private NodeIndex(List<Node<?, ?>> nodes) {
+            // Keep the load factor at or below 0.5, so that probe sequences stay short
+            int capacity = Integer.highestOneBit(Math.max(2, nodes.size() * 2 - 1)) << 1;
+            this.keys = new Object[capacity];
+            this.slots = new int[capacity];
+            this.mask = capacity - 1;
+            this.size = nodes.size();
+            for (int slot = 0; slot < nodes.size(); ++slot) {
+                Node<?, ?> node = nodes.get(slot);
+                int probe = hash(node) & mask;
+                while (keys[probe] != null) {
+                    probe = (probe + 1) & mask;
+                }
+                keys[probe] = node;
+                slots[probe] = slot;
+            }
+        }
+
+        private static int hash(Object key) {
+            // Spread the identity hash so that the low bits used for probing are well-mixed
+            int hash = System.identityHashCode(key);
+            return hash ^ (hash >>> 16);
+        }
+
+        private int slotOf(Node<?, ?> node) {
+            int probe = hash(node) & mask;
+            Object key;
+            while ((key = keys[probe]) != null) {
+                if (key == node) {
+                    return slots[probe];
+                }
+                probe = (probe + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
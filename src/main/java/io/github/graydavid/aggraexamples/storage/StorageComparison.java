@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.storage;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import io.github.graydavid.aggra.core.CallObservers.Observer;
+import io.github.graydavid.aggra.core.ConcurrentHashMapStorage;
+import io.github.graydavid.aggra.core.Dependencies.SameMemoryDependency;
+import io.github.graydavid.aggra.core.Graph;
+import io.github.graydavid.aggra.core.GraphCall;
+import io.github.graydavid.aggra.core.Memory;
+import io.github.graydavid.aggra.core.MemoryScope;
+import io.github.graydavid.aggra.core.Node;
+import io.github.graydavid.aggra.core.Role;
+import io.github.graydavid.aggra.core.Storage;
+import io.github.graydavid.aggra.core.Type;
+import io.github.graydavid.aggra.nodes.FunctionNodes;
+
+/**
+ * Compares the throughput and allocation of {@link ConcurrentHashMapStorage} and {@link ArrayStorage} side-by-side. The
+ * Graph is made up of synchronous nodes only, so that every node runs on the calling thread, and that thread's
+ * allocated bytes account for the entire GraphCall.
+ */
+public class StorageComparison {
+    private StorageComparison() {}
+
+    private static final int NUM_LEAF_NODES = 50;
+    private static final int NUM_WARMUP_CALLS = 200_000;
+    private static final int NUM_MEASURED_CALLS = 1_000_000;
+
+    private static class ComparisonMemory extends Memory<Void> {
+        private ComparisonMemory(MemoryScope scope, Supplier<Storage> storageFactory) {
+            super(scope, CompletableFuture.completedFuture(null), Set.of(), storageFactory);
+        }
+    }
+
+    public static void main(String args[]) {
+        Node<ComparisonMemory, Integer> sumLeaves = createSumLeavesNode();
+        Graph<ComparisonMemory> graph = Graph.fromRoots(Role.of("StorageComparisonGraph"), Set.of(sumLeaves));
+        Supplier<Storage> concurrentHashMapFactory = () -> new ConcurrentHashMapStorage();
+        Supplier<Storage> arrayFactory = ArrayStorage.factoryFor(graph, ComparisonMemory.class);
+
+        // Alternate runs, so that neither storage benefits solely from running later after more JIT warmup
+        for (int round = 1; round <= 3; ++round) {
+            System.out.println("Round " + round);
+            report("ConcurrentHashMapStorage", measure(graph, sumLeaves, concurrentHashMapFactory));
+            report("ArrayStorage", measure(graph, sumLeaves, arrayFactory));
+        }
+    }
+
+    private static Node<ComparisonMemory, Integer> createSumLeavesNode() {
+        Node.CommunalBuilder<ComparisonMemory> sumBuilder = Node.communalBuilder(ComparisonMemory.class);
+        List<SameMemoryDependency<ComparisonMemory, Integer>> leaves = new ArrayList<>();
+        for (int i = 0; i < NUM_LEAF_NODES; ++i) {
+            Node<ComparisonMemory, Integer> leaf = FunctionNodes
+                    .synchronous(Role.of("GetLeaf" + i), ComparisonMemory.class)
+                    .getValue(i);
+            leaves.add(sumBuilder.sameMemoryUnprimedDependency(leaf));
+        }
+        return sumBuilder.type(Type.generic("LeafSumming")).role(Role.of("SumLeaves")).build(device -> {
+            int sum = 0;
+            for (SameMemoryDependency<ComparisonMemory, Integer> leaf : leaves) {
+                sum += device.call(leaf).join();
+            }
+            return CompletableFuture.completedFuture(sum);
+        });
+    }
+
+    private static Measurement measure(Graph<ComparisonMemory> graph, Node<ComparisonMemory, Integer> sumLeaves,
+            Supplier<Storage> storageFactory) {
+        GraphCall.NoInputFactory<ComparisonMemory> graphCallFactory = GraphCall.NoInputFactory.from(graph,
+                scope -> new ComparisonMemory(scope, storageFactory));
+        runCalls(graphCallFactory, sumLeaves, NUM_WARMUP_CALLS);
+
+        long startBytes = currentThreadAllocatedBytes();
+        long startNanos = System.nanoTime();
+        runCalls(graphCallFactory, sumLeaves, NUM_MEASURED_CALLS);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocatedBytes = currentThreadAllocatedBytes() - startBytes;
+        return new Measurement(NUM_MEASURED_CALLS * 1_000_000_000.0 / elapsedNanos,
+                (double) allocatedBytes / NUM_MEASURED_CALLS);
+    }
+
+    private static void runCalls(GraphCall.NoInputFactory<ComparisonMemory> graphCallFactory,
+            Node<ComparisonMemory, Integer> sumLeaves, int numCalls) {
+        for (int i = 0; i < numCalls; ++i) {
+            GraphCall<ComparisonMemory> graphCall = graphCallFactory.openCancellableCall(Observer.doNothing());
+            graphCall.call(sumLeaves).join();
+            graphCall.weaklyClose().join();
+        }
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void report(String name, Measurement measurement) {
+        System.out.println(String.format("  %-25s %,12.0f calls/s %,10.0f bytes/call", name,
+                measurement.callsPerSecond, measurement.bytesPerCall));
+    }
+
+    private static class Measurement {
+        private final double callsPerSecond;
+        private final double bytesPerCall;
+
+        private Measurement(double callsPerSecond, double bytesPerCall) {
+            this.callsPerSecond = callsPerSecond;
+            this.bytesPerCall = bytesPerCall;
+        }
+    }
+}
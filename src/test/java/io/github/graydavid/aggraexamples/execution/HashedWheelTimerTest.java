@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.graydavid.aggraexamples.execution.TimeoutScheduler.Timeout;
+
+public class HashedWheelTimerTest {
+    private static HashedWheelTimer timer(int ticksPerWheel) {
+        return new HashedWheelTimer(Duration.ofMillis(1), ticksPerWheel, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Test
+    public void constructorThrowsExceptionGivenNonPositiveTickDuration() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new HashedWheelTimer(Duration.ZERO, 8, runnable -> new Thread(runnable)));
+    }
+
+    @Test
+    public void constructorThrowsExceptionGivenNonPositiveTicksPerWheel() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new HashedWheelTimer(Duration.ofMillis(1), 0, runnable -> new Thread(runnable)));
+    }
+
+    @Test
+    public void runsTasksNoEarlierThanTheirDelay() throws InterruptedException {
+        try (HashedWheelTimer timer = timer(8)) {
+            CountDownLatch ran = new CountDownLatch(1);
+            long start = System.nanoTime();
+
+            timer.schedule(ran::countDown, 20, TimeUnit.MILLISECONDS);
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        }
+    }
+
+    @Test
+    public void runsTasksWhoseDelaysSpanMultipleRotations() throws InterruptedException {
+        try (HashedWheelTimer timer = timer(4)) {
+            CountDownLatch ran = new CountDownLatch(1);
+            long start = System.nanoTime();
+
+            timer.schedule(ran::countDown, 30, TimeUnit.MILLISECONDS);
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        }
+    }
+
+    @Test
+    public void neverRunsTasksWithTheLargestDelay() throws InterruptedException {
+        try (HashedWheelTimer timer = timer(8)) {
+            AtomicInteger runs = new AtomicInteger();
+            CountDownLatch later = new CountDownLatch(1);
+
+            timer.schedule(runs::incrementAndGet, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            timer.schedule(later::countDown, 20, TimeUnit.MILLISECONDS);
+
+            assertTrue(later.await(5, TimeUnit.SECONDS));
+            assertEquals(0, runs.get());
+            assertEquals(1, timer.getPendingCount());
+        }
+    }
+
+    @Test
+    public void cancelledTasksNeverRun() throws InterruptedException {
+        try (HashedWheelTimer timer = timer(8)) {
+            AtomicInteger runs = new AtomicInteger();
+            CountDownLatch later = new CountDownLatch(1);
+
+            Timeout timeout = timer.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+            assertTrue(timeout.cancel());
+            timer.schedule(later::countDown, 60, TimeUnit.MILLISECONDS);
+
+            assertTrue(later.await(5, TimeUnit.SECONDS));
+            assertEquals(0, runs.get());
+            assertFalse(timeout.cancel());
+        }
+    }
+
+    @Test
+    public void cancelReturnsFalseAfterTaskHasRun() throws InterruptedException {
+        try (HashedWheelTimer timer = timer(8)) {
+            CountDownLatch ran = new CountDownLatch(1);
+
+            Timeout timeout = timer.schedule(ran::countDown, 1, TimeUnit.MILLISECONDS);
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertFalse(timeout.cancel());
+        }
+    }
+
+    @Test
+    public void countsCancelledTimeoutsAsRetainedUntilTheWorkerUnlinksThem() throws InterruptedException {
+        try (HashedWheelTimer timer = timer(8)) {
+            List<Timeout> timeouts = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                timeouts.add(timer.schedule(() -> {
+                }, 1, TimeUnit.HOURS));
+            }
+            assertEquals(10, timer.getPendingCount());
+            assertEquals(10, timer.getRetainedCount());
+
+            timeouts.forEach(Timeout::cancel);
+
+            assertEquals(0, timer.getPendingCount());
+            assertTrue(eventually(timer::getRetainedCount, 0));
+        }
+    }
+
+    @Test
+    public void stopsCountingTimeoutsAsRetainedOnceTheyRun() throws InterruptedException {
+        try (HashedWheelTimer timer = timer(8)) {
+            CountDownLatch ran = new CountDownLatch(1);
+
+            timer.schedule(ran::countDown, 1, TimeUnit.MILLISECONDS);
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertEquals(0, timer.getPendingCount());
+            assertEquals(0, timer.getRetainedCount());
+        }
+    }
+
+    @Test
+    public void scheduleThrowsExceptionAfterClose() {
+        HashedWheelTimer timer = timer(8);
+
+        timer.close();
+
+        assertThrows(IllegalStateException.class, () -> timer.schedule(() -> {
+        }, 1, TimeUnit.MILLISECONDS));
+    }
+
+    private static boolean eventually(LongSupplier actual, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (actual.getAsLong() != expected) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.graydavid.aggra.core.CallObservers.ObservationType;
+import io.github.graydavid.aggraexamples.observation.FlightTrace.Event;
+
+public class FlightTraceTest {
+    private static final Event FIRST_CALL = new Event("GetTopLevelResponse", "FunctionNode",
+            ObservationType.FIRST_CALL, 1, 0, 5_000_000, false);
+    private static final Event BEHAVIOR = new Event("CallService1", "FunctionNode", ObservationType.BEHAVIOR, 42,
+            1_000, 3_000_000, true);
+    // Starts before the previous event, so its start delta is negative
+    private static final Event UNFINISHED = new Event("CallService1", "FunctionNode", ObservationType.BEHAVIOR,
+            Long.MAX_VALUE, 500, -1, false);
+
+    @Test
+    public void decodesEncodedTraceExactly() {
+        FlightTrace trace = FlightTrace.encode(5_000_000, 7, List.of(FIRST_CALL, BEHAVIOR, UNFINISHED));
+
+        assertEquals(5_000_000, trace.getLatencyNanos());
+        assertEquals(7, trace.getOverwrittenEvents());
+        List<Event> events = trace.getEvents();
+        assertEquals(3, events.size());
+        assertEventEquals(FIRST_CALL, events.get(0));
+        assertEventEquals(BEHAVIOR, events.get(1));
+        assertEventEquals(UNFINISHED, events.get(2));
+    }
+
+    private static void assertEventEquals(Event expected, Event actual) {
+        assertEquals(expected.getRole(), actual.getRole());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getObservationType(), actual.getObservationType());
+        assertEquals(expected.getThreadId(), actual.getThreadId());
+        assertEquals(expected.getStartOffsetNanos(), actual.getStartOffsetNanos());
+        assertEquals(expected.getDurationNanos(), actual.getDurationNanos());
+        assertEquals(expected.isFinished(), actual.isFinished());
+        assertEquals(expected.isFailed(), actual.isFailed());
+    }
+
+    @Test
+    public void decodesEmptyTrace() {
+        FlightTrace trace = FlightTrace.encode(0, 0, List.of());
+
+        assertEquals(0, trace.getLatencyNanos());
+        assertTrue(trace.getEvents().isEmpty());
+    }
+
+    @Test
+    public void storesRepeatedNamesOnlyOnce() {
+        FlightTrace once = FlightTrace.encode(0, 0, List.of(BEHAVIOR));
+        FlightTrace twice = FlightTrace.encode(0, 0, List.of(BEHAVIOR, BEHAVIOR));
+
+        int secondEventBytes = twice.toBytes().length - once.toBytes().length;
+        assertTrue(secondEventBytes < "CallService1".length(), "second event took " + secondEventBytes + " bytes");
+    }
+
+    @Test
+    public void fromBytesRoundTripsToBytes() {
+        byte[] bytes = FlightTrace.encode(5_000_000, 0, List.of(FIRST_CALL, BEHAVIOR)).toBytes();
+
+        FlightTrace trace = FlightTrace.fromBytes(bytes);
+
+        assertArrayEquals(bytes, trace.toBytes());
+        assertEventEquals(BEHAVIOR, trace.getEvents().get(1));
+    }
+
+    @Test
+    public void fromBytesThrowsExceptionGivenWrongMagicNumber() {
+        byte[] bytes = FlightTrace.encode(0, 0, List.of(BEHAVIOR)).toBytes();
+        bytes[0] ^= 0xFF;
+
+        assertThrows(IllegalArgumentException.class, () -> FlightTrace.fromBytes(bytes));
+    }
+
+    @Test
+    public void fromBytesThrowsExceptionGivenTruncatedTrace() {
+        byte[] bytes = FlightTrace.encode(0, 0, List.of(FIRST_CALL, BEHAVIOR)).toBytes();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> FlightTrace.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    @Test
+    public void toChromeTraceJsonEscapesNamesAndDrawsUnfinishedEventsUntilCallEnd() {
+        Event quoted = new Event("Say \"hi\"\n", "Type\\", ObservationType.BEHAVIOR, 3, 2_000, -1, false);
+
+        String json = FlightTrace.encode(5_000_000, 0, List.of(quoted)).toChromeTraceJson();
+
+        assertTrue(json.contains("\"name\":\"Say \\\"hi\\\"\\u000a\""), json);
+        assertTrue(json.contains("\"type\":\"Type\\\\\""), json);
+        assertTrue(json.contains("\"ts\":2.000,\"dur\":4998.000"), json);
+        assertTrue(json.contains("\"finished\":false"), json);
+        assertFalse(json.contains("\"failed\":true"), json);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.observation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+public class LogLinearHistogramTest {
+    @Test
+    public void bucketsAreContiguousAndOrdered() {
+        for (int i = 0; i < LogLinearHistogram.BUCKET_COUNT - 1; ++i) {
+            long highest = LogLinearHistogram.highestEquivalentValue(i);
+            assertEquals(i, LogLinearHistogram.bucketIndex(highest));
+            assertEquals(i + 1, LogLinearHistogram.bucketIndex(highest + 1));
+        }
+        assertEquals(LogLinearHistogram.BUCKET_COUNT - 1,
+                LogLinearHistogram.bucketIndex(LogLinearHistogram.MAX_TRACKABLE_VALUE));
+    }
+
+    @Test
+    public void highestEquivalentValueIsWithinRelativeErrorBound() {
+        for (long value = 1; value < LogLinearHistogram.MAX_TRACKABLE_VALUE; value = value * 3 / 2 + 1) {
+            long highest = LogLinearHistogram.highestEquivalentValue(LogLinearHistogram.bucketIndex(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / LogLinearHistogram.SUB_BUCKET_COUNT, "value " + value);
+        }
+    }
+
+    @Test
+    public void snapshotOfEmptyHistogramReportsZeros() {
+        HistogramSnapshot snapshot = new LogLinearHistogram(1).snapshot();
+
+        assertEquals(0, snapshot.getTotalCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void reportsSmallValuesExactly() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1);
+        for (int value = 0; value < LogLinearHistogram.SUB_BUCKET_COUNT; ++value) {
+            histogram.record(value);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        assertEquals(LogLinearHistogram.SUB_BUCKET_COUNT, snapshot.getTotalCount());
+        assertEquals(3, snapshot.getValueAtPercentile(50));
+        assertEquals(7, snapshot.getValueAtPercentile(100));
+        assertEquals(7, snapshot.getMax());
+    }
+
+    @Test
+    public void reportsPercentilesWithinRelativeErrorBoundAndCappedAtMax() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1);
+        for (int value = 1; value <= 10_000; ++value) {
+            histogram.record(value);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        assertPercentile(5_000, snapshot.getValueAtPercentile(50));
+        assertPercentile(9_900, snapshot.getValueAtPercentile(99));
+        assertEquals(10_000, snapshot.getValueAtPercentile(100));
+        assertEquals(10_000, snapshot.getMax());
+    }
+
+    private static void assertPercentile(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected + expected / LogLinearHistogram.SUB_BUCKET_COUNT,
+                "expected about " + expected + " but was " + actual);
+    }
+
+    @Test
+    public void treatsNegativeValuesAsZeroAndClampsLargeValues() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1);
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(LogLinearHistogram.MAX_TRACKABLE_VALUE, snapshot.getMax());
+    }
+
+    @Test
+    public void snapshotAndResetStartsNewInterval() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1);
+        histogram.record(100);
+
+        HistogramSnapshot first = histogram.snapshotAndReset();
+        histogram.record(5);
+        HistogramSnapshot second = histogram.snapshotAndReset();
+
+        assertEquals(1, first.getTotalCount());
+        assertEquals(1, second.getTotalCount());
+        assertEquals(5, second.getMax());
+        assertEquals(0, histogram.snapshot().getTotalCount());
+    }
+
+    @Test
+    public void snapshotAndResetNeverLosesConcurrentlyRecordedValues() throws InterruptedException {
+        LogLinearHistogram histogram = new LogLinearHistogram(4);
+        int threads = 4;
+        int valuesPerThread = 100_000;
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> recorders = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            Thread recorder = new Thread(() -> {
+                for (int i = 0; i < valuesPerThread; ++i) {
+                    histogram.record(i);
+                }
+                done.countDown();
+            });
+            recorders.add(recorder);
+            recorder.start();
+        }
+
+        long total = 0;
+        while (done.getCount() > 0) {
+            total += histogram.snapshotAndReset().getTotalCount();
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        total += histogram.snapshotAndReset().getTotalCount();
+
+        assertEquals((long) threads * valuesPerThread, total);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Calls started before the limit was created can't decrease it, so leave room to fake start times in the past
+    private static AdaptiveConcurrencyLimit limit(AdaptiveConcurrencyLimit.Builder builder)
+            throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = builder.build();
+        Thread.sleep(50);
+        return limit;
+    }
+
+    private static void completeCall(AdaptiveConcurrencyLimit limit, long latencyNanos, boolean failed) {
+        limit.acquire().join();
+        limit.release(System.nanoTime() - latencyNanos, failed);
+    }
+
+    @Test
+    public void builderThrowsExceptionGivenInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveConcurrencyLimit.builder().initialLimit(0));
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveConcurrencyLimit.builder().minimumLimit(0));
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveConcurrencyLimit.builder().latencyTolerance(0.5));
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveConcurrencyLimit.builder().backoffRatio(1));
+        assertThrows(IllegalArgumentException.class, () -> AdaptiveConcurrencyLimit.builder().maxQueued(-1));
+        assertThrows(IllegalArgumentException.class,
+                () -> AdaptiveConcurrencyLimit.builder().minimumLimit(5).maximumLimit(4).build());
+    }
+
+    @Test
+    public void initialLimitIsClampedBetweenMinimumAndMaximum() {
+        assertEquals(5, AdaptiveConcurrencyLimit.builder().initialLimit(50).maximumLimit(5).build().getLimit());
+        assertEquals(5, AdaptiveConcurrencyLimit.builder().initialLimit(1).minimumLimit(5).build().getLimit());
+    }
+
+    @Test
+    public void rejectsCallsOverTheLimitWithoutAQueue() {
+        AdaptiveConcurrencyLimit limit = AdaptiveConcurrencyLimit.builder().initialLimit(2).build();
+
+        assertTrue(limit.acquire().isDone());
+        assertTrue(limit.acquire().isDone());
+        CompletableFuture<Long> rejected = limit.acquire();
+
+        CompletionException thrown = assertThrows(CompletionException.class, rejected::join);
+        assertTrue(thrown.getCause() instanceof RejectedExecutionException);
+        assertEquals(2, limit.getInFlight());
+        assertEquals(2, limit.getAllowedCount());
+        assertEquals(1, limit.getRejectedCount());
+    }
+
+    @Test
+    public void startsQueuedCallsInOrderAsSlotsFree() {
+        AdaptiveConcurrencyLimit limit = AdaptiveConcurrencyLimit.builder()
+                .initialLimit(1)
+                .maximumLimit(1)
+                .maxQueued(2)
+                .build();
+        long start = limit.acquire().join();
+        CompletableFuture<Long> first = limit.acquire();
+        CompletableFuture<Long> second = limit.acquire();
+        CompletableFuture<Long> rejected = limit.acquire();
+
+        assertFalse(first.isDone());
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(2, limit.getQueueLength());
+        limit.release(start, false);
+
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(1, limit.getInFlight());
+        assertEquals(1, limit.getQueueLength());
+        assertEquals(2, limit.getQueuedCount());
+    }
+
+    @Test
+    public void releaseUnusedStartsQueuedCallsWithoutAdaptingTheLimit() {
+        AdaptiveConcurrencyLimit limit = AdaptiveConcurrencyLimit.builder().initialLimit(1).maxQueued(1).build();
+        limit.acquire().join();
+        CompletableFuture<Long> queued = limit.acquire();
+
+        limit.releaseUnused();
+
+        assertTrue(queued.isDone());
+        assertEquals(1, limit.getInFlight());
+        assertEquals(1, limit.getLimit());
+        assertEquals(0, limit.getDecreaseCount());
+    }
+
+    @Test
+    public void failuresDecreaseTheLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = limit(AdaptiveConcurrencyLimit.builder().initialLimit(10).backoffRatio(0.5));
+
+        completeCall(limit, MILLI, true);
+
+        assertEquals(5, limit.getLimit());
+        assertEquals(1, limit.getDecreaseCount());
+    }
+
+    @Test
+    public void slowCallsDecreaseTheLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = limit(
+                AdaptiveConcurrencyLimit.builder().initialLimit(10).backoffRatio(0.5).latencyTolerance(2));
+
+        completeCall(limit, MILLI, false);
+        assertEquals(10, limit.getLimit());
+        completeCall(limit, 10 * MILLI, false);
+
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void onlyCallsStartedAfterTheLatestDecreaseCanDecreaseTheLimitAgain() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = limit(AdaptiveConcurrencyLimit.builder().initialLimit(10).backoffRatio(0.5));
+        long firstStart = limit.acquire().join();
+        long secondStart = limit.acquire().join();
+
+        limit.release(firstStart, true);
+        limit.release(secondStart, true);
+        assertEquals(5, limit.getLimit());
+        completeCall(limit, 0, true);
+
+        assertEquals(3, limit.getLimit());
+        assertEquals(2, limit.getDecreaseCount());
+    }
+
+    @Test
+    public void limitNeverDecreasesBelowMinimum() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = limit(
+                AdaptiveConcurrencyLimit.builder().initialLimit(2).minimumLimit(2).backoffRatio(0.1));
+
+        completeCall(limit, MILLI, true);
+
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void limitGrowsOnlyWhileItIsBeingUsed() {
+        AdaptiveConcurrencyLimit limit = AdaptiveConcurrencyLimit.builder().initialLimit(10).build();
+
+        // A generous lowest latency, so that the real calls below don't count as slow
+        completeCall(limit, 10 * MILLI, false);
+        assertEquals(10, limit.getLimit());
+
+        long[] starts = new long[5];
+        for (int i = 0; i < starts.length; ++i) {
+            starts[i] = limit.acquire().join();
+        }
+        limit.release(starts[0], false);
+
+        assertEquals(11, limit.getLimit());
+    }
+}
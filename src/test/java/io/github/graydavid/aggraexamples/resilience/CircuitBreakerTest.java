@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.graydavid.aggraexamples.resilience.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+    private static final long FAST = 0;
+    private static final long SLOW = Duration.ofSeconds(1).toNanos();
+
+    // A window long enough that nothing ages out during a test, and an open duration short enough to wait out
+    private static CircuitBreaker.Builder breaker() {
+        return CircuitBreaker.builder()
+                .failureRateThreshold(50)
+                .slowCallRateThreshold(100)
+                .slowCallDuration(Duration.ofSeconds(1))
+                .window(Duration.ofMinutes(1), 10)
+                .minimumCalls(4)
+                .openDuration(Duration.ofMillis(50))
+                .halfOpenCalls(2);
+    }
+
+    private static void record(CircuitBreaker breaker, long durationNanos, boolean failed) {
+        long permit = breaker.tryAcquirePermit();
+        assertNotEquals(-1, permit);
+        breaker.recordResult(permit, durationNanos, failed);
+    }
+
+    private static void open(CircuitBreaker breaker) {
+        for (int i = 0; i < 4; ++i) {
+            record(breaker, FAST, true);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    private static void waitOutOpenDuration() throws InterruptedException {
+        Thread.sleep(60);
+    }
+
+    @Test
+    public void builderThrowsExceptionGivenInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> CircuitBreaker.builder().failureRateThreshold(0));
+        assertThrows(IllegalArgumentException.class, () -> CircuitBreaker.builder().failureRateThreshold(101));
+        assertThrows(IllegalArgumentException.class, () -> CircuitBreaker.builder().slowCallRateThreshold(0));
+        assertThrows(IllegalArgumentException.class,
+                () -> CircuitBreaker.builder().window(Duration.ofSeconds(1), 0));
+        assertThrows(IllegalArgumentException.class, () -> CircuitBreaker.builder().halfOpenCalls(0));
+    }
+
+    @Test
+    public void staysClosedUntilMinimumCallsAreRecorded() {
+        CircuitBreaker breaker = breaker().build();
+
+        for (int i = 0; i < 3; ++i) {
+            record(breaker, FAST, true);
+        }
+
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void staysClosedWhileBelowThresholds() {
+        CircuitBreaker breaker = breaker().build();
+
+        for (int i = 0; i < 10; ++i) {
+            record(breaker, FAST, i % 3 == 1);
+        }
+
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getOpenCount());
+    }
+
+    @Test
+    public void opensOnceFailureRateReachesThreshold() {
+        CircuitBreaker breaker = breaker().build();
+
+        record(breaker, FAST, false);
+        record(breaker, FAST, false);
+        record(breaker, FAST, true);
+        assertEquals(State.CLOSED, breaker.getState());
+        record(breaker, FAST, true);
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void opensOnceSlowCallRateReachesThreshold() {
+        CircuitBreaker breaker = breaker().build();
+
+        for (int i = 0; i < 4; ++i) {
+            record(breaker, SLOW, false);
+        }
+
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void rejectsCallsWhileOpen() {
+        CircuitBreaker breaker = breaker().openDuration(Duration.ofMinutes(1)).build();
+        open(breaker);
+
+        assertEquals(-1, breaker.tryAcquirePermit());
+        assertEquals(-1, breaker.tryAcquirePermit());
+
+        assertEquals(4, breaker.getAllowedCount());
+        assertEquals(2, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void allowsOnlyHalfOpenCallsAfterOpenDuration() throws InterruptedException {
+        CircuitBreaker breaker = breaker().build();
+        open(breaker);
+        waitOutOpenDuration();
+
+        assertNotEquals(-1, breaker.tryAcquirePermit());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertNotEquals(-1, breaker.tryAcquirePermit());
+        assertEquals(-1, breaker.tryAcquirePermit());
+    }
+
+    @Test
+    public void closesWithEmptyWindowWhenHalfOpenTrialsSucceed() throws InterruptedException {
+        CircuitBreaker breaker = breaker().build();
+        open(breaker);
+        waitOutOpenDuration();
+
+        record(breaker, FAST, false);
+        record(breaker, FAST, false);
+
+        assertEquals(State.CLOSED, breaker.getState());
+        // The failures from before opening no longer count
+        record(breaker, FAST, true);
+        record(breaker, FAST, true);
+        record(breaker, FAST, true);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void reopensWhenHalfOpenTrialsFail() throws InterruptedException {
+        CircuitBreaker breaker = breaker().build();
+        open(breaker);
+        waitOutOpenDuration();
+
+        record(breaker, FAST, false);
+        record(breaker, FAST, true);
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenCount());
+        assertEquals(-1, breaker.tryAcquirePermit());
+    }
+
+    @Test
+    public void reopensWhenHalfOpenTrialsNeverComplete() throws InterruptedException {
+        CircuitBreaker breaker = breaker().build();
+        open(breaker);
+        waitOutOpenDuration();
+        breaker.tryAcquirePermit();
+        breaker.tryAcquirePermit();
+        waitOutOpenDuration();
+
+        // The stuck trials reopen the breaker, whose open duration then has to pass again
+        assertEquals(-1, breaker.tryAcquirePermit());
+        assertEquals(State.OPEN, breaker.getState());
+        waitOutOpenDuration();
+        assertNotEquals(-1, breaker.tryAcquirePermit());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void ignoresResultsOfCallsAllowedBeforeTheLatestStateChange() throws InterruptedException {
+        CircuitBreaker breaker = breaker().build();
+        long stalePermit = breaker.tryAcquirePermit();
+        open(breaker);
+        waitOutOpenDuration();
+        long trialPermit = breaker.tryAcquirePermit();
+
+        breaker.recordResult(stalePermit, SLOW, true);
+        breaker.recordResult(stalePermit, SLOW, true);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        breaker.recordResult(trialPermit, FAST, false);
+        record(breaker, FAST, false);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+}
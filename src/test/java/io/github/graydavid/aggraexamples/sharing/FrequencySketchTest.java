@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 David Gray
+ * 
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.github.graydavid.aggraexamples.sharing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class FrequencySketchTest {
+    @Test
+    public void reportsZeroForUnseenKeys() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+
+        assertEquals(0, sketch.frequency("unseen"));
+    }
+
+    @Test
+    public void countsIncrementsOfLoneKeyExactly() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        for (int i = 0; i < 5; ++i) {
+            sketch.increment("key");
+        }
+
+        assertEquals(5, sketch.frequency("key"));
+    }
+
+    @Test
+    public void neverUnderestimatesFrequency() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        for (int key = 0; key < 100; ++key) {
+            for (int i = 0; i <= key % 10; ++i) {
+                sketch.increment(key);
+            }
+        }
+
+        for (int key = 0; key < 100; ++key) {
+            assertTrue(sketch.frequency(key) >= key % 10 + 1, "key " + key);
+        }
+    }
+
+    @Test
+    public void saturatesAtFifteen() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        for (int i = 0; i < 100; ++i) {
+            sketch.increment("key");
+        }
+
+        assertEquals(15, sketch.frequency("key"));
+    }
+
+    @Test
+    public void halvesFrequenciesOnceSampleSizeIsReached() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        for (int i = 0; i < 15; ++i) {
+            sketch.increment("hot");
+        }
+
+        // Other keys can only push hot's saturated counters down, by way of the halving they trigger
+        for (int key = 0; key < 100_000 && sketch.frequency("hot") == 15; ++key) {
+            sketch.increment(key);
+        }
+
+        assertEquals(7, sketch.frequency("hot"));
+    }
+}